@@ -0,0 +1,2 @@
+javac -encoding UTF-8 -d out\bench -sourcepath src;bench bench\br\dev\brunoxkk0\p2p\bench\*.java
+java %BENCH_OPTS% -cp out\bench br.dev.brunoxkk0.p2p.bench.BenchmarkSuite %*
\ No newline at end of file
@@ -0,0 +1,20 @@
+#!/bin/sh
+# Compila o código junto aos benchmarks e executa o BenchmarkSuite, os argumentos escolhem os benchmarks
+# (security, cipher, framing, handshake, broadcast) e as propriedades bench.* são repassadas, ex.:
+#   ./bench.sh -Dbench.save=bench.properties
+#   ./bench.sh -Dbench.baseline=bench.properties framing broadcast
+set -e
+cd "$(dirname "$0")"
+
+OPTS=""
+ARGS=""
+
+for arg in "$@"; do
+    case "$arg" in
+        -D*) OPTS="$OPTS $arg" ;;
+        *) ARGS="$ARGS $arg" ;;
+    esac
+done
+
+javac -encoding UTF-8 -d out/bench -sourcepath src:bench bench/br/dev/brunoxkk0/p2p/bench/*.java
+exec java $OPTS -cp out/bench br.dev.brunoxkk0.p2p.bench.BenchmarkSuite $ARGS
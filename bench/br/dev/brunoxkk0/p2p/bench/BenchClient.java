@@ -0,0 +1,145 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PublicKey;
+
+/**
+ * Cliente mínimo usado pelos benchmarks, faz a troca de chaves {@link KeyExchange#X25519} e envia mensagens
+ * direto no canal, sem as threads e a leitura do console do {@link br.dev.brunoxkk0.p2p.client.Client},
+ * permitindo abrir milhares de conexões em um único processo.
+ */
+final class BenchClient implements Closeable {
+
+    private final SocketChannel channel;
+
+    private final Framing framing;
+
+    private final ChannelCipher cipher;
+
+    private BenchClient(SocketChannel channel, Framing framing, ChannelCipher cipher) {
+        this.channel = channel;
+        this.framing = framing;
+        this.cipher = cipher;
+    }
+
+    /**
+     * Conecta ao servidor local, faz a troca de chaves e envia o nome do cliente.
+     *
+     * @param port porta do servidor.
+     * @param name nome do cliente.
+     * @param keyPair par X25519 do cliente, pode ser compartilhado entre os clientes do benchmark.
+     * @param framing formato das mensagens pedido ao servidor.
+     * @param cipherMode criptografia do canal pedida ao servidor.
+     *
+     * @return cliente conectado, com o canal em modo bloqueante.
+     *
+     * @throws Exception caso ocorra algum erro na conexão ou na troca de chaves.
+     */
+    static BenchClient connect(int port, String name, KeyPair keyPair, Framing framing, CipherMode cipherMode) throws Exception {
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        channel.socket().setTcpNoDelay(true);
+
+        HandshakeMessage hello = new HandshakeMessage(SecurityUtils.asBase64ToString(keyPair.getPublic().getEncoded()));
+        hello.setOption(HandshakeMessage.KEX, KeyExchange.X25519.getOption());
+
+        if(framing == Framing.BINARY){
+            hello.setOption(HandshakeMessage.FRAME, Framing.BINARY.getOption());
+            hello.setOption(HandshakeMessage.FRAME_VERSION, String.valueOf(Frames.VERSION));
+        }
+
+        if(cipherMode != CipherMode.AES)
+            hello.setOption(HandshakeMessage.CIPHER, cipherMode.getOption());
+
+        writeFully(channel, ByteBuffer.wrap((hello + "\n").getBytes(StandardCharsets.UTF_8)));
+
+        String line = Frames.readLine(channel.socket().getInputStream());
+
+        if(line == null)
+            throw new IOException("Connection closed during the handshake");
+
+        HandshakeMessage reply = HandshakeMessage.parse(line);
+        PublicKey serverKey = SecurityUtils.x25519PublicKeyFromBytes(SecurityUtils.fromBase64(reply.getPayload()));
+
+        BenchClient client = new BenchClient(
+                channel,
+                Framing.fromOption(reply.getOption(HandshakeMessage.FRAME)),
+                CipherMode.fromOption(reply.getOption(HandshakeMessage.CIPHER)).create(SecurityUtils.deriveAESKey(keyPair.getPrivate(), serverKey), true)
+        );
+
+        client.send(name);
+        return client;
+    }
+
+    /**
+     * Canal do cliente.
+     *
+     * @return canal conectado ao servidor.
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Criptografa e envia uma mensagem.
+     *
+     * @param message mensagem.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou escrever a mensagem.
+     */
+    void send(String message) throws Exception {
+        writeFully(channel, encode(message));
+    }
+
+    /**
+     * Criptografa as mensagens e as envia com uma única escrita.
+     *
+     * @param messages mensagens.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou escrever as mensagens.
+     */
+    void send(String[] messages) throws Exception {
+
+        ByteBuffer[] buffers = new ByteBuffer[messages.length];
+
+        for (int i = 0; i < messages.length; i++){
+            buffers[i] = encode(messages[i]);
+        }
+
+        int last = buffers.length - 1;
+
+        while (last >= 0 && buffers[last].hasRemaining()){
+            channel.write(buffers);
+        }
+    }
+
+    private ByteBuffer encode(String message) throws Exception {
+
+        byte[] plain = message.getBytes(StandardCharsets.UTF_8);
+
+        if(framing == Framing.BINARY)
+            return Frames.encrypt(FrameType.MESSAGE, cipher, plain);
+
+        return ByteBuffer.wrap((SecurityUtils.asBase64ToString(cipher.encrypt(plain)) + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,112 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utilitário simples de micro benchmark, executa a operação durante um período de aquecimento
+ * e depois mede quantas operações por segundo foram realizadas.
+ */
+public final class Benchmark {
+
+    /**
+     * Operação a ser medida.
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        /**
+         * Executa a operação uma vez.
+         *
+         * @return um valor qualquer, consumido para evitar que o JIT elimine a operação.
+         *
+         * @throws Exception caso ocorra algum erro ao executar a operação.
+         */
+        Object run() throws Exception;
+
+    }
+
+    /**
+     * Tempo de aquecimento, em milissegundos, pode ser alterado pela propriedade "bench.warmup".
+     */
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 2000);
+
+    /**
+     * Tempo de medição, em milissegundos, pode ser alterado pela propriedade "bench.measure".
+     */
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measure", 5000);
+
+    private static volatile Object sink;
+
+    /**
+     * Resultados medidos nesta execução, na ordem em que foram medidos.
+     */
+    private static final Map<String, Double> RESULTS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private Benchmark() {
+    }
+
+    /**
+     * Mede a vazão da operação e imprime o resultado.
+     *
+     * @param name nome da operação.
+     * @param operation operação a ser medida.
+     *
+     * @return operações por segundo.
+     *
+     * @throws Exception caso ocorra algum erro ao executar a operação.
+     */
+    public static double run(String name, Operation operation) throws Exception {
+
+        loop(operation, WARMUP_MILLIS);
+
+        long start = System.nanoTime();
+        long count = loop(operation, MEASURE_MILLIS);
+        long elapsed = System.nanoTime() - start;
+
+        double perSecond = count / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+
+        report(name, perSecond);
+        return perSecond;
+    }
+
+    /**
+     * Imprime e guarda um resultado medido fora do {@link #run(String, Operation)}, como a vazão de um teste de carga.
+     *
+     * @param name nome da operação.
+     * @param perSecond operações por segundo.
+     */
+    public static void report(String name, double perSecond) {
+        RESULTS.put(name, perSecond);
+        System.out.printf("%-48s %,16.1f ops/s%n", name, perSecond);
+    }
+
+    /**
+     * Resultados medidos nesta execução.
+     *
+     * @return operações por segundo de cada operação, na ordem em que foram medidas.
+     */
+    public static Map<String, Double> getResults() {
+        synchronized (RESULTS){
+            return new LinkedHashMap<>(RESULTS);
+        }
+    }
+
+    private static long loop(Operation operation, long millis) throws Exception {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long count = 0;
+
+        while (System.nanoTime() < deadline){
+            for (int i = 0; i < 64; i++){
+                sink = operation.run();
+            }
+            count += 64;
+        }
+
+        return count;
+    }
+
+}
@@ -0,0 +1,138 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Executa todos os benchmarks e compara os resultados com uma execução anterior, para que cada mudança
+ * de desempenho possa ser medida e as regressões apareçam antes de chegar ao servidor.
+ * <ul>
+ *     <li>bench.save=arquivo - salva os resultados desta execução, para servirem de base nas próximas.</li>
+ *     <li>bench.baseline=arquivo - compara com os resultados salvos, terminando com código 1 caso algum
+ *     resultado esteja abaixo da base mais a tolerância.</li>
+ *     <li>bench.tolerance=0.10 - queda máxima aceita em relação à base, 10% por padrão.</li>
+ * </ul>
+ * Os resultados variam entre máquinas, a base deve ser gerada na mesma máquina da comparação.
+ * <p>
+ * Uso: java -Dbench.baseline=bench.properties -cp src:bench br.dev.brunoxkk0.p2p.bench.BenchmarkSuite [benchmarks...]
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+
+        boolean all = args.length == 0;
+
+        if(all || contains(args, "security"))
+            SecurityBenchmark.main(new String[0]);
+
+        if(all || contains(args, "cipher"))
+            ChannelCipherBenchmark.main(new String[0]);
+
+        if(all || contains(args, "framing"))
+            FramingBenchmark.main(new String[0]);
+
+        if(all || contains(args, "handshake"))
+            HandshakeBenchmark.main(new String[0]);
+
+        if(all || contains(args, "broadcast"))
+            BroadcastBenchmark.main(new String[0]);
+
+        Map<String, Double> results = Benchmark.getResults();
+
+        String save = System.getProperty("bench.save");
+
+        if(save != null)
+            save(Paths.get(save), results);
+
+        String baseline = System.getProperty("bench.baseline");
+
+        if(baseline != null && !compare(load(Paths.get(baseline)), results, Double.parseDouble(System.getProperty("bench.tolerance", "0.10"))))
+            System.exit(1);
+
+        System.exit(0);
+    }
+
+    /**
+     * Compara os resultados com a base, imprimindo a variação de cada operação.
+     *
+     * @param baseline resultados da base.
+     * @param results resultados desta execução.
+     * @param tolerance queda máxima aceita, entre 0 e 1.
+     *
+     * @return true caso nenhuma operação tenha caído além da tolerância.
+     */
+    private static boolean compare(Map<String, Double> baseline, Map<String, Double> results, double tolerance) {
+
+        boolean ok = true;
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Comparação com a base (tolerância de %.0f%%):%n", tolerance * 100);
+
+        for (Map.Entry<String, Double> entry : results.entrySet()){
+
+            Double base = baseline.get(entry.getKey());
+
+            if(base == null || base <= 0)
+                continue;
+
+            double change = entry.getValue() / base - 1;
+            boolean regression = change < -tolerance;
+
+            ok &= !regression;
+
+            System.out.printf(Locale.ROOT, "%-48s %+8.1f%%%s%n", entry.getKey(), change * 100, regression ? "  REGRESSÃO" : "");
+        }
+
+        return ok;
+    }
+
+    private static Map<String, Double> load(Path path) throws IOException {
+
+        Properties properties = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+            properties.load(reader);
+        }
+
+        Map<String, Double> results = new TreeMap<>();
+
+        for (String name : properties.stringPropertyNames()){
+            results.put(name, Double.parseDouble(properties.getProperty(name)));
+        }
+
+        return results;
+    }
+
+    private static void save(Path path, Map<String, Double> results) throws IOException {
+
+        Properties properties = new Properties();
+
+        for (Map.Entry<String, Double> entry : results.entrySet()){
+            properties.setProperty(entry.getKey(), String.format(Locale.ROOT, "%.1f", entry.getValue()));
+        }
+
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)){
+            properties.store(writer, "P2P-Chat benchmark results, ops/s");
+        }
+    }
+
+    private static boolean contains(String[] args, String name) {
+
+        for (String arg : args){
+            if(arg.equalsIgnoreCase(name))
+                return true;
+        }
+
+        return false;
+    }
+
+}
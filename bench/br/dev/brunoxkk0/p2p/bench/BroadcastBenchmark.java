@@ -0,0 +1,225 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.Framing;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMetrics;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Mede o disparo de mensagens para salas de 10, 100, 1.000 e 10.000 membros, do envio pelo remetente até
+ * as mensagens de todos os destinatários serem escritas nos sockets. Os membros da sala são conexões reais,
+ * abertas por um segundo processo, assim o servidor e os membros não dividem o limite de arquivos abertos
+ * do processo. Os avisos de entrada são desligados com {@link Server#setAnnouncementLimit(int)}, já que
+ * encher a sala com os avisos custaria N²/2 entregas.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.BroadcastBenchmark [tamanhos das salas...]
+ * <p>
+ * A quantidade de mensagens medidas em cada sala pode ser alterada pela propriedade "bench.broadcast.messages".
+ */
+public class BroadcastBenchmark {
+
+    /**
+     * Argumento usado para iniciar o processo dos membros da sala.
+     */
+    private static final String MEMBERS = "--members";
+
+    /**
+     * Quantidade de mensagens medidas em cada sala.
+     */
+    private static final int MESSAGES = Integer.getInteger("bench.broadcast.messages", 200);
+
+    /**
+     * Tempo máximo para todas as mensagens de uma rodada serem escritas.
+     */
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    public static void main(String[] args) throws Exception {
+
+        if(args.length > 0 && args[0].equals(MEMBERS)){
+            members(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+
+        int[] sizes = (args.length > 0) ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : new int[]{10, 100, 1_000, 10_000};
+
+        System.out.println("Disparo para toda a sala, " + MESSAGES + " mensagens por sala (entregas/s):");
+
+        for (int size : sizes){
+            run(size);
+        }
+    }
+
+    /**
+     * Enche uma sala com a quantidade informada de membros e mede o disparo das mensagens.
+     *
+     * @param size quantidade de membros, sem contar o remetente.
+     *
+     * @throws Exception caso ocorra algum erro no servidor ou nas conexões.
+     */
+    private static void run(int size) throws Exception {
+
+        Server server = new Server(0, "127.0.0.1", ServerMode.SELECTOR);
+        server.getLogger().setLevel(Level.WARNING);
+        server.setAnnouncementLimit(0);
+        server.setHistoryLimits(0, 0);
+        server.setDaemon(true);
+        server.start();
+
+        while (server.getPort() <= 0)
+            Thread.sleep(10);
+
+        ServerMetrics metrics = server.getMetrics();
+
+        Process process = new ProcessBuilder(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                BroadcastBenchmark.class.getName(), MEMBERS, String.valueOf(server.getPort()), String.valueOf(size))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             BenchClient sender = BenchClient.connect(server.getPort(), "sender", SecurityUtils.genX25519KeyPair(), Framing.BINARY, CipherMode.AES_GCM)){
+
+            if(!"READY".equals(output.readLine()))
+                throw new IOException("Members process failed");
+
+            while (metrics.getConnectedUsers() < size + 1)
+                Thread.sleep(10);
+
+            round(metrics, sender, size, Math.max(10, MESSAGES / 4));
+
+            double seconds = round(metrics, sender, size, MESSAGES);
+
+            Benchmark.report("sala com " + size + " membros", (double) size * MESSAGES / seconds);
+            System.out.printf("    %,.0f mensagens/s, disparo: %s%n", MESSAGES / seconds, server.getFanOutLatency());
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+
+        while (server.getConnections().size() > 0)
+            Thread.sleep(10);
+
+        server.interrupt();
+        server.getServerSocket().close();
+    }
+
+    /**
+     * Envia as mensagens e espera até que todas tenham sido escritas nos sockets de todos os membros.
+     *
+     * @param metrics métricas do servidor.
+     * @param sender remetente.
+     * @param size quantidade de membros.
+     * @param messages quantidade de mensagens.
+     *
+     * @return tempo da rodada, em segundos.
+     *
+     * @throws Exception caso ocorra algum erro ao enviar ou as mensagens não sejam escritas a tempo.
+     */
+    private static double round(ServerMetrics metrics, BenchClient sender, int size, int messages) throws Exception {
+
+        long target = metrics.getMessagesOut() + (long) size * messages;
+        long disconnects = metrics.getDisconnects();
+
+        String[] batch = new String[Math.min(messages, 32)];
+        Arrays.fill(batch, "[bench] -> uma mensagem comum de chat");
+
+        long start = System.nanoTime();
+
+        for (int sent = 0; sent < messages; sent += batch.length){
+            sender.send((messages - sent >= batch.length) ? batch : Arrays.copyOf(batch, messages - sent));
+        }
+
+        while (metrics.getMessagesOut() < target || metrics.getOutboundQueueDepth() > 0){
+
+            if(metrics.getDisconnects() != disconnects)
+                throw new IOException("Members disconnected during the benchmark, outbound queues overflowed");
+
+            if(System.nanoTime() - start > TIMEOUT_NANOS)
+                throw new IOException("Timed out waiting for the messages to be written");
+
+            Thread.sleep(1);
+        }
+
+        return (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Processo dos membros da sala, abre as conexões, avisa o processo do benchmark com "READY"
+     * e descarta tudo o que recebe até o processo do benchmark terminar.
+     *
+     * @param port porta do servidor.
+     * @param size quantidade de membros.
+     *
+     * @throws Exception caso ocorra algum erro nas conexões.
+     */
+    private static void members(int port, int size) throws Exception {
+
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0);
+            } catch (IOException ignored) {
+            }
+            System.exit(0);
+        });
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        KeyPair keyPair = SecurityUtils.genX25519KeyPair();
+
+        try (Selector selector = Selector.open()) {
+
+            for (int i = 0; i < size; i++){
+                BenchClient member = BenchClient.connect(port, "member-" + i, keyPair, Framing.BINARY, CipherMode.AES_GCM);
+                member.getChannel().configureBlocking(false);
+                member.getChannel().register(selector, SelectionKey.OP_READ);
+            }
+
+            System.out.println("READY");
+            System.out.flush();
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+            while (true){
+
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    int read;
+
+                    do {
+                        buffer.clear();
+                        read = ((SocketChannel) key.channel()).read(buffer);
+                    } while (read > 0);
+
+                    if(read < 0){
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.ChannelCipher;
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+
+/**
+ * Compara os modos de criptografia do canal, {@link CipherMode#AES} e {@link CipherMode#AES_GCM},
+ * tanto pela API de byte[] quanto criptografando direto em um {@link ByteBuffer} reaproveitado.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.ChannelCipherBenchmark [tamanho da mensagem]
+ */
+public class ChannelCipherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 128;
+
+        SecretKey key = SecurityUtils.genAESKey();
+        byte[] message = new byte[size];
+
+        System.out.println("Criptografia do canal, mensagens de " + size + " bytes (mensagens/s):");
+
+        for (CipherMode mode : CipherMode.values()){
+
+            ChannelCipher sender = mode.create(key, false);
+            ChannelCipher receiver = mode.create(key, true);
+
+            ByteBuffer source = ByteBuffer.wrap(message);
+            ByteBuffer target = ByteBuffer.allocate(sender.getOutputSize(size));
+
+            Benchmark.run(mode + " encrypt byte[]", () -> sender.encrypt(message));
+
+            Benchmark.run(mode + " encrypt ByteBuffer reaproveitado", () -> {
+                source.clear();
+                target.clear();
+                return sender.encrypt(source, target);
+            });
+
+            Benchmark.run(mode + " encrypt + decrypt", () -> receiver.decrypt(sender.encrypt(message)));
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Compara a criptografia AES criando um {@link Cipher} por mensagem, como era feito antes,
+ * com o cipher reaproveitado do {@link SecurityUtils}, simulando o disparo de uma mensagem
+ * para vários destinatários, cada um com sua própria chave.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.CipherBenchmark [destinatários]
+ */
+public class CipherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int recipients = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+
+        SecretKey[] keys = new SecretKey[recipients];
+
+        for (int i = 0; i < recipients; i++){
+            keys[i] = SecurityUtils.genAESKey();
+        }
+
+        byte[] message = "[bench] -> uma mensagem comum de chat".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = SecurityUtils.encryptAES(keys[0], message).getBytes(StandardCharsets.UTF_8);
+
+        int[] index = new int[1];
+
+        System.out.println("AES, " + recipients + " destinatários (mensagens/s):");
+
+        Benchmark.run("encrypt getInstance() por mensagem", () -> {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(Cipher.ENCRYPT_MODE, keys[index[0]++ % recipients]);
+            return Base64.getEncoder().encodeToString(cipher.doFinal(message));
+        });
+
+        Benchmark.run("encrypt cipher reaproveitado", () -> SecurityUtils.encryptAES(keys[index[0]++ % recipients], message));
+
+        Benchmark.run("decrypt getInstance() por mensagem", () -> {
+            Cipher cipher = Cipher.getInstance("AES");
+            cipher.init(Cipher.DECRYPT_MODE, keys[0]);
+            return new String(cipher.doFinal(Base64.getDecoder().decode(encrypted)));
+        });
+
+        Benchmark.run("decrypt cipher reaproveitado", () -> SecurityUtils.decryptAES(keys[0], encrypted));
+    }
+
+}
@@ -0,0 +1,143 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.client.Client;
+import br.dev.brunoxkk0.p2p.client.ClientSettings;
+import br.dev.brunoxkk0.p2p.server.ClusterNode;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Verificação do cluster com dois nós no mesmo processo, um usuário conectado em cada nó entra na mesma sala
+ * e cada um envia uma mensagem, que deve chegar ao usuário do outro nó. Termina com código 1 caso alguma
+ * mensagem não atravesse o cluster.
+ * <p>
+ * As portas do cluster são cluster.port=47201 e a seguinte, ambos os nós recebem a lista com os dois endereços.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.ClusterCheck
+ */
+public class ClusterCheck {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int CLUSTER_PORT = Integer.getInteger("cluster.port", 47201);
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    public static void main(String[] args) throws Exception {
+
+        List<InetSocketAddress> peers = ClusterNode.parsePeers(HOST + ":" + CLUSTER_PORT + "," + HOST + ":" + (CLUSTER_PORT + 1));
+
+        Server first = start(CLUSTER_PORT, peers);
+        Server second = start(CLUSTER_PORT + 1, peers);
+
+        boolean ok = awaitLinks(first) && awaitLinks(second);
+
+        if(ok){
+            BlockingQueue<String> firstInbox = new LinkedBlockingQueue<>();
+            BlockingQueue<String> secondInbox = new LinkedBlockingQueue<>();
+
+            Client alice = connect("alice", first, firstInbox);
+            Client bob = connect("bob", second, secondInbox);
+
+            alice.sendMessage("/join cluster");
+            bob.sendMessage("/join cluster");
+
+            /* Espera os /join chegarem aos servidores antes de enviar.*/
+            Thread.sleep(500);
+
+            ok = cross(alice, secondInbox, "alice -> bob") & cross(bob, firstInbox, "bob -> alice");
+
+            alice.close();
+            bob.close();
+        }
+
+        System.out.println("nó 1: " + stats(first.getCluster()));
+        System.out.println("nó 2: " + stats(second.getCluster()));
+        System.out.println(ok ? "OK" : "FALHOU");
+
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static Server start(int clusterPort, List<InetSocketAddress> peers) throws Exception {
+
+        Server server = new Server(0, HOST, ServerMode.SELECTOR);
+        server.getLogger().setLevel(Level.WARNING);
+        server.setDaemon(true);
+        server.start();
+
+        ClusterNode node = server.startCluster(clusterPort, peers);
+
+        if(node.getPeerCount() != 1)
+            throw new IllegalStateException("Expected 1 peer on cluster port " + clusterPort + ", got " + node.getPeerCount());
+
+        return server;
+    }
+
+    /**
+     * Espera o nó se conectar ao outro nó do cluster.
+     */
+    private static boolean awaitLinks(Server server) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (server.getCluster().getConnectedPeers() < 1){
+            if(System.currentTimeMillis() > deadline){
+                System.out.println("nó " + server.getCluster().getNodeId() + " não se conectou ao outro nó");
+                return false;
+            }
+
+            Thread.sleep(50);
+        }
+
+        return true;
+    }
+
+    private static Client connect(String name, Server server, BlockingQueue<String> inbox) throws Exception {
+
+        Client client = new Client(name, HOST, server.getPort(), new ClientSettings(), (c, message) -> inbox.add(message));
+        client.setDaemon(true);
+        client.start();
+
+        if(!client.awaitReady(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+            throw new IllegalStateException(name + " could not connect to " + HOST + ":" + server.getPort());
+
+        return client;
+    }
+
+    /**
+     * Envia uma mensagem única e espera ela chegar na caixa do usuário do outro nó.
+     */
+    private static boolean cross(Client sender, BlockingQueue<String> inbox, String label) throws Exception {
+
+        String token = "cluster-check " + System.nanoTime();
+        long start = System.nanoTime();
+
+        sender.sendMessage(token);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (System.currentTimeMillis() < deadline){
+
+            String message = inbox.poll(100, TimeUnit.MILLISECONDS);
+
+            if(message != null && message.contains(token)){
+                System.out.printf(Locale.ROOT, "%s: %.1fms%n", label, (System.nanoTime() - start) / 1e6);
+                return true;
+            }
+        }
+
+        System.out.println(label + ": mensagem não chegou");
+        return false;
+    }
+
+    private static String stats(ClusterNode node) {
+        return "entrada=" + node.getMessagesIn() + " saída=" + node.getMessagesOut() + " descartadas=" + node.getDroppedMessages();
+    }
+
+}
@@ -0,0 +1,74 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.Framing;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMetrics;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ * Mede quantas mensagens por segundo uma conexão do servidor local consegue receber, separar em linhas
+ * ou frames, descriptografar e repassar ao servidor, em cada combinação de {@link Framing} e {@link CipherMode}.
+ * Cada operação envia um lote de {@link #BATCH} mensagens em uma única escrita e espera o servidor processar
+ * todas, a criptografia do lado do cliente também entra na medida, já que o AES-GCM não aceita mensagens repetidas.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.FramingBenchmark [modo do servidor] [tamanho da mensagem]
+ */
+public class FramingBenchmark {
+
+    /**
+     * Quantidade de mensagens enviadas em cada operação.
+     */
+    private static final int BATCH = 64;
+
+    public static void main(String[] args) throws Exception {
+
+        ServerMode mode = (args.length > 0) ? ServerMode.valueOf(args[0].toUpperCase()) : ServerMode.SELECTOR;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 128;
+
+        Server server = new Server(0, "127.0.0.1", mode);
+        server.getLogger().setLevel(Level.WARNING);
+        server.setDaemon(true);
+        server.start();
+
+        while (server.getPort() <= 0)
+            Thread.sleep(10);
+
+        ServerMetrics metrics = server.getMetrics();
+        KeyPair keyPair = SecurityUtils.genX25519KeyPair();
+
+        char[] text = new char[size];
+        Arrays.fill(text, 'a');
+
+        String[] batch = new String[BATCH];
+        Arrays.fill(batch, new String(text));
+
+        System.out.println("Leitura das mensagens pela conexão, " + mode + ", lotes de " + BATCH + " mensagens de " + size + " bytes (lotes/s):");
+
+        for (Framing framing : Framing.values()){
+            for (CipherMode cipherMode : CipherMode.values()){
+
+                try (BenchClient client = BenchClient.connect(server.getPort(), "bench", keyPair, framing, cipherMode)){
+
+                    Benchmark.run(framing + " + " + cipherMode, () -> {
+
+                        long target = metrics.getMessagesIn() + BATCH;
+
+                        client.send(batch);
+
+                        while (metrics.getMessagesIn() < target)
+                            Thread.yield();
+
+                        return target;
+                    });
+                }
+            }
+        }
+    }
+
+}
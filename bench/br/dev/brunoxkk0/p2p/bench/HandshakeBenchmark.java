@@ -0,0 +1,73 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.Frames;
+import br.dev.brunoxkk0.p2p.common.HandshakeMessage;
+import br.dev.brunoxkk0.p2p.common.KeyExchange;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.server.Server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+
+/**
+ * Mede quantas trocas de chaves por segundo um servidor local consegue completar, do connect até a
+ * resposta do servidor, comparando o RSA com chaves geradas na hora, o RSA com chaves já prontas
+ * (o caso em que o {@link br.dev.brunoxkk0.p2p.common.KeyPairPool} está cheio) e o X25519.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.HandshakeBenchmark
+ */
+public class HandshakeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        Server server = new Server(0, "127.0.0.1");
+        server.getLogger().setLevel(Level.WARNING);
+        server.setDaemon(true);
+        server.start();
+
+        while (server.getPort() <= 0)
+            Thread.sleep(10);
+
+        int port = server.getPort();
+
+        KeyPair[] ready = new KeyPair[16];
+        for (int i = 0; i < ready.length; i++)
+            ready[i] = SecurityUtils.genKeyPair();
+
+        int[] next = new int[1];
+
+        System.out.println("Trocas de chaves com o servidor local (conexões/s):");
+
+        Benchmark.run("RSA, par gerado na hora", () -> handshake(port, SecurityUtils::genKeyPair, KeyExchange.RSA));
+        Benchmark.run("RSA, par pronto (pool cheio)", () -> handshake(port, () -> ready[next[0]++ & 15], KeyExchange.RSA));
+        Benchmark.run("X25519", () -> handshake(port, SecurityUtils::genX25519KeyPair, KeyExchange.X25519));
+    }
+
+    private static String handshake(int port, Callable<KeyPair> keys, KeyExchange keyExchange) throws Exception {
+
+        try (Socket socket = new Socket("127.0.0.1", port)){
+
+            socket.setTcpNoDelay(true);
+
+            KeyPair keyPair = keys.call();
+
+            HandshakeMessage hello = new HandshakeMessage(SecurityUtils.asBase64ToString(keyPair.getPublic().getEncoded()));
+
+            if(keyExchange != KeyExchange.RSA)
+                hello.setOption(HandshakeMessage.KEX, keyExchange.getOption());
+
+            OutputStream out = socket.getOutputStream();
+            out.write((hello + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            return Frames.readLine(in);
+        }
+    }
+
+}
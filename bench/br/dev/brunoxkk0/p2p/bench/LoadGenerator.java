@@ -0,0 +1,343 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.client.Client;
+import br.dev.brunoxkk0.p2p.client.ClientListener;
+import br.dev.brunoxkk0.p2p.client.ClientSettings;
+import br.dev.brunoxkk0.p2p.common.BufferPool;
+import br.dev.brunoxkk0.p2p.common.KeyExchange;
+import br.dev.brunoxkk0.p2p.server.LatencyHistogram;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMetrics;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Gerador de carga, abre várias sessões do {@link Client} em um único processo contra um servidor,
+ * distribui as sessões entre as salas e envia mensagens em uma taxa fixa, medindo a taxa de trocas de chaves,
+ * a vazão e a latência ponta a ponta de cada mensagem, do envio até a chegada em cada membro da sala.
+ * <p>
+ * As opções são lidas das propriedades do sistema:
+ * <ul>
+ *     <li>load.clients=500 - quantidade de sessões.</li>
+ *     <li>load.joinRate=200 - sessões abertas por segundo, 0 abre o mais rápido possível.</li>
+ *     <li>load.messageRate=1 - mensagens por segundo enviadas por cada sessão, 0 somente conecta.</li>
+ *     <li>load.messageSize=64 - tamanho das mensagens, em bytes.</li>
+ *     <li>load.rooms=10 - quantidade de salas.</li>
+ *     <li>load.distribution=uniform - distribuição das sessões entre as salas, uniform ou zipf, onde a primeira
+ *     sala recebe a maior parte das sessões e as seguintes cada vez menos.</li>
+ *     <li>load.duration=30 - tempo de envio das mensagens, em segundos.</li>
+ *     <li>load.kex=X25519 - troca de chaves usada pelas sessões, X25519 ou RSA.</li>
+ *     <li>load.host=127.0.0.1 e load.port - servidor alvo, sem a porta um servidor é aberto neste processo,
+ *     no modo load.mode=SELECTOR.</li>
+ *     <li>load.pool=heap - pool de buffers do servidor aberto neste processo, heap ou direct.</li>
+ * </ul>
+ * Com o servidor no mesmo processo o resultado também mostra a taxa de alocação no heap e as coletas do GC
+ * durante o envio, somando o servidor e as sessões, e quantos buffers o pool do servidor precisou alocar.
+ * Cada sessão usa uma thread bloqueada no socket, e com o servidor no mesmo processo cada sessão usa dois
+ * arquivos abertos, para cargas grandes o servidor deve ser executado em outro processo.
+ * <p>
+ * Uso: java -Dload.clients=2000 -cp src:bench br.dev.brunoxkk0.p2p.bench.LoadGenerator
+ */
+public class LoadGenerator {
+
+    private static final int CLIENTS = Integer.getInteger("load.clients", 500);
+    private static final int JOIN_RATE = Integer.getInteger("load.joinRate", 200);
+    private static final double MESSAGE_RATE = Double.parseDouble(System.getProperty("load.messageRate", "1"));
+    private static final int MESSAGE_SIZE = Integer.getInteger("load.messageSize", 64);
+    private static final int ROOMS = Integer.getInteger("load.rooms", 10);
+    private static final String DISTRIBUTION = System.getProperty("load.distribution", "uniform");
+    private static final int DURATION = Integer.getInteger("load.duration", 30);
+    private static final KeyExchange KEY_EXCHANGE = KeyExchange.valueOf(System.getProperty("load.kex", "X25519").toUpperCase());
+    private static final String HOST = System.getProperty("load.host", "127.0.0.1");
+
+    /**
+     * Prefixo das mensagens do gerador, seguido do momento do envio em {@link System#nanoTime()}.
+     */
+    private static final String PREFIX = "lt ";
+
+    /**
+     * Separador colocado pelo servidor entre o nome do remetente e a mensagem.
+     */
+    private static final String SEPARATOR = "] -> " + PREFIX;
+
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger disconnected = new AtomicInteger();
+
+    private final List<Session> sessions = new ArrayList<>();
+
+    private volatile boolean stopping;
+
+    /**
+     * Servidor aberto neste processo, null quando o alvo é um servidor externo.
+     */
+    private Server server;
+
+    public static void main(String[] args) throws Exception {
+
+        Integer port = Integer.getInteger("load.port");
+        LoadGenerator generator = new LoadGenerator();
+
+        if(port == null){
+            Server server = new Server(0, HOST, ServerMode.valueOf(System.getProperty("load.mode", "SELECTOR").toUpperCase()));
+            server.setBufferPool("direct".equalsIgnoreCase(System.getProperty("load.pool")) ? BufferPool.direct() : BufferPool.heap());
+            server.getLogger().setLevel(Level.WARNING);
+            server.setDaemon(true);
+            server.start();
+
+            while (server.getPort() <= 0)
+                Thread.sleep(10);
+
+            port = server.getPort();
+            System.out.println("Servidor local em " + HOST + ":" + port + " (" + server.getMode() + ")");
+
+            generator.server = server;
+        }
+
+        generator.run(port);
+        System.exit(0);
+    }
+
+    /**
+     * Abre as sessões, envia as mensagens durante o tempo configurado e imprime o resultado.
+     *
+     * @param port porta do servidor.
+     *
+     * @throws Exception caso ocorra algum erro ao abrir as sessões.
+     */
+    private void run(int port) throws Exception {
+
+        System.out.printf(Locale.ROOT, "%d sessões, %d/s, %.1f mensagens/s por sessão de %d bytes, %d salas (%s), %ds%n",
+                CLIENTS, JOIN_RATE, MESSAGE_RATE, MESSAGE_SIZE, ROOMS, DISTRIBUTION, DURATION);
+
+        ClientSettings settings = new ClientSettings().setKeyExchange(KEY_EXCHANGE);
+        String[] rooms = assignRooms();
+
+        long rampStart = System.nanoTime();
+
+        for (int i = 0; i < CLIENTS; i++){
+
+            if(JOIN_RATE > 0){
+                long due = rampStart + TimeUnit.SECONDS.toNanos(i) / JOIN_RATE;
+                long wait = due - System.nanoTime();
+
+                if(wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            Session session = new Session(rooms[i]);
+            session.client = new Client("load-" + i, HOST, port, settings, session);
+            session.client.setDaemon(true);
+            session.client.start();
+
+            sessions.add(session);
+        }
+
+        while (connected.get() + disconnected.get() < CLIENTS)
+            Thread.sleep(10);
+
+        double rampSeconds = (System.nanoTime() - rampStart) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%d sessões conectadas em %.1fs, %.0f trocas de chaves/s, troca de chaves: %s%n",
+                connected.get(), rampSeconds, connected.get() / rampSeconds, handshakeLatency);
+
+        /* Espera os /join e os avisos de entrada chegarem antes de medir.*/
+        Thread.sleep(1000);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "load-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Random random = new Random(42);
+
+        if(MESSAGE_RATE > 0){
+
+            long period = (long) (TimeUnit.SECONDS.toNanos(1) / MESSAGE_RATE);
+
+            for (Session session : sessions){
+                scheduler.scheduleAtFixedRate(session::send, (long) (random.nextDouble() * period), period, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        ServerMetrics metrics = (server != null) ? server.getMetrics() : null;
+
+        long allocatedBefore = (metrics != null) ? metrics.getHeapAllocatedBytes() : 0;
+        long gcBefore = (metrics != null) ? metrics.getGcCount() : 0;
+        long gcTimeBefore = (metrics != null) ? metrics.getGcTimeMillis() : 0;
+        long poolBefore = (metrics != null) ? metrics.getBufferPoolAllocated() : 0;
+
+        long start = System.nanoTime();
+        long lastSent = 0;
+        long lastReceived = 0;
+
+        for (int second = 1; second <= DURATION; second++){
+
+            TimeUnit.NANOSECONDS.sleep(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+
+            long s = sent.sum();
+            long r = received.sum();
+
+            System.out.printf(Locale.ROOT, "[%3ds] enviadas %,8d/s  recebidas %,10d/s  p99 %,10.1fus  sessões %d%n",
+                    second, s - lastSent, r - lastReceived, endToEndLatency.getPercentile(99) / 1000.0, connected.get() - disconnected.get());
+
+            lastSent = s;
+            lastReceived = r;
+        }
+
+        scheduler.shutdownNow();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long allocated = (metrics != null) ? metrics.getHeapAllocatedBytes() - allocatedBefore : 0;
+        long gc = (metrics != null) ? metrics.getGcCount() - gcBefore : 0;
+        long gcTime = (metrics != null) ? metrics.getGcTimeMillis() - gcTimeBefore : 0;
+        long poolAllocated = (metrics != null) ? metrics.getBufferPoolAllocated() - poolBefore : 0;
+
+        /* Mensagens ainda a caminho contam na latência, mas não na vazão.*/
+        long totalSent = sent.sum();
+        long totalReceived = received.sum();
+
+        Thread.sleep(1000);
+
+        stopping = true;
+
+        for (Session session : sessions){
+            session.client.close();
+        }
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Enviadas: %,d (%,.0f/s), falhas ao enviar: %,d%n", totalSent, totalSent / seconds, failures.sum());
+        System.out.printf(Locale.ROOT, "Entregas recebidas: %,d (%,.0f/s)%n", totalReceived, totalReceived / seconds);
+        System.out.printf(Locale.ROOT, "Latência ponta a ponta: p50 %.1fus  p90 %.1fus  p99 %.1fus  p99.9 %.1fus  max %.1fus%n",
+                endToEndLatency.getPercentile(50) / 1000.0, endToEndLatency.getPercentile(90) / 1000.0,
+                endToEndLatency.getPercentile(99) / 1000.0, endToEndLatency.getPercentile(99.9) / 1000.0, endToEndLatency.getMax() / 1000.0);
+        System.out.printf("Sessões desconectadas durante o teste: %d%n", disconnected.get());
+
+        if(metrics != null && allocatedBefore >= 0){
+            System.out.printf(Locale.ROOT, "Alocação no heap (servidor e sessões): %,.1f MB/s, %,.0f bytes por entrega, GC: %d coletas em %dms%n",
+                    allocated / seconds / (1024 * 1024), (totalReceived > 0) ? (double) allocated / totalReceived : 0.0, gc, gcTime);
+            System.out.printf(Locale.ROOT, "Pool de buffers (%s): %,d buffers alocados durante o envio, %,d livres%n",
+                    server.getSettings().getBufferPool().isDirect() ? "direct" : "heap", poolAllocated, metrics.getBufferPoolAvailable());
+        }
+    }
+
+    /**
+     * Sorteia a sala de cada sessão conforme a {@link #DISTRIBUTION}.
+     *
+     * @return nome da sala de cada sessão.
+     */
+    private static String[] assignRooms() {
+
+        double[] cumulative = new double[ROOMS];
+        double total = 0;
+
+        for (int i = 0; i < ROOMS; i++){
+            total += DISTRIBUTION.equalsIgnoreCase("zipf") ? 1.0 / (i + 1) : 1.0;
+            cumulative[i] = total;
+        }
+
+        Random random = new Random(7);
+        String[] rooms = new String[CLIENTS];
+
+        for (int i = 0; i < CLIENTS; i++){
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            rooms[i] = "sala-" + Math.min(ROOMS - 1, (index < 0) ? -index - 1 : index);
+        }
+
+        return rooms;
+    }
+
+    /**
+     * Sessão do gerador, recebe os eventos do seu {@link Client} e envia as mensagens com o momento do envio.
+     */
+    private final class Session implements ClientListener {
+
+        private final String room;
+
+        private final long created = System.nanoTime();
+
+        private final char[] padding;
+
+        private Client client;
+
+        private Session(String room) {
+            this.room = room;
+            this.padding = new char[Math.max(0, MESSAGE_SIZE - PREFIX.length() - 20)];
+            Arrays.fill(padding, 'x');
+        }
+
+        private void send() {
+
+            if(client.isClosed())
+                return;
+
+            try {
+                client.sendMessage(PREFIX + System.nanoTime() + ' ' + new String(padding));
+                sent.increment();
+            } catch (Exception e) {
+                failures.increment();
+            }
+        }
+
+        @Override
+        public void onConnected(Client client) {
+
+            handshakeLatency.record(System.nanoTime() - created);
+
+            try {
+                client.sendMessage("/join " + room);
+            } catch (Exception e) {
+                failures.increment();
+            }
+
+            connected.incrementAndGet();
+        }
+
+        @Override
+        public void onMessage(Client client, String message) {
+
+            int index = message.indexOf(SEPARATOR);
+
+            if(index < 0)
+                return;
+
+            int from = index + SEPARATOR.length();
+            int to = message.indexOf(' ', from);
+
+            endToEndLatency.record(System.nanoTime() - Long.parseLong(message.substring(from, (to < 0) ? message.length() : to)));
+            received.increment();
+        }
+
+        @Override
+        public void onDisconnected(Client client, Exception cause) {
+
+            if(stopping)
+                return;
+
+            disconnected.incrementAndGet();
+
+            if(cause != null)
+                System.err.println(client.getUserName() + ": " + cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+
+/**
+ * Mede as funções do {@link SecurityUtils} usadas em cada mensagem e em cada conexão: a criptografia AES
+ * pelas APIs de String e de byte[], a geração das chaves e a codificação Base64 do modo texto.
+ * <p>
+ * Uso: java -cp src:bench br.dev.brunoxkk0.p2p.bench.SecurityBenchmark [tamanho da mensagem]
+ */
+public class SecurityBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 128;
+
+        SecretKey key = SecurityUtils.genAESKey();
+        KeyPair rsa = SecurityUtils.genKeyPair();
+
+        byte[] message = new byte[size];
+        byte[] encrypted = SecurityUtils.encryptAESBytes(key, message);
+        byte[] encryptedBase64 = SecurityUtils.encryptAES(key, message).getBytes(StandardCharsets.UTF_8);
+        byte[] wrapped = SecurityUtils.encrypt(rsa.getPublic(), key.getEncoded());
+        String base64 = SecurityUtils.asBase64ToString(encrypted);
+
+        System.out.println("SecurityUtils, mensagens de " + size + " bytes (ops/s):");
+
+        Benchmark.run("encryptAES (Base64)", () -> SecurityUtils.encryptAES(key, message));
+        Benchmark.run("decryptAES (Base64)", () -> SecurityUtils.decryptAES(key, encryptedBase64));
+        Benchmark.run("encryptAESBytes", () -> SecurityUtils.encryptAESBytes(key, message));
+        Benchmark.run("decryptAESBytes", () -> SecurityUtils.decryptAESBytes(key, encrypted));
+
+        Benchmark.run("asBase64ToString", () -> SecurityUtils.asBase64ToString(encrypted));
+        Benchmark.run("fromBase64", () -> SecurityUtils.fromBase64(base64));
+
+        Benchmark.run("genAESKey", SecurityUtils::genAESKey);
+        Benchmark.run("genX25519KeyPair", SecurityUtils::genX25519KeyPair);
+        Benchmark.run("genKeyPair (RSA-2048)", SecurityUtils::genKeyPair);
+        Benchmark.run("encrypt RSA (chave AES)", () -> SecurityUtils.encrypt(rsa.getPublic(), key.getEncoded()));
+        Benchmark.run("decrypt RSA (chave AES)", () -> SecurityUtils.decrypt(rsa.getPrivate(), wrapped));
+    }
+
+}
@@ -0,0 +1,111 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.Framing;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMetrics;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Versão JMH do {@link BroadcastBenchmark}, mede o tempo de um disparo para salas de 10, 100, 1.000 e 10.000
+ * membros, do envio pelo remetente até as mensagens de todos os destinatários serem escritas nos sockets.
+ * Os membros são abertos pelo processo de membros do {@link BroadcastBenchmark}, cada processo precisa
+ * de um limite de arquivos abertos (ulimit -n) maior que a quantidade de membros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastJmhBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int members;
+
+    private Server server;
+    private ServerMetrics metrics;
+    private Process process;
+    private BenchClient sender;
+
+    private final String[] message = {"[bench] -> uma mensagem comum de chat"};
+
+    @Setup
+    public void setup() throws Exception {
+
+        server = new Server(0, "127.0.0.1", ServerMode.SELECTOR);
+        server.getLogger().setLevel(Level.WARNING);
+        server.setAnnouncementLimit(0);
+        server.setHistoryLimits(0, 0);
+        server.setDaemon(true);
+        server.start();
+
+        while (server.getPort() <= 0)
+            Thread.sleep(10);
+
+        metrics = server.getMetrics();
+
+        process = new ProcessBuilder(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                BroadcastBenchmark.class.getName(), "--members", String.valueOf(server.getPort()), String.valueOf(members))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+        if(!"READY".equals(output.readLine()))
+            throw new IOException("Members process failed");
+
+        sender = BenchClient.connect(server.getPort(), "sender", SecurityUtils.genX25519KeyPair(), Framing.BINARY, CipherMode.AES_GCM);
+
+        while (metrics.getConnectedUsers() < members + 1)
+            Thread.sleep(10);
+    }
+
+    @Benchmark
+    public long broadcast() throws Exception {
+
+        long target = metrics.getMessagesOut() + members;
+
+        sender.send(message);
+
+        while (metrics.getMessagesOut() < target || metrics.getOutboundQueueDepth() > 0)
+            Thread.yield();
+
+        return target;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+
+        sender.close();
+
+        process.destroy();
+        process.waitFor();
+
+        server.interrupt();
+        server.getServerSocket().close();
+    }
+
+}
@@ -0,0 +1,104 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.Framing;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.server.Server;
+import br.dev.brunoxkk0.p2p.server.ServerMetrics;
+import br.dev.brunoxkk0.p2p.server.ServerMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Versão JMH do {@link FramingBenchmark}, mede quantas mensagens por segundo uma conexão do servidor local
+ * consegue receber, separar em linhas ou frames, descriptografar e repassar ao servidor. Cada operação envia
+ * um lote de {@link #BATCH} mensagens em uma única escrita e espera o servidor processar todas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingJmhBenchmark {
+
+    /**
+     * Quantidade de mensagens enviadas em cada operação.
+     */
+    private static final int BATCH = 64;
+
+    @Param({"TEXT", "BINARY"})
+    private Framing framing;
+
+    @Param({"AES", "AES_GCM"})
+    private CipherMode cipherMode;
+
+    @Param({"SELECTOR", "THREAD"})
+    private ServerMode mode;
+
+    @Param({"128"})
+    private int size;
+
+    private Server server;
+    private ServerMetrics metrics;
+    private BenchClient client;
+    private String[] batch;
+
+    @Setup
+    public void setup() throws Exception {
+
+        server = new Server(0, "127.0.0.1", mode);
+        server.getLogger().setLevel(Level.WARNING);
+        server.setDaemon(true);
+        server.start();
+
+        while (server.getPort() <= 0)
+            Thread.sleep(10);
+
+        metrics = server.getMetrics();
+        client = BenchClient.connect(server.getPort(), "bench", SecurityUtils.genX25519KeyPair(), framing, cipherMode);
+
+        char[] text = new char[size];
+        Arrays.fill(text, 'a');
+
+        batch = new String[BATCH];
+        Arrays.fill(batch, new String(text));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long readBatch() throws Exception {
+
+        long target = metrics.getMessagesIn() + BATCH;
+
+        client.send(batch);
+
+        while (metrics.getMessagesIn() < target)
+            Thread.yield();
+
+        return target;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.interrupt();
+        server.getServerSocket().close();
+    }
+
+}
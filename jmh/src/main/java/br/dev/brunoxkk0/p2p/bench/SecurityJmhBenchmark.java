@@ -0,0 +1,123 @@
+package br.dev.brunoxkk0.p2p.bench;
+
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Versão JMH do {@link SecurityBenchmark}, mede as funções do {@link SecurityUtils} usadas em cada mensagem
+ * e em cada conexão: a criptografia AES pelas APIs de String, byte[] e ByteBuffer, a codificação Base64
+ * do modo texto e a geração das chaves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityJmhBenchmark {
+
+    @Param({"128", "4096"})
+    private int size;
+
+    private SecretKey key;
+    private KeyPair rsa;
+
+    private byte[] message;
+    private byte[] encrypted;
+    private byte[] encryptedBase64;
+    private byte[] wrapped;
+    private String base64;
+
+    private ByteBuffer source;
+    private ByteBuffer target;
+
+    @Setup
+    public void setup() throws Exception {
+
+        key = SecurityUtils.genAESKey();
+        rsa = SecurityUtils.genKeyPair();
+
+        message = new byte[size];
+        encrypted = SecurityUtils.encryptAESBytes(key, message);
+        encryptedBase64 = SecurityUtils.encryptAES(key, message).getBytes(StandardCharsets.UTF_8);
+        wrapped = SecurityUtils.encrypt(rsa.getPublic(), key.getEncoded());
+        base64 = SecurityUtils.asBase64ToString(encrypted);
+
+        source = ByteBuffer.wrap(encrypted);
+        target = ByteBuffer.allocate(4 * (encrypted.length / 3 + 1));
+    }
+
+    @Benchmark
+    public String encryptAES() throws Exception {
+        return SecurityUtils.encryptAES(key, message);
+    }
+
+    @Benchmark
+    public String decryptAES() throws Exception {
+        return SecurityUtils.decryptAES(key, encryptedBase64);
+    }
+
+    @Benchmark
+    public byte[] encryptAESBytes() throws Exception {
+        return SecurityUtils.encryptAESBytes(key, message);
+    }
+
+    @Benchmark
+    public byte[] decryptAESBytes() throws Exception {
+        return SecurityUtils.decryptAESBytes(key, encrypted);
+    }
+
+    @Benchmark
+    public String asBase64ToString() {
+        return SecurityUtils.asBase64ToString(encrypted);
+    }
+
+    @Benchmark
+    public byte[] fromBase64() {
+        return SecurityUtils.fromBase64(base64);
+    }
+
+    @Benchmark
+    public int asBase64Buffer() {
+        source.clear();
+        target.clear();
+        return SecurityUtils.asBase64(source, target);
+    }
+
+    @Benchmark
+    public SecretKey genAESKey() throws Exception {
+        return SecurityUtils.genAESKey();
+    }
+
+    @Benchmark
+    public KeyPair genX25519KeyPair() throws Exception {
+        return SecurityUtils.genX25519KeyPair();
+    }
+
+    @Benchmark
+    public KeyPair genKeyPair() throws Exception {
+        return SecurityUtils.genKeyPair();
+    }
+
+    @Benchmark
+    public byte[] decryptRSA() throws Exception {
+        return SecurityUtils.decrypt(rsa.getPrivate(), wrapped);
+    }
+
+}
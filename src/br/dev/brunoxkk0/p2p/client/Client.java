@@ -1,19 +1,42 @@
 package br.dev.brunoxkk0.p2p.client;
 
-import br.dev.brunoxkk0.p2p.common.KeyShareStatus;
-import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+import br.dev.brunoxkk0.p2p.common.*;
 
 import javax.crypto.SecretKey;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Cliente do chat, a thread do cliente faz a troca de chaves e depois fica bloqueada lendo o socket,
+ * repassando as mensagens recebidas ao {@link ClientListener}, sem consumir processamento enquanto não chegam
+ * mensagens. O envio é feito por quem chama o {@link #sendMessage(String)}, como a thread que lê o console,
+ * separando o caminho da entrada do caminho da rede, o que permite usar o cliente em bots e geradores de carga.
+ */
+public class Client extends Thread{
 
+    /**
+     * Logger do cliente, usado para os avisos que não são mensagens do chat.
+     */
+    private static final Logger logger = Logger.getLogger("Client");
 
-public class Client extends Thread{
+    /**
+     * Quantidade máxima de tentativas seguidas de reconexão do cliente de terminal.
+     */
+    private static final int MAX_RECONNECT_ATTEMPTS = 10;
+
+    /**
+     * Intervalo entre as tentativas de reconexão do cliente de terminal.
+     */
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
 
     /**
      * Nome do cliente.
@@ -26,28 +49,53 @@ public class Client extends Thread{
     private final Socket socket;
 
     /**
-     * Buffer de leitura do servidor para o cliente.
+     * Buffer de leitura do servidor para o cliente, usado tanto para linhas quanto para frames binários.
      */
-    private final BufferedReader reader;
+    private final DataInputStream reader;
 
     /**
      * Buffer de escrita do cliente para o servidor.
      */
-    private final BufferedWriter writer;
+    private final OutputStream writer;
+
+    /**
+     * Opções solicitadas ao servidor.
+     */
+    private final ClientSettings settings;
+
+    /**
+     * Recebe as mensagens e os eventos da conexão.
+     */
+    private final ClientListener listener;
+
+    /**
+     * Formato das mensagens aceito pelo servidor.
+     */
+    private Framing framing = Framing.TEXT;
+
+    /**
+     * Criptografia do canal, negociada durante a troca de chaves.
+     */
+    private ChannelCipher channelCipher;
+
+    /**
+     * Chave de grupo atual da sala.
+     */
+    private GroupKey groupKey;
 
     /**
-     * Controla se o cliente ja foi apresentado, um cliente é considerado apresentado,
-     * se, o seu nome ja foi enviado ao servidor.
+     * Chave de grupo anterior, mantida para as mensagens enviadas pelo servidor antes da troca de chave chegar.
      */
-    private boolean isIntroduced;
+    private GroupKey previousGroupKey;
 
     /**
-     * Buffer de entrada do sistema.
+     * Entrada de dados lida por uma thread própria do cliente, nula quando as mensagens são enviadas
+     * somente através do {@link #sendMessage(String)}.
      */
     private final BufferedReader input;
 
     /**
-     * Par de chaves RSA.
+     * Par de chaves RSA, ou X25519 na troca de chaves {@link KeyExchange#X25519}.
      */
     private final KeyPair keyPair;
 
@@ -56,10 +104,38 @@ public class Client extends Thread{
      */
     private SecretKey AESKey;
 
+    /**
+     * Controla se a sessão foi retomada através do ticket, neste caso as chaves de grupo
+     * chegam criptografadas com a criptografia do canal.
+     */
+    private boolean resumed;
+
+    /**
+     * Ticket recebido do servidor ao final da troca de chaves.
+     */
+    private volatile SessionTicket sessionTicket;
+
+    /**
+     * Liberado ao final da troca de chaves, ou quando a conexão é encerrada antes disso.
+     */
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    /**
+     * Trava que mantém a ordem entre criptografar e escrever as mensagens, necessária para
+     * que os contadores do {@link AesGcmChannelCipher} cheguem ao servidor em ordem.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Controla se a conexão ja foi encerrada.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
     /**
      * Cliente usado para se comunicar ao servidor através dos parâmetros informados,
-     * quando criado, inicializa o {@link #reader} e {@link #writer} utilizando o
-     * charset {@link StandardCharsets#UTF_8}, também, gera um par de chaves RSA.
+     * quando criado, inicializa o {@link #reader} e {@link #writer}, também, obtém um par de chaves RSA
+     * do {@link KeyPairPool}. Solicita ao servidor as opções padrão do {@link ClientSettings}.
+     * As linhas da entrada são enviadas ao servidor e as mensagens recebidas exibidas na saída do sistema.
      *
      * @param input entrada de dados do sistema.
      * @param userName nome do cliente.
@@ -69,15 +145,59 @@ public class Client extends Thread{
      * @throws Exception caso algum erro ocorra na criação.
      */
     public Client(BufferedReader input, String userName, String host, int port) throws Exception {
+        this(input, userName, host, port, new ClientSettings());
+    }
+
+    /**
+     * Cliente usado para se comunicar ao servidor através dos parâmetros informados,
+     * solicitando as opções informadas, {@link ClientSettings#legacy()} permite conectar em
+     * servidores de versões anteriores. As linhas da entrada são enviadas ao servidor e
+     * as mensagens recebidas exibidas na saída do sistema.
+     *
+     * @param input entrada de dados do sistema.
+     * @param userName nome do cliente.
+     * @param host endereço do servidor.
+     * @param port porta do servidor.
+     * @param settings opções solicitadas ao servidor.
+     *
+     * @throws Exception caso algum erro ocorra na criação.
+     */
+    public Client(BufferedReader input, String userName, String host, int port, ClientSettings settings) throws Exception {
+        this(input, userName, host, port, settings, new ConsoleListener());
+    }
+
+    /**
+     * Cliente sem entrada de dados, as mensagens são enviadas através do {@link #sendMessage(String)}
+     * e as recebidas repassadas ao listener informado.
+     *
+     * @param userName nome do cliente.
+     * @param host endereço do servidor.
+     * @param port porta do servidor.
+     * @param settings opções solicitadas ao servidor.
+     * @param listener recebe as mensagens e os eventos da conexão.
+     *
+     * @throws Exception caso algum erro ocorra na criação.
+     */
+    public Client(String userName, String host, int port, ClientSettings settings, ClientListener listener) throws Exception {
+        this(null, userName, host, port, settings, listener);
+    }
+
+    private Client(BufferedReader input, String userName, String host, int port, ClientSettings settings, ClientListener listener) throws Exception {
+
+        super("client-" + userName);
 
         this.userName = userName;
         this.socket = new Socket(host, port);
         this.input = input;
+        this.settings = settings;
+        this.listener = listener;
+
+        this.socket.setTcpNoDelay(true);
 
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        this.reader = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.writer = new BufferedOutputStream(socket.getOutputStream());
 
-        this.keyPair = SecurityUtils.genKeyPair();
+        this.keyPair = (settings.getKeyExchange() == KeyExchange.X25519) ? KeyPairPool.x25519().take() : KeyPairPool.rsa().take();
 
     }
 
@@ -100,73 +220,282 @@ public class Client extends Thread{
     }
 
 
+    /**
+     * Retorna o ticket recebido do servidor ao final da troca de chaves, usado em
+     * {@link ClientSettings#setSessionTicket(SessionTicket)} para retomar a sessão ao reconectar.
+     *
+     * @return ticket da sessão, ou null caso o servidor não emita tickets.
+     */
+    public SessionTicket getSessionTicket() {
+        return sessionTicket;
+    }
+
+    /**
+     * Retorna se a conexão ja foi encerrada.
+     *
+     * @return true caso a conexão esteja encerrada.
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Espera a troca de chaves terminar.
+     *
+     * @param timeout tempo máximo de espera.
+     * @param unit unidade do tempo de espera.
+     *
+     * @return true caso a troca de chaves tenha terminado e a conexão esteja aberta.
+     *
+     * @throws InterruptedException caso a thread seja interrompida enquanto espera.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit) && !closed.get();
+    }
+
+    /**
+     * Loop de rede do cliente, faz a troca de chaves, envia o nome do cliente e fica bloqueado lendo
+     * as mensagens do servidor até a conexão ser encerrada.
+     */
     @Override
     public void run() {
 
-        KeyShareStatus keyShareStatus = KeyShareStatus.SEND_CLIENT_RSA;
+        Exception cause = null;
 
         try {
 
-            while (socket.isConnected() && !socket.isInputShutdown()){
+            handshake();
 
-                if(!isIntroduced && keyShareStatus == KeyShareStatus.FINISH){
-                    writer.write(encrypt(getUserName()) + "\r\n");
-                    writer.flush();
-                    isIntroduced = true;
-                    continue;
-                }
+            write(getUserName().getBytes(StandardCharsets.UTF_8));
+            ready.countDown();
+
+            listener.onConnected(this);
+
+            if(input != null){
+                Thread inputThread = new Thread(this::readInput, getName() + "-input");
+                inputThread.setDaemon(true);
+                inputThread.start();
+            }
 
-                if(keyShareStatus == KeyShareStatus.SEND_CLIENT_RSA){
+            while (!closed.get()){
+                if(framing == Framing.BINARY){
+                    Frames.read(reader, this::onFrame);
+                } else {
+                    String line = Frames.readLine(reader);
 
-                    writer.write(SecurityUtils.asBase64ToString(keyPair.getPublic().getEncoded()) + "\r\n");
-                    writer.flush();
+                    if(line == null)
+                        break;
 
-                    keyShareStatus = KeyShareStatus.RECEIVE_SERVER_AES;
-                    continue;
+                    onFrame(FrameType.MESSAGE, SecurityUtils.fromBase64(line));
                 }
+            }
 
+        } catch (EOFException ignored) {
+        } catch (Exception e) {
+            if(!closed.get())
+                cause = e;
+        }
 
-                String message;
+        if(closed.compareAndSet(false, true))
+            closeSocket();
+
+        ready.countDown();
+        listener.onDisconnected(this, cause);
+    }
+
+    /**
+     * Envia a chave pública e as opções ao servidor e processa a resposta, definindo a chave AES,
+     * o formato das mensagens e a criptografia do canal.
+     *
+     * @throws Exception caso ocorra algum erro na troca de chaves.
+     */
+    private void handshake() throws Exception {
 
-                if(reader.ready()){
+        boolean x25519 = settings.getKeyExchange() == KeyExchange.X25519;
+        byte[] resumeNonce = null;
 
-                    String socket_message = reader.readLine();
+        HandshakeMessage hello = new HandshakeMessage(SecurityUtils.asBase64ToString(keyPair.getPublic().getEncoded()));
 
-                    if(keyShareStatus == KeyShareStatus.RECEIVE_SERVER_AES){
+        if(settings.getFraming() == Framing.BINARY){
+            hello.setOption(HandshakeMessage.FRAME, Framing.BINARY.getOption());
+            hello.setOption(HandshakeMessage.FRAME_VERSION, String.valueOf(Frames.VERSION));
+            hello.setOption(HandshakeMessage.GROUP, "1");
+        }
 
-                        byte[] encrypted = SecurityUtils.fromBase64(socket_message.getBytes());
+        if(settings.getCipherMode() != CipherMode.AES)
+            hello.setOption(HandshakeMessage.CIPHER, settings.getCipherMode().getOption());
 
-                        encrypted = SecurityUtils.decrypt(keyPair.getPrivate(), encrypted);
+        if(x25519)
+            hello.setOption(HandshakeMessage.KEX, KeyExchange.X25519.getOption());
 
-                        AESKey = SecurityUtils.aesKeyFromBase64(SecurityUtils.asBase64ToString(encrypted));
+        if(settings.getSessionTicket() != null){
+            resumeNonce = SecurityUtils.randomBytes(16);
+            hello.setOption(HandshakeMessage.TICKET, settings.getSessionTicket().getTicket());
+            hello.setOption(HandshakeMessage.NONCE, SecurityUtils.asBase64ToString(resumeNonce));
+        } else {
+            hello.setOption(HandshakeMessage.RESUME, "1"); /* Anuncia que aceita receber um ticket de sessão.*/
+        }
 
-                        keyShareStatus = KeyShareStatus.FINISH;
-                        continue;
-                    }
+        synchronized (writeLock){
+            writeLine(hello.toString());
+        }
 
-                    System.out.println(SecurityUtils.decryptAES(AESKey, socket_message.getBytes()));
+        String line = Frames.readLine(reader);
 
-                }
+        if(line == null)
+            throw new EOFException("Connection closed during the key exchange");
 
-                if(input.ready()){
-                    message = input.readLine();
+        HandshakeMessage reply = HandshakeMessage.parse(line);
 
-                    if(message != null){
-                        writer.write(encrypt(message) + "\r\n");
-                        writer.flush();
-                    }
-                }
+        if(resumeNonce != null && reply.getOption(HandshakeMessage.RESUME) != null){
 
-            }
+            AESKey = SecurityUtils.deriveAESKey(settings.getSessionTicket().getSecret(), resumeNonce, SecurityUtils.fromBase64(reply.getPayload()));
+            resumed = true;
+        } else if(x25519){
+
+            if(KeyExchange.fromOption(reply.getOption(HandshakeMessage.KEX)) != KeyExchange.X25519)
+                throw new IOException("Server does not support X25519 key exchange");
+
+            PublicKey serverKey = SecurityUtils.x25519PublicKeyFromBytes(SecurityUtils.fromBase64(reply.getPayload()));
+            AESKey = SecurityUtils.deriveAESKey(keyPair.getPrivate(), serverKey);
+        } else {
+
+            byte[] encrypted = SecurityUtils.fromBase64(reply.getPayload());
+
+            encrypted = SecurityUtils.decrypt(keyPair.getPrivate(), encrypted);
+
+            AESKey = SecurityUtils.aesKeyFromBase64(SecurityUtils.asBase64ToString(encrypted));
+        }
+
+        framing = Framing.fromOption(reply.getOption(HandshakeMessage.FRAME));
+        channelCipher = CipherMode.fromOption(reply.getOption(HandshakeMessage.CIPHER)).create(AESKey, true);
+
+        if(reply.getOption(HandshakeMessage.TICKET) != null){
+            String lifetime = reply.getOption(HandshakeMessage.TICKET_LIFETIME);
+            long expiresAt = (lifetime != null) ? System.currentTimeMillis() + Long.parseLong(lifetime) : Long.MAX_VALUE;
+
+            sessionTicket = new SessionTicket(reply.getOption(HandshakeMessage.TICKET), AESKey, expiresAt);
+        }
+    }
+
+    /**
+     * Loop da thread de entrada, usada quando o cliente foi criado com uma entrada de dados,
+     * fica bloqueada lendo as linhas e as envia ao servidor.
+     */
+    private void readInput() {
+        try {
+            String message;
 
+            while (!closed.get() && (message = input.readLine()) != null){
+                sendMessage(message);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            if(!closed.get())
+                logger.warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Processa um frame recebido do servidor, guardando as chaves de grupo recebidas e
+     * repassando as mensagens ao {@link #listener}.
+     *
+     * @param type tipo do frame.
+     * @param payload conteúdo criptografado.
+     *
+     * @throws Exception caso ocorra algum erro ao descriptografar a mensagem.
+     */
+    private void onFrame(FrameType type, byte[] payload) throws Exception {
+
+        if(type == FrameType.GROUP_KEY){
+            previousGroupKey = groupKey;
+            groupKey = (resumed || settings.getKeyExchange() == KeyExchange.X25519) ? GroupKey.unwrap(payload, channelCipher) : GroupKey.unwrap(payload, keyPair.getPrivate());
+            return;
+        }
+
+        if(type == FrameType.GROUP_MESSAGE){
+
+            int epoch = GroupKey.epochOf(payload);
+            GroupKey key = (groupKey != null && groupKey.getEpoch() == epoch) ? groupKey : previousGroupKey;
+
+            if(key == null || key.getEpoch() != epoch){
+                logger.warning("Discarding message with unknown group key (epoch " + epoch + ")");
+                return;
+            }
+
+            listener.onMessage(this, new String(key.decrypt(payload), StandardCharsets.UTF_8));
+            return;
         }
 
+        listener.onMessage(this, new String(channelCipher.decrypt(payload), StandardCharsets.UTF_8));
     }
 
     /**
-     * Criptografa a mensagem informada utilizando a chave AES, e codifica em Base64.
+     * Criptografa a mensagem e envia ao servidor, no formato negociado durante a troca de chaves,
+     * esperando a troca de chaves terminar caso ainda esteja em andamento. Pode ser chamado por várias threads.
+     *
+     * @param message mensagem a ser enviada.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou enviar a mensagem, ou a conexão esteja encerrada.
+     */
+    public void sendMessage(String message) throws Exception {
+
+        ready.await();
+
+        if(closed.get())
+            throw new IOException("Connection closed");
+
+        write(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Criptografa e escreve a mensagem no socket.
+     *
+     * @param plain mensagem em bytes.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou escrever a mensagem.
+     */
+    private void write(byte[] plain) throws Exception {
+        synchronized (writeLock){
+            if(framing == Framing.BINARY){
+                ByteBuffer frame = Frames.encrypt(FrameType.MESSAGE, channelCipher, plain);
+                writer.write(frame.array(), frame.position(), frame.remaining());
+                writer.flush();
+            } else {
+                writeLine(SecurityUtils.asBase64ToString(channelCipher.encrypt(plain)));
+            }
+        }
+    }
+
+    /**
+     * Escreve uma linha terminada por "\r\n" no socket.
+     *
+     * @param line linha a ser escrita.
+     *
+     * @throws IOException caso ocorra algum erro ao escrever.
+     */
+    private void writeLine(String line) throws IOException {
+        writer.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+        writer.flush();
+    }
+
+    /**
+     * Encerra a conexão, a thread do cliente termina e o {@link ClientListener#onDisconnected(Client, Exception)}
+     * é chamado sem erro.
+     */
+    public void close() {
+        if(closed.compareAndSet(false, true))
+            closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Criptografa a mensagem informada utilizando a criptografia do canal, e codifica em Base64.
      *
      * @param message a ser criptografada
      *
@@ -175,12 +504,14 @@ public class Client extends Thread{
      * @throws Exception caso ocorra algum problema ao executar a função.
      */
     public String encrypt(String message) throws Exception {
-        return SecurityUtils.encryptAES(AESKey, message.getBytes(StandardCharsets.UTF_8));
+        return SecurityUtils.asBase64ToString(channelCipher.encrypt(message.getBytes(StandardCharsets.UTF_8)));
     }
 
 
     public static void main(String[] args) throws Exception {
 
+        KeyPairPool.rsa(); /* Começa a gerar as chaves RSA enquanto os dados do servidor são digitados.*/
+
         BufferedReader systemInput = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
 
         System.out.println("Digite a host do servidor: (Obs: caso fique em branco sera usado 127.0.0.1)");
@@ -204,9 +535,70 @@ public class Client extends Thread{
             userName = "Anon - " + System.currentTimeMillis();
         }
 
-        Client client = new Client(systemInput, userName, host, Integer.parseInt(port));
-        client.setDaemon(false);
-        client.start();
+        ClientSettings settings = new ClientSettings();
+        ClientListener listener = new ConsoleListener();
+        AtomicReference<Client> current = new AtomicReference<>();
+
+        /* A entrada é lida por uma thread própria, que continua entre as reconexões e envia ao cliente atual.*/
+        Thread console = new Thread(() -> {
+            try {
+                String message;
+
+                while ((message = systemInput.readLine()) != null){
+                    try {
+                        current.get().sendMessage(message);
+                    } catch (Exception e) {
+                        System.out.println("(mensagem não enviada, conexão perdida)");
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }, "client-console");
+        console.setDaemon(true);
+        console.start();
+
+        int attempts = 0;
+
+        while (true){
+
+            Client client;
+
+            try {
+                client = new Client(userName, host, Integer.parseInt(port), settings, listener);
+            } catch (IOException e) {
+
+                SessionTicket ticket = settings.getSessionTicket();
+
+                if(ticket == null)
+                    throw e;
+
+                /* Sem entrada não há quem use a conexão, e com o ticket expirado não há sessão para retomar.*/
+                if(++attempts >= MAX_RECONNECT_ATTEMPTS || ticket.isExpired() || !console.isAlive()){
+                    System.out.println("(não foi possível reconectar ao servidor)");
+                    break;
+                }
+
+                System.out.println("(servidor indisponível, tentando novamente...)");
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+                continue;
+            }
+
+            attempts = 0;
+            current.set(client);
+
+            client.setDaemon(false);
+            client.start();
+            client.join();
+
+            if(client.getSessionTicket() == null || !console.isAlive())
+                break;
+
+            /* Retoma a sessão com o ticket recebido, sem repetir a troca de chaves RSA.*/
+            settings.setSessionTicket(client.getSessionTicket());
+
+            System.out.println("(conexão perdida, reconectando...)");
+            Thread.sleep(RECONNECT_DELAY_MILLIS);
+        }
 
     }
 
@@ -0,0 +1,36 @@
+package br.dev.brunoxkk0.p2p.client;
+
+/**
+ * Recebe os eventos de um {@link Client}, chamado pela thread de rede do cliente, assim as implementações
+ * não devem bloquear por muito tempo, ou as próximas mensagens ficam aguardando.
+ */
+@FunctionalInterface
+public interface ClientListener {
+
+    /**
+     * Chamado ao final da troca de chaves, após o nome do cliente ser enviado ao servidor,
+     * a partir deste momento o {@link Client#sendMessage(String)} não espera mais pela troca de chaves.
+     *
+     * @param client cliente conectado.
+     */
+    default void onConnected(Client client) {
+    }
+
+    /**
+     * Chamado para cada mensagem recebida do servidor, já descriptografada.
+     *
+     * @param client cliente que recebeu a mensagem.
+     * @param message mensagem recebida.
+     */
+    void onMessage(Client client, String message);
+
+    /**
+     * Chamado uma única vez quando a conexão é encerrada, pelo servidor, por um erro ou pelo {@link Client#close()}.
+     *
+     * @param client cliente desconectado.
+     * @param cause erro que encerrou a conexão, ou null caso tenha sido encerrada normalmente.
+     */
+    default void onDisconnected(Client client, Exception cause) {
+    }
+
+}
@@ -0,0 +1,128 @@
+package br.dev.brunoxkk0.p2p.client;
+
+import br.dev.brunoxkk0.p2p.common.CipherMode;
+import br.dev.brunoxkk0.p2p.common.Framing;
+import br.dev.brunoxkk0.p2p.common.KeyExchange;
+import br.dev.brunoxkk0.p2p.common.SessionTicket;
+
+/**
+ * Opções solicitadas pelo cliente ao servidor durante a troca de chaves, o servidor pode recusar
+ * as opções que não suporta, com exceção da {@link KeyExchange}, que precisa ser suportada pelo servidor.
+ */
+public class ClientSettings {
+
+    /**
+     * Formato das mensagens solicitado ao servidor.
+     */
+    private Framing framing = Framing.BINARY;
+
+    /**
+     * Criptografia do canal solicitada ao servidor.
+     */
+    private CipherMode cipherMode = CipherMode.AES_GCM;
+
+    /**
+     * Forma de estabelecer a chave do canal.
+     */
+    private KeyExchange keyExchange = KeyExchange.RSA;
+
+    /**
+     * Ticket de uma sessão anterior, apresentado ao servidor para retomar a sessão.
+     */
+    private SessionTicket sessionTicket;
+
+    /**
+     * Configurações compatíveis com servidores de versões anteriores.
+     *
+     * @return configurações do modo original.
+     */
+    public static ClientSettings legacy() {
+        return new ClientSettings().setFraming(Framing.TEXT).setCipherMode(CipherMode.AES);
+    }
+
+    /**
+     * Formato das mensagens solicitado ao servidor.
+     *
+     * @return formato das mensagens.
+     */
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * Define o formato das mensagens solicitado ao servidor.
+     *
+     * @param framing formato das mensagens.
+     *
+     * @return as próprias configurações.
+     */
+    public ClientSettings setFraming(Framing framing) {
+        this.framing = framing;
+        return this;
+    }
+
+    /**
+     * Criptografia do canal solicitada ao servidor.
+     *
+     * @return modo de criptografia.
+     */
+    public CipherMode getCipherMode() {
+        return cipherMode;
+    }
+
+    /**
+     * Define a criptografia do canal solicitada ao servidor.
+     *
+     * @param cipherMode modo de criptografia.
+     *
+     * @return as próprias configurações.
+     */
+    public ClientSettings setCipherMode(CipherMode cipherMode) {
+        this.cipherMode = cipherMode;
+        return this;
+    }
+
+    /**
+     * Forma de estabelecer a chave do canal.
+     *
+     * @return modo da troca de chaves.
+     */
+    public KeyExchange getKeyExchange() {
+        return keyExchange;
+    }
+
+    /**
+     * Define a forma de estabelecer a chave do canal.
+     *
+     * @param keyExchange modo da troca de chaves.
+     *
+     * @return as próprias configurações.
+     */
+    public ClientSettings setKeyExchange(KeyExchange keyExchange) {
+        this.keyExchange = keyExchange;
+        return this;
+    }
+
+    /**
+     * Ticket de uma sessão anterior, apresentado ao servidor para retomar a sessão.
+     *
+     * @return ticket da sessão anterior, ou null.
+     */
+    public SessionTicket getSessionTicket() {
+        return sessionTicket;
+    }
+
+    /**
+     * Define o ticket de uma sessão anterior, ver {@link Client#getSessionTicket()}, caso o servidor
+     * recuse o ticket, a troca de chaves completa é feita na mesma ida e volta.
+     *
+     * @param sessionTicket ticket da sessão anterior, ou null.
+     *
+     * @return as próprias configurações.
+     */
+    public ClientSettings setSessionTicket(SessionTicket sessionTicket) {
+        this.sessionTicket = sessionTicket;
+        return this;
+    }
+
+}
@@ -0,0 +1,19 @@
+package br.dev.brunoxkk0.p2p.client;
+
+/**
+ * {@link ClientListener} usado pelo cliente de terminal, exibe as mensagens na saída do sistema.
+ */
+public class ConsoleListener implements ClientListener {
+
+    @Override
+    public void onMessage(Client client, String message) {
+        System.out.println(message);
+    }
+
+    @Override
+    public void onDisconnected(Client client, Exception cause) {
+        if(cause != null)
+            System.err.println("(conexão encerrada: " + cause + ")");
+    }
+
+}
@@ -0,0 +1,51 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+
+/**
+ * Criptografia original do canal, AES com o modo padrão do provider (ECB/PKCS5Padding),
+ * mantida para compatibilidade com clientes que não negociam outro modo.
+ */
+public class AesChannelCipher implements ChannelCipher {
+
+    /**
+     * Tamanho do bloco AES.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Chave AES.
+     */
+    private final SecretKey key;
+
+    public AesChannelCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] source) throws Exception {
+        return SecurityUtils.encryptAESBytes(key, source);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] source) throws Exception {
+        return SecurityUtils.decryptAESBytes(key, source);
+    }
+
+    @Override
+    public int encrypt(ByteBuffer source, ByteBuffer target) throws Exception {
+        return SecurityUtils.encryptAESBytes(key, source, target);
+    }
+
+    @Override
+    public int decrypt(ByteBuffer source, ByteBuffer target) throws Exception {
+        return SecurityUtils.decryptAESBytes(key, source, target);
+    }
+
+    @Override
+    public int getOutputSize(int length) {
+        return (length / BLOCK_SIZE + 1) * BLOCK_SIZE;
+    }
+
+}
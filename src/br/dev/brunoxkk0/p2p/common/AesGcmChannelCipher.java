@@ -0,0 +1,149 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Criptografia autenticada do canal utilizando AES-GCM.
+ * <p>
+ * O nonce de cada mensagem é formado por um prefixo que identifica o sentido da mensagem
+ * (cliente para servidor ou servidor para cliente), evitando que a mesma chave use o mesmo nonce nos
+ * dois sentidos, seguido de um contador incrementado a cada mensagem. O contador é enviado
+ * junto da mensagem e o receptor só aceita contadores maiores que o último recebido,
+ * rejeitando mensagens repetidas ou fora de ordem.
+ * <p>
+ * Formato: contador (long, big-endian) + dados criptografados + tag de autenticação.
+ */
+public class AesGcmChannelCipher implements ChannelCipher {
+
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * Tamanho da tag de autenticação, em bits.
+     */
+    public static final int TAG_LENGTH = 128;
+
+    /**
+     * Tamanho do nonce, em bytes.
+     */
+    public static final int NONCE_SIZE = 12;
+
+    /**
+     * Tamanho do contador enviado junto da mensagem, em bytes.
+     */
+    public static final int COUNTER_SIZE = Long.BYTES;
+
+    private static final int CLIENT_PREFIX = 0x434C4E54;
+    private static final int SERVER_PREFIX = 0x53525652;
+
+    /**
+     * Chave AES.
+     */
+    private final SecretKey key;
+
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+
+    private final ByteBuffer encryptNonce = ByteBuffer.allocate(NONCE_SIZE);
+    private final ByteBuffer decryptNonce = ByteBuffer.allocate(NONCE_SIZE);
+
+    /**
+     * Contador da última mensagem enviada.
+     */
+    private long sent;
+
+    /**
+     * Contador da última mensagem recebida.
+     */
+    private long received;
+
+    /**
+     * Cria a criptografia do canal para um dos lados da conexão.
+     *
+     * @param key chave AES negociada.
+     * @param client true para o lado do cliente, false para o lado do servidor.
+     *
+     * @throws GeneralSecurityException caso o provider não suporte AES-GCM.
+     */
+    public AesGcmChannelCipher(SecretKey key, boolean client) throws GeneralSecurityException {
+
+        this.key = key;
+        this.encryptCipher = Cipher.getInstance(TRANSFORMATION);
+        this.decryptCipher = Cipher.getInstance(TRANSFORMATION);
+
+        this.encryptNonce.putInt(0, client ? CLIENT_PREFIX : SERVER_PREFIX);
+        this.decryptNonce.putInt(0, client ? SERVER_PREFIX : CLIENT_PREFIX);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] source) throws Exception {
+
+        ByteBuffer target = ByteBuffer.allocate(getOutputSize(source.length));
+        encrypt(ByteBuffer.wrap(source), target);
+
+        return target.array();
+    }
+
+    @Override
+    public synchronized int encrypt(ByteBuffer source, ByteBuffer target) throws Exception {
+
+        long counter = ++sent;
+        encryptNonce.putLong(Integer.BYTES, counter);
+
+        encryptCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, encryptNonce.array()));
+
+        target.putLong(counter);
+        return COUNTER_SIZE + encryptCipher.doFinal(source, target);
+    }
+
+    @Override
+    public synchronized byte[] decrypt(byte[] source) throws Exception {
+
+        if(source.length < COUNTER_SIZE + TAG_LENGTH / 8)
+            throw new GeneralSecurityException("Message too short");
+
+        long counter = ByteBuffer.wrap(source).getLong();
+
+        if(counter <= received)
+            throw new GeneralSecurityException("Replayed or out of order message");
+
+        decryptNonce.putLong(Integer.BYTES, counter);
+        decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, decryptNonce.array()));
+
+        byte[] decrypted = decryptCipher.doFinal(source, COUNTER_SIZE, source.length - COUNTER_SIZE);
+        received = counter;
+
+        return decrypted;
+    }
+
+    @Override
+    public synchronized int decrypt(ByteBuffer source, ByteBuffer target) throws Exception {
+
+        if(source.remaining() < COUNTER_SIZE + TAG_LENGTH / 8)
+            throw new GeneralSecurityException("Message too short");
+
+        long counter = source.getLong(source.position());
+
+        if(counter <= received)
+            throw new GeneralSecurityException("Replayed or out of order message");
+
+        decryptNonce.putLong(Integer.BYTES, counter);
+        decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, decryptNonce.array()));
+
+        source.position(source.position() + COUNTER_SIZE);
+
+        int length = decryptCipher.doFinal(source, target);
+        received = counter;
+
+        return length;
+    }
+
+    @Override
+    public int getOutputSize(int length) {
+        return COUNTER_SIZE + length + TAG_LENGTH / 8;
+    }
+
+}
@@ -0,0 +1,211 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de buffers separado em classes de tamanho, potências de 2 de {@link #MIN_SIZE} até {@link #MAX_SIZE},
+ * usado para que as mensagens enviadas reutilizem os mesmos buffers em vez de alocar novos a cada destinatário.
+ * <p>
+ * Cada buffer pertence a quem o pegou até ser devolvido com {@link #release(ByteBuffer)}, um buffer devolvido
+ * não pode mais ser usado por quem o devolveu. Pedidos maiores que o {@link #MAX_SIZE} recebem um buffer
+ * novo, que não volta ao pool. Cada classe guarda no máximo a quantidade de bytes informada na criação,
+ * os buffers devolvidos além desse limite são descartados.
+ * <p>
+ * Os contadores mostram quantos buffers o pool precisou alocar, com o pool aquecido a quantidade
+ * de alocações deve parar de crescer.
+ */
+public class BufferPool {
+
+    /**
+     * Tamanho da menor classe.
+     */
+    public static final int MIN_SIZE = 256;
+
+    /**
+     * Tamanho da maior classe.
+     */
+    public static final int MAX_SIZE = 64 * 1024;
+
+    /**
+     * Quantidade padrão de bytes guardados por classe.
+     */
+    public static final int DEFAULT_BYTES_PER_CLASS = 4 * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private static final BufferPool HEAP = new BufferPool(false, DEFAULT_BYTES_PER_CLASS);
+
+    private static final BufferPool DIRECT = new BufferPool(true, DEFAULT_BYTES_PER_CLASS);
+
+    /**
+     * Controla se os buffers são alocados fora do heap.
+     */
+    private final boolean direct;
+
+    /**
+     * Buffers livres de cada classe.
+     */
+    private final ArrayBlockingQueue<ByteBuffer>[] classes;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Cria um pool de buffers.
+     *
+     * @param direct true para buffers fora do heap ({@link ByteBuffer#allocateDirect(int)}), false para buffers no heap.
+     * @param bytesPerClass quantidade máxima de bytes guardados por classe.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(boolean direct, int bytesPerClass) {
+
+        if(bytesPerClass < MAX_SIZE)
+            throw new IllegalArgumentException("The pool must hold at least one buffer of each class");
+
+        this.direct = direct;
+        this.classes = new ArrayBlockingQueue[Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1];
+
+        for (int i = 0; i < classes.length; i++){
+            classes[i] = new ArrayBlockingQueue<>(bytesPerClass / (MIN_SIZE << i));
+        }
+    }
+
+    /**
+     * Pool compartilhado de buffers no heap.
+     *
+     * @return pool de buffers no heap.
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * Pool compartilhado de buffers fora do heap.
+     *
+     * @return pool de buffers diretos.
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    /**
+     * Retorna se os buffers do pool são alocados fora do heap.
+     *
+     * @return true para buffers diretos.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Pega um buffer com ao menos o tamanho informado, na posição 0 e com o limite na capacidade.
+     *
+     * @param size tamanho mínimo do buffer.
+     *
+     * @return buffer livre, ou um novo caso a classe esteja vazia.
+     */
+    public ByteBuffer acquire(int size) {
+
+        acquired.increment();
+
+        if(size > MAX_SIZE)
+            return allocate(size);
+
+        int index = indexOf(size);
+        ByteBuffer buffer = classes[index].poll();
+
+        if(buffer == null)
+            return allocate(MIN_SIZE << index);
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Devolve o buffer ao pool, buffers que não vieram do pool são ignorados.
+     *
+     * @param buffer buffer a ser devolvido.
+     */
+    public void release(ByteBuffer buffer) {
+
+        int capacity = buffer.capacity();
+
+        if(capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1 || buffer.isDirect() != direct || buffer.isReadOnly())
+            return;
+
+        if(!classes[indexOf(capacity)].offer(buffer))
+            discarded.increment();
+    }
+
+    /**
+     * Quantidade de buffers pedidos ao pool.
+     *
+     * @return buffers pedidos.
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Quantidade de buffers alocados por falta de buffers livres, ou por serem maiores que o {@link #MAX_SIZE}.
+     *
+     * @return buffers alocados.
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * Quantidade de bytes alocados pelo pool.
+     *
+     * @return bytes alocados.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Quantidade de buffers devolvidos e descartados por a classe já estar cheia.
+     *
+     * @return buffers descartados.
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Quantidade de buffers livres no pool.
+     *
+     * @return buffers livres.
+     */
+    public int getAvailable() {
+
+        int available = 0;
+
+        for (ArrayBlockingQueue<ByteBuffer> queue : classes){
+            available += queue.size();
+        }
+
+        return available;
+    }
+
+    private ByteBuffer allocate(int size) {
+
+        allocated.increment();
+        allocatedBytes.add(size);
+
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Índice da menor classe que comporta o tamanho informado.
+     */
+    private static int indexOf(int size) {
+        return (size <= MIN_SIZE) ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+}
@@ -0,0 +1,65 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Criptografia simétrica usada no canal após a troca de chaves, cada conexão possui a sua própria instância.
+ */
+public interface ChannelCipher {
+
+    /**
+     * Criptografa os dados informados.
+     *
+     * @param source dados a serem criptografados.
+     *
+     * @return dados criptografados.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    byte[] encrypt(byte[] source) throws Exception;
+
+    /**
+     * Descriptografa os dados informados.
+     *
+     * @param source dados criptografados.
+     *
+     * @return dados descriptografados.
+     *
+     * @throws Exception caso ocorra algum erro ao descriptografar, ou os dados tenham sido alterados.
+     */
+    byte[] decrypt(byte[] source) throws Exception;
+
+    /**
+     * Criptografa os dados restantes do buffer de entrada diretamente no buffer de saída, sem alocações intermediárias.
+     *
+     * @param source dados a serem criptografados.
+     * @param target buffer de saída, deve ter ao menos {@link #getOutputSize(int)} bytes restantes.
+     *
+     * @return quantidade de bytes escritos no buffer de saída.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    int encrypt(ByteBuffer source, ByteBuffer target) throws Exception;
+
+    /**
+     * Descriptografa os dados restantes do buffer de entrada diretamente no buffer de saída, sem alocações intermediárias.
+     *
+     * @param source dados criptografados.
+     * @param target buffer de saída, deve ter ao menos o tamanho dos dados criptografados restantes.
+     *
+     * @return quantidade de bytes escritos no buffer de saída.
+     *
+     * @throws Exception caso ocorra algum erro ao descriptografar, ou os dados tenham sido alterados.
+     */
+    int decrypt(ByteBuffer source, ByteBuffer target) throws Exception;
+
+    /**
+     * Tamanho máximo dos dados criptografados para uma entrada do tamanho informado.
+     *
+     * @param length tamanho da entrada.
+     *
+     * @return tamanho da saída.
+     */
+    int getOutputSize(int length);
+
+}
@@ -0,0 +1,69 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Define os modos de criptografia do canal, negociados durante a troca de chaves.
+ */
+public enum CipherMode {
+
+    /**
+     * AES no modo padrão do provider, modo original sem autenticação.
+     */
+    AES     ("aes"),
+
+    /**
+     * AES-GCM com nonces por mensagem, ver {@link AesGcmChannelCipher}.
+     */
+    AES_GCM ("aes-gcm");
+
+    String option;
+
+    CipherMode(String option){
+        this.option = option;
+    }
+
+    /**
+     * Nome usado na negociação durante a troca de chaves.
+     *
+     * @return nome do modo.
+     */
+    public String getOption() {
+        return option;
+    }
+
+    /**
+     * Cria a criptografia do canal deste modo.
+     *
+     * @param key chave AES negociada.
+     * @param client true para o lado do cliente, false para o lado do servidor.
+     *
+     * @return criptografia do canal.
+     *
+     * @throws Exception caso ocorra algum erro ao criar a criptografia.
+     */
+    public ChannelCipher create(SecretKey key, boolean client) throws Exception {
+        if(this == AES_GCM)
+            return new AesGcmChannelCipher(key, client);
+
+        return new AesChannelCipher(key);
+    }
+
+    /**
+     * Busca o modo pelo nome usado na negociação.
+     *
+     * @param option nome do modo.
+     *
+     * @return modo encontrado, ou {@link #AES} caso seja desconhecido.
+     */
+    public static CipherMode fromOption(String option) {
+
+        for (CipherMode mode : values()){
+            if(mode.option.equals(option))
+                return mode;
+        }
+
+        return AES;
+    }
+
+}
@@ -0,0 +1,44 @@
+package br.dev.brunoxkk0.p2p.common;
+
+/**
+ * Define os tipos de frame do modo {@link Framing#BINARY}.
+ */
+public enum FrameType {
+
+    MESSAGE         (1),
+    GROUP_KEY       (2),
+    GROUP_MESSAGE   (3);
+
+    byte code;
+
+    FrameType(int code){
+        this.code = (byte) code;
+    }
+
+    /**
+     * Código do tipo, enviado no cabeçalho do frame.
+     *
+     * @return código do tipo.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Busca o tipo pelo código recebido no cabeçalho do frame.
+     *
+     * @param code código do tipo.
+     *
+     * @return tipo encontrado, ou null caso seja desconhecido.
+     */
+    public static FrameType fromCode(byte code) {
+
+        for (FrameType type : values()){
+            if(type.code == code)
+                return type;
+        }
+
+        return null;
+    }
+
+}
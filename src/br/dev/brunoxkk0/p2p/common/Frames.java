@@ -0,0 +1,235 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Funções para montar e ler os frames do modo {@link Framing#BINARY}.
+ * <p>
+ * Cada frame é composto por um cabeçalho com o tamanho do conteúdo (int, big-endian) e o
+ * tipo do frame ({@link FrameType}), seguido do conteúdo criptografado, sem Base64.
+ */
+public final class Frames {
+
+    /**
+     * Versão do formato binário, enviada na negociação.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Tamanho do cabeçalho de cada frame.
+     */
+    public static final int HEADER_SIZE = Integer.BYTES + 1;
+
+    /**
+     * Tamanho máximo do conteúdo de um frame.
+     */
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private Frames() {
+    }
+
+    /**
+     * Monta um frame com o tipo e o conteúdo informados.
+     *
+     * @param type tipo do frame.
+     * @param payload conteúdo do frame.
+     *
+     * @return buffer pronto para ser escrito.
+     */
+    public static ByteBuffer encode(FrameType type, byte[] payload) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).put(type.getCode()).put(payload);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Criptografa o conteúdo e monta o frame em um único buffer, escrevendo os dados
+     * criptografados diretamente após o cabeçalho.
+     *
+     * @param type tipo do frame.
+     * @param cipher criptografia do canal.
+     * @param plain conteúdo a ser criptografado.
+     *
+     * @return buffer pronto para ser escrito.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public static ByteBuffer encrypt(FrameType type, ChannelCipher cipher, byte[] plain) throws Exception {
+        return encrypt(type, cipher, ByteBuffer.wrap(plain));
+    }
+
+    /**
+     * Criptografa os dados restantes do buffer e monta o frame em um único buffer, da mesma forma
+     * que o {@link #encrypt(FrameType, ChannelCipher, byte[])}.
+     *
+     * @param type tipo do frame.
+     * @param cipher criptografia do canal.
+     * @param plain conteúdo a ser criptografado, consumido até o limite.
+     *
+     * @return buffer pronto para ser escrito.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public static ByteBuffer encrypt(FrameType type, ChannelCipher cipher, ByteBuffer plain) throws Exception {
+        return encrypt(type, cipher, plain, ByteBuffer.allocate(HEADER_SIZE + cipher.getOutputSize(plain.remaining())));
+    }
+
+    /**
+     * Criptografa os dados restantes do buffer e monta o frame em um buffer do pool informado,
+     * que passa a pertencer a quem chamou e deve ser devolvido ao pool após ser escrito.
+     *
+     * @param type tipo do frame.
+     * @param cipher criptografia do canal.
+     * @param plain conteúdo a ser criptografado, consumido até o limite.
+     * @param pool pool de onde o buffer do frame é pego.
+     *
+     * @return buffer do pool pronto para ser escrito.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public static ByteBuffer encrypt(FrameType type, ChannelCipher cipher, ByteBuffer plain, BufferPool pool) throws Exception {
+
+        ByteBuffer buffer = pool.acquire(HEADER_SIZE + cipher.getOutputSize(plain.remaining()));
+
+        try {
+            return encrypt(type, cipher, plain, buffer);
+        } catch (Exception e) {
+            pool.release(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Criptografa os dados restantes do buffer com a chave de grupo e monta o frame em um buffer do pool informado,
+     * da mesma forma que o {@link #encrypt(FrameType, ChannelCipher, ByteBuffer, BufferPool)}.
+     *
+     * @param type tipo do frame.
+     * @param groupKey chave de grupo.
+     * @param plain conteúdo a ser criptografado, consumido até o limite.
+     * @param pool pool de onde o buffer do frame é pego.
+     *
+     * @return buffer do pool pronto para ser escrito.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public static ByteBuffer encrypt(FrameType type, GroupKey groupKey, ByteBuffer plain, BufferPool pool) throws Exception {
+
+        ByteBuffer buffer = pool.acquire(HEADER_SIZE + groupKey.getOutputSize(plain.remaining()));
+
+        try {
+            buffer.position(HEADER_SIZE);
+            return header(type, buffer, groupKey.encrypt(plain, buffer));
+        } catch (Exception e) {
+            pool.release(buffer);
+            throw e;
+        }
+    }
+
+    private static ByteBuffer encrypt(FrameType type, ChannelCipher cipher, ByteBuffer plain, ByteBuffer buffer) throws Exception {
+        buffer.position(HEADER_SIZE);
+        return header(type, buffer, cipher.encrypt(plain, buffer));
+    }
+
+    /**
+     * Escreve o cabeçalho no início do buffer, após o conteúdo já ter sido escrito, e o prepara para a escrita.
+     */
+    private static ByteBuffer header(FrameType type, ByteBuffer buffer, int length) {
+
+        buffer.putInt(0, length).put(Integer.BYTES, type.getCode());
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Valida o tamanho lido do cabeçalho de um frame.
+     *
+     * @param length tamanho lido.
+     *
+     * @throws IOException caso o tamanho seja inválido.
+     */
+    public static void checkLength(int length) throws IOException {
+        if(length < 0 || length > MAX_FRAME_SIZE)
+            throw new IOException("Invalid frame length: " + length);
+    }
+
+    /**
+     * Lê um frame completo da entrada, bloqueando até que ele chegue.
+     *
+     * @param input entrada de dados.
+     * @param handler função chamada com o frame lido.
+     *
+     * @throws Exception caso ocorra algum erro ao ler ou processar o frame.
+     */
+    public static void read(DataInputStream input, FrameHandler handler) throws Exception {
+
+        int length = input.readInt();
+        checkLength(length);
+
+        FrameType type = FrameType.fromCode(input.readByte());
+
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+
+        if(type == null)
+            throw new IOException("Unknown frame type");
+
+        handler.onFrame(type, payload);
+    }
+
+    /**
+     * Lê uma linha terminada por "\n" diretamente da entrada, sem ler nada além do terminador,
+     * assim a mesma entrada pode continuar sendo usada para ler frames binários em seguida.
+     *
+     * @param input entrada de dados.
+     *
+     * @return linha lida sem o terminador, ou null caso a entrada tenha sido encerrada.
+     *
+     * @throws IOException caso ocorra algum erro ao ler a entrada.
+     */
+    public static String readLine(InputStream input) throws IOException {
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = input.read()) != '\n'){
+
+            if(b < 0)
+                return null;
+
+            line.write(b);
+        }
+
+        byte[] bytes = line.toByteArray();
+        int length = (bytes.length > 0 && bytes[bytes.length - 1] == '\r') ? bytes.length - 1 : bytes.length;
+
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Função chamada para cada frame lido.
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+
+        /**
+         * Processa o frame lido.
+         *
+         * @param type tipo do frame.
+         * @param payload conteúdo do frame.
+         *
+         * @throws Exception caso ocorra algum erro ao processar o frame.
+         */
+        void onFrame(FrameType type, byte[] payload) throws Exception;
+
+    }
+
+}
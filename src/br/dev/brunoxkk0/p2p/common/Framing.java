@@ -0,0 +1,50 @@
+package br.dev.brunoxkk0.p2p.common;
+
+/**
+ * Define como as mensagens são delimitadas no socket após a troca de chaves.
+ */
+public enum Framing {
+
+    /**
+     * Cada mensagem é codificada em Base64 e terminada por "\r\n", modo original mantido por compatibilidade.
+     */
+    TEXT    ("text"),
+
+    /**
+     * Cada mensagem é enviada como um frame binário, ver {@link Frames}.
+     */
+    BINARY  ("binary");
+
+    String option;
+
+    Framing(String option){
+        this.option = option;
+    }
+
+    /**
+     * Nome usado na negociação durante a troca de chaves.
+     *
+     * @return nome do modo.
+     */
+    public String getOption() {
+        return option;
+    }
+
+    /**
+     * Busca o modo pelo nome usado na negociação.
+     *
+     * @param option nome do modo.
+     *
+     * @return modo encontrado, ou {@link #TEXT} caso seja desconhecido.
+     */
+    public static Framing fromOption(String option) {
+
+        for (Framing framing : values()){
+            if(framing.option.equals(option))
+                return framing;
+        }
+
+        return TEXT;
+    }
+
+}
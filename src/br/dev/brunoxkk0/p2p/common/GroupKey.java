@@ -0,0 +1,244 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chave simétrica compartilhada por todos os clientes da sala, permite que o servidor criptografe
+ * cada mensagem disparada uma única vez e envie os mesmos bytes a todos os destinatários.
+ * <p>
+ * Cada chave possui uma época, incrementada sempre que a chave é trocada, e é distribuída a cada
+ * cliente criptografada com a sua chave RSA pública. As mensagens usam AES-GCM com nonce formado
+ * pela época e por um contador, no formato: época (int) + contador (long) + dados criptografados.
+ */
+public class GroupKey {
+
+    /**
+     * Tamanho do cabeçalho de cada mensagem criptografada.
+     */
+    public static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    /**
+     * Época da chave.
+     */
+    private final int epoch;
+
+    /**
+     * Chave AES da sala.
+     */
+    private final SecretKey key;
+
+    /**
+     * Contador da última mensagem criptografada.
+     */
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Cipher de cada thread, a chave de grupo é usada por várias threads ao mesmo tempo.
+     */
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AesGcmChannelCipher.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    public GroupKey(int epoch, SecretKey key) {
+        this.epoch = epoch;
+        this.key = key;
+    }
+
+    /**
+     * Gera uma nova chave de grupo.
+     *
+     * @param epoch época da nova chave.
+     *
+     * @return chave de grupo.
+     *
+     * @throws Exception caso ocorra algum erro ao gerar a chave.
+     */
+    public static GroupKey generate(int epoch) throws Exception {
+        return new GroupKey(epoch, SecurityUtils.genAESKey());
+    }
+
+    /**
+     * Retorna a época da chave.
+     *
+     * @return época da chave.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Criptografa a chave com a chave RSA pública de um cliente, para ser enviada em um frame {@link FrameType#GROUP_KEY}.
+     *
+     * @param publicKey chave RSA pública do cliente.
+     *
+     * @return época seguida da chave criptografada.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar a chave.
+     */
+    public byte[] wrap(PublicKey publicKey) throws Exception {
+
+        byte[] wrapped = SecurityUtils.encrypt(publicKey, key.getEncoded());
+
+        return ByteBuffer.allocate(Integer.BYTES + wrapped.length).putInt(epoch).put(wrapped).array();
+    }
+
+    /**
+     * Criptografa a chave com a criptografia do canal de um cliente que não possui chave RSA,
+     * como os que usam a troca de chaves {@link KeyExchange#X25519}.
+     *
+     * @param cipher criptografia do canal do cliente.
+     *
+     * @return época seguida da chave criptografada.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar a chave.
+     */
+    public byte[] wrap(ChannelCipher cipher) throws Exception {
+
+        byte[] wrapped = cipher.encrypt(key.getEncoded());
+
+        return ByteBuffer.allocate(Integer.BYTES + wrapped.length).putInt(epoch).put(wrapped).array();
+    }
+
+    /**
+     * Lê a chave recebida em um frame {@link FrameType#GROUP_KEY} criptografada com a criptografia do canal.
+     *
+     * @param payload conteúdo do frame.
+     * @param cipher criptografia do canal.
+     *
+     * @return chave de grupo.
+     *
+     * @throws Exception caso ocorra algum erro ao descriptografar a chave.
+     */
+    public static GroupKey unwrap(byte[] payload, ChannelCipher cipher) throws Exception {
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int epoch = buffer.getInt();
+
+        byte[] wrapped = new byte[buffer.remaining()];
+        buffer.get(wrapped);
+
+        return new GroupKey(epoch, new SecretKeySpec(cipher.decrypt(wrapped), "AES"));
+    }
+
+    /**
+     * Lê a chave recebida em um frame {@link FrameType#GROUP_KEY}.
+     *
+     * @param payload conteúdo do frame.
+     * @param privateKey chave RSA privada do cliente.
+     *
+     * @return chave de grupo.
+     *
+     * @throws Exception caso ocorra algum erro ao descriptografar a chave.
+     */
+    public static GroupKey unwrap(byte[] payload, PrivateKey privateKey) throws Exception {
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        int epoch = buffer.getInt();
+
+        byte[] wrapped = new byte[buffer.remaining()];
+        buffer.get(wrapped);
+
+        return new GroupKey(epoch, new SecretKeySpec(SecurityUtils.decrypt(privateKey, wrapped), "AES"));
+    }
+
+    /**
+     * Retorna a época de uma mensagem criptografada com uma chave de grupo.
+     *
+     * @param payload mensagem criptografada.
+     *
+     * @return época da chave usada.
+     */
+    public static int epochOf(byte[] payload) {
+        return ByteBuffer.wrap(payload).getInt();
+    }
+
+    /**
+     * Criptografa a mensagem com a chave de grupo.
+     *
+     * @param source dados a serem criptografados.
+     *
+     * @return mensagem criptografada.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public byte[] encrypt(byte[] source) throws Exception {
+
+        ByteBuffer target = ByteBuffer.allocate(getOutputSize(source.length));
+        encrypt(ByteBuffer.wrap(source), target);
+
+        return target.array();
+    }
+
+    /**
+     * Criptografa os dados restantes do buffer de entrada com a chave de grupo diretamente no buffer de saída.
+     *
+     * @param source dados a serem criptografados.
+     * @param target buffer de saída, deve ter ao menos {@link #getOutputSize(int)} bytes restantes.
+     *
+     * @return quantidade de bytes escritos no buffer de saída.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    public int encrypt(ByteBuffer source, ByteBuffer target) throws Exception {
+
+        long count = counter.incrementAndGet();
+
+        Cipher encryptCipher = cipher.get();
+        encryptCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(AesGcmChannelCipher.TAG_LENGTH, nonce(count)));
+
+        target.putInt(epoch).putLong(count);
+        return HEADER_SIZE + encryptCipher.doFinal(source, target);
+    }
+
+    /**
+     * Tamanho da mensagem criptografada para uma entrada do tamanho informado.
+     *
+     * @param length tamanho da entrada.
+     *
+     * @return tamanho da saída.
+     */
+    public int getOutputSize(int length) {
+        return HEADER_SIZE + length + AesGcmChannelCipher.TAG_LENGTH / 8;
+    }
+
+    /**
+     * Descriptografa uma mensagem criptografada com a chave de grupo.
+     *
+     * @param source mensagem criptografada.
+     *
+     * @return dados descriptografados.
+     *
+     * @throws Exception caso a mensagem seja de outra época, ou tenha sido alterada.
+     */
+    public byte[] decrypt(byte[] source) throws Exception {
+
+        ByteBuffer buffer = ByteBuffer.wrap(source);
+
+        if(buffer.getInt() != epoch)
+            throw new GeneralSecurityException("Group key epoch mismatch");
+
+        long count = buffer.getLong();
+
+        Cipher decryptCipher = cipher.get();
+        decryptCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(AesGcmChannelCipher.TAG_LENGTH, nonce(count)));
+
+        return decryptCipher.doFinal(source, HEADER_SIZE, source.length - HEADER_SIZE);
+    }
+
+    private byte[] nonce(long count) {
+        return ByteBuffer.allocate(AesGcmChannelCipher.NONCE_SIZE).putInt(epoch).putLong(count).array();
+    }
+
+}
@@ -0,0 +1,115 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Linha trocada durante a troca de chaves, composta pelo conteúdo em Base64 seguido das opções
+ * negociadas, no formato "conteudo;chave=valor;chave=valor".
+ * <p>
+ * Como o Base64 nunca contém ";", uma linha sem opções é exatamente a linha enviada pelas versões
+ * anteriores, mantendo a compatibilidade com clientes antigos.
+ */
+public class HandshakeMessage {
+
+    public static final String FRAME = "frame";
+    public static final String FRAME_VERSION = "frame.version";
+    public static final String CIPHER = "cipher";
+    public static final String GROUP = "group";
+    public static final String KEX = "kex";
+    public static final String TICKET = "ticket";
+    public static final String NONCE = "nonce";
+
+    /**
+     * No hello indica que o cliente aceita um ticket de sessão, na resposta indica que a sessão foi retomada.
+     */
+    public static final String RESUME = "resume";
+
+    /**
+     * Na resposta junto ao {@link #TICKET}, validade do ticket emitido em milissegundos.
+     */
+    public static final String TICKET_LIFETIME = "ticket.lifetime";
+
+    /**
+     * Conteúdo da mensagem, em Base64.
+     */
+    private final String payload;
+
+    /**
+     * Opções negociadas.
+     */
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    public HandshakeMessage(String payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Lê a linha recebida durante a troca de chaves.
+     *
+     * @param line linha recebida.
+     *
+     * @return mensagem lida.
+     */
+    public static HandshakeMessage parse(String line) {
+
+        String[] parts = line.split(";");
+
+        HandshakeMessage message = new HandshakeMessage(parts[0]);
+
+        for (int i = 1; i < parts.length; i++){
+            int separator = parts[i].indexOf('=');
+
+            if(separator > 0)
+                message.options.put(parts[i].substring(0, separator), parts[i].substring(separator + 1));
+        }
+
+        return message;
+    }
+
+    /**
+     * Retorna o conteúdo da mensagem.
+     *
+     * @return conteúdo em Base64.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Retorna o valor da opção informada.
+     *
+     * @param name nome da opção.
+     *
+     * @return valor da opção ou null.
+     */
+    public String getOption(String name) {
+        return options.get(name);
+    }
+
+    /**
+     * Define uma opção da mensagem.
+     *
+     * @param name nome da opção.
+     * @param value valor da opção.
+     *
+     * @return a própria mensagem.
+     */
+    public HandshakeMessage setOption(String name, String value) {
+        options.put(name, value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder(payload);
+
+        for (Map.Entry<String, String> entry : options.entrySet()){
+            builder.append(';').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        return builder.toString();
+    }
+
+}
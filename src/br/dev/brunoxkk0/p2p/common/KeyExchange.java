@@ -0,0 +1,50 @@
+package br.dev.brunoxkk0.p2p.common;
+
+/**
+ * Define como a chave AES do canal é estabelecida durante a troca de chaves.
+ */
+public enum KeyExchange {
+
+    /**
+     * O cliente envia sua chave RSA pública e o servidor responde com a chave AES criptografada, modo original.
+     */
+    RSA     ("rsa"),
+
+    /**
+     * Cliente e servidor trocam chaves X25519 efêmeras e derivam a mesma chave AES, sem operações RSA.
+     */
+    X25519  ("x25519");
+
+    String option;
+
+    KeyExchange(String option){
+        this.option = option;
+    }
+
+    /**
+     * Nome usado na negociação durante a troca de chaves.
+     *
+     * @return nome do modo.
+     */
+    public String getOption() {
+        return option;
+    }
+
+    /**
+     * Busca o modo pelo nome usado na negociação.
+     *
+     * @param option nome do modo.
+     *
+     * @return modo encontrado, ou {@link #RSA} caso seja desconhecido.
+     */
+    public static KeyExchange fromOption(String option) {
+
+        for (KeyExchange exchange : values()){
+            if(exchange.option.equals(option))
+                return exchange;
+        }
+
+        return RSA;
+    }
+
+}
@@ -0,0 +1,183 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool de pares de chaves gerados em segundo plano, evitando que a geração, principalmente a do RSA-2048,
+ * que leva centenas de milissegundos, fique no caminho da conexão. Cada par é entregue uma única vez.
+ * <p>
+ * Uma thread daemon mantém o pool cheio, quando o pool está vazio o par é gerado na hora. Uma falha na geração
+ * é registrada e a thread tenta novamente após {@link #RETRY_DELAY_MILLIS}, as falhas são contadas em {@link #getFailures()}.
+ */
+public class KeyPairPool {
+
+    /**
+     * Capacidade padrão dos pools, pode ser alterada pela propriedade "p2p.keypool.size".
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("p2p.keypool.size", 16);
+
+    /**
+     * Intervalo entre as tentativas da thread após uma falha na geração.
+     */
+    public static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final Logger logger = Logger.getLogger("KeyPairPool");
+
+    private static volatile KeyPairPool rsa;
+    private static volatile KeyPairPool x25519;
+
+    /**
+     * Gerador dos pares de chaves.
+     */
+    private final Generator generator;
+
+    /**
+     * Pares de chaves prontos.
+     */
+    private final BlockingQueue<KeyPair> pool;
+
+    /**
+     * Falhas da thread ao gerar os pares.
+     */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Thread que mantém o pool cheio.
+     */
+    private final Thread filler;
+
+    /**
+     * Cria o pool e inicia a thread que o mantém cheio.
+     *
+     * @param name nome do pool, usado no nome da thread.
+     * @param capacity quantidade de pares mantidos prontos.
+     * @param generator gerador dos pares de chaves.
+     */
+    public KeyPairPool(String name, int capacity, Generator generator) {
+
+        this.generator = generator;
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, capacity));
+
+        this.filler = new Thread(this::fill, "KeyPairPool-" + name);
+        filler.setDaemon(true);
+        filler.setPriority(Thread.MIN_PRIORITY);
+        filler.start();
+    }
+
+    /**
+     * Pool compartilhado de pares RSA, ver {@link SecurityUtils#genKeyPair()}.
+     *
+     * @return pool de pares RSA.
+     */
+    public static KeyPairPool rsa() {
+        if(rsa == null){
+            synchronized (KeyPairPool.class){
+                if(rsa == null)
+                    rsa = new KeyPairPool("RSA", DEFAULT_CAPACITY, SecurityUtils::genKeyPair);
+            }
+        }
+
+        return rsa;
+    }
+
+    /**
+     * Pool compartilhado de pares X25519, ver {@link SecurityUtils#genX25519KeyPair()}.
+     *
+     * @return pool de pares X25519.
+     */
+    public static KeyPairPool x25519() {
+        if(x25519 == null){
+            synchronized (KeyPairPool.class){
+                if(x25519 == null)
+                    x25519 = new KeyPairPool("X25519", DEFAULT_CAPACITY * 8, SecurityUtils::genX25519KeyPair);
+            }
+        }
+
+        return x25519;
+    }
+
+    /**
+     * Retira um par de chaves do pool, gerando na hora caso o pool esteja vazio.
+     *
+     * @return par de chaves que ainda não foi entregue.
+     *
+     * @throws Exception caso ocorra algum erro ao gerar o par.
+     */
+    public KeyPair take() throws Exception {
+
+        KeyPair keyPair = pool.poll();
+
+        return (keyPair != null) ? keyPair : generator.generate();
+    }
+
+    /**
+     * Quantidade de pares prontos no pool.
+     *
+     * @return tamanho atual do pool.
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Quantidade de falhas da thread ao gerar os pares, enquanto cresce os pares são gerados na hora pelo {@link #take()}.
+     *
+     * @return falhas na geração.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Retorna se a thread que mantém o pool cheio ainda está rodando.
+     *
+     * @return true enquanto a thread estiver viva.
+     */
+    public boolean isRunning() {
+        return filler.isAlive();
+    }
+
+    private void fill() {
+        while (!Thread.currentThread().isInterrupted()){
+            try {
+                pool.put(generator.generate());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failures.increment();
+                logger.log(Level.WARNING, "Could not pre-generate key pair for " + Thread.currentThread().getName() + ", retrying", e);
+
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        logger.severe(() -> Thread.currentThread().getName() + " stopped, key pairs will be generated on demand");
+    }
+
+    /**
+     * Gerador dos pares de chaves do pool.
+     */
+    @FunctionalInterface
+    public interface Generator {
+
+        /**
+         * Gera um novo par de chaves.
+         *
+         * @return par de chaves.
+         *
+         * @throws Exception caso ocorra algum erro ao gerar o par.
+         */
+        KeyPair generate() throws Exception;
+
+    }
+
+}
@@ -9,7 +9,9 @@ public enum KeyShareStatus {
     RECEIVE_CLIENT_RSA  (1),
     SEND_SERVER_AES     (2),
     RECEIVE_SERVER_AES  (3),
-    FINISH              (4);
+    FINISH              (4),
+    SEND_CLIENT_ECDH    (5),
+    RECEIVE_SERVER_ECDH (6);
 
     int code;
 
@@ -1,9 +1,11 @@
 package br.dev.brunoxkk0.p2p.common;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.X509EncodedKeySpec;
@@ -17,9 +19,36 @@ public class SecurityUtils {
 
     private static KeyFactory keyFactory = null;
 
+    private static KeyFactory x25519KeyFactory = null;
+
+    /**
+     * Cipher AES de cada thread, reaproveitado entre as chamadas para evitar uma busca
+     * no provider a cada mensagem, só é reinicializado quando a chave ou o modo mudam.
+     */
+    private static final ThreadLocal<CachedCipher> AES_CIPHER = ThreadLocal.withInitial(() -> new CachedCipher("AES"));
+
+    /**
+     * Alfabeto Base64 e o valor de cada caractere, -1 para os caracteres inválidos,
+     * usados na codificação direta entre buffers.
+     */
+    private static final byte[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] BASE64_VALUES = new int[256];
+
+    /**
+     * Gerador dos valores aleatórios usados nos nonces da troca de chaves.
+     */
+    private static final SecureRandom random = new SecureRandom();
+
     static {
+        Arrays.fill(BASE64_VALUES, -1);
+
+        for (int i = 0; i < BASE64_ALPHABET.length; i++){
+            BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+        }
+
         try {
             keyFactory = KeyFactory.getInstance("RSA"); /* Inicializa o KeyFactory de RSA utilizado para gerar as chaves.*/
+            x25519KeyFactory = KeyFactory.getInstance("X25519"); /* Inicializa o KeyFactory de X25519 utilizado na troca de chaves ECDH.*/
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
         }
@@ -118,6 +147,90 @@ public class SecurityUtils {
         return generator.generateKeyPair();
     }
 
+    /**
+     * Gera um par de chaves X25519, usado na troca de chaves {@link KeyExchange#X25519}.
+     *
+     * @return par de chaves X25519.
+     *
+     * @throws Exception caso ocorra algum erro ao tentar gerar a chave.
+     */
+    public static KeyPair genX25519KeyPair() throws Exception {
+        return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    /**
+     * Gera a chave pública X25519 baseada na entrada.
+     *
+     * @param key um byte[] da chave no formato X.509.
+     *
+     * @return chave pública.
+     *
+     * @exception Exception caso ocorra algum erro ao tentar gerar a chave.
+     **/
+    public static PublicKey x25519PublicKeyFromBytes(byte[] key) throws Exception {
+        return x25519KeyFactory.generatePublic(new X509EncodedKeySpec(key));
+    }
+
+    /**
+     * Deriva a chave AES a partir do segredo compartilhado X25519, ambos os lados chegam a mesma chave
+     * utilizando a sua chave privada e a chave pública do outro lado.
+     *
+     * @param privateKey chave X25519 privada local.
+     * @param publicKey chave X25519 pública do outro lado.
+     *
+     * @return chave AES com {@link #AES_KEY_LENGTH} bits.
+     *
+     * @throws Exception caso ocorra algum erro ao derivar a chave.
+     */
+    public static SecretKey deriveAESKey(PrivateKey privateKey, PublicKey publicKey) throws Exception {
+
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(agreement.generateSecret());
+        digest.update("p2p-chat/x25519".getBytes(StandardCharsets.UTF_8));
+
+        return new SecretKeySpec(Arrays.copyOf(digest.digest(), AES_KEY_LENGTH / 8), "AES");
+    }
+
+    /**
+     * Deriva a chave AES de uma sessão retomada, a partir do segredo da sessão anterior e dos nonces
+     * enviados por cada lado, cada retomada gera uma chave diferente mesmo usando o mesmo segredo.
+     *
+     * @param secret chave AES da sessão anterior.
+     * @param clientNonce nonce enviado pelo cliente.
+     * @param serverNonce nonce enviado pelo servidor.
+     *
+     * @return chave AES com {@link #AES_KEY_LENGTH} bits.
+     *
+     * @throws Exception caso ocorra algum erro ao derivar a chave.
+     */
+    public static SecretKey deriveAESKey(SecretKey secret, byte[] clientNonce, byte[] serverNonce) throws Exception {
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(secret.getEncoded());
+        digest.update(clientNonce);
+        digest.update(serverNonce);
+        digest.update("p2p-chat/resume".getBytes(StandardCharsets.UTF_8));
+
+        return new SecretKeySpec(Arrays.copyOf(digest.digest(), AES_KEY_LENGTH / 8), "AES");
+    }
+
+    /**
+     * Gera bytes aleatórios, usados como nonce na troca de chaves.
+     *
+     * @param length quantidade de bytes.
+     *
+     * @return bytes aleatórios.
+     */
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
     /**
      * Gera uma chave AES utilizando o tamanho {@link #AES_KEY_LENGTH}.
      *
@@ -141,9 +254,47 @@ public class SecurityUtils {
      * @return String com os dados criptografados e codificados em Base64.
      **/
     public static String encryptAES(SecretKey key, byte[] source) throws Exception {
-        Cipher encryptCipher = Cipher.getInstance("AES");
-        encryptCipher.init(Cipher.ENCRYPT_MODE, key);
-        return Base64.getEncoder().encodeToString(encryptCipher.doFinal(source));
+        return Base64.getEncoder().encodeToString(encryptAESBytes(key, source));
+    }
+
+    /**
+     * Criptografa os dados contidos na source utilizando a chave AES informada.
+     *
+     * @param key chave AES.
+     * @param source dados a serem criptografados.
+     *
+     * @return byte[] com os dados criptografados.
+     **/
+    public static byte[] encryptAESBytes(SecretKey key, byte[] source) throws Exception {
+        CachedCipher cached = AES_CIPHER.get();
+
+        try {
+            return cached.init(Cipher.ENCRYPT_MODE, key).doFinal(source);
+        } catch (GeneralSecurityException e) {
+            cached.invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * Criptografa os dados restantes da source utilizando a chave AES informada,
+     * escrevendo o resultado diretamente no target.
+     *
+     * @param key chave AES.
+     * @param source dados a serem criptografados.
+     * @param target buffer onde os dados criptografados serão escritos.
+     *
+     * @return quantidade de bytes escritos no target.
+     **/
+    public static int encryptAESBytes(SecretKey key, ByteBuffer source, ByteBuffer target) throws Exception {
+        CachedCipher cached = AES_CIPHER.get();
+
+        try {
+            return cached.init(Cipher.ENCRYPT_MODE, key).doFinal(source, target);
+        } catch (GeneralSecurityException e) {
+            cached.invalidate();
+            throw e;
+        }
     }
 
     /**
@@ -155,9 +306,47 @@ public class SecurityUtils {
      * @return String com os dados descriptografados.
      **/
     public static String decryptAES(SecretKey key, byte[] source) throws Exception {
-        Cipher decryptCipher = Cipher.getInstance("AES");
-        decryptCipher.init(Cipher.DECRYPT_MODE, key);
-        return new String(decryptCipher.doFinal(Base64.getDecoder().decode(source)));
+        return new String(decryptAESBytes(key, Base64.getDecoder().decode(source)));
+    }
+
+    /**
+     * Descriptografa os dados contidos na source utilizando a chave AES informada.
+     *
+     * @param key chave AES.
+     * @param source dados criptografados.
+     *
+     * @return byte[] com os dados descriptografados.
+     **/
+    public static byte[] decryptAESBytes(SecretKey key, byte[] source) throws Exception {
+        CachedCipher cached = AES_CIPHER.get();
+
+        try {
+            return cached.init(Cipher.DECRYPT_MODE, key).doFinal(source);
+        } catch (GeneralSecurityException e) {
+            cached.invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * Descriptografa os dados restantes da source utilizando a chave AES informada,
+     * escrevendo o resultado diretamente no target.
+     *
+     * @param key chave AES.
+     * @param source dados criptografados.
+     * @param target buffer onde os dados descriptografados serão escritos.
+     *
+     * @return quantidade de bytes escritos no target.
+     **/
+    public static int decryptAESBytes(SecretKey key, ByteBuffer source, ByteBuffer target) throws Exception {
+        CachedCipher cached = AES_CIPHER.get();
+
+        try {
+            return cached.init(Cipher.DECRYPT_MODE, key).doFinal(source, target);
+        } catch (GeneralSecurityException e) {
+            cached.invalidate();
+            throw e;
+        }
     }
 
     /**
@@ -240,4 +429,134 @@ public class SecurityUtils {
         return Base64.getDecoder().decode(data);
     }
 
+    /**
+     * Codifica os dados restantes da source em Base64, escrevendo direto no target, sem alocações,
+     * usado com os buffers do {@link BufferPool}.
+     *
+     * @param source dados a serem codificados.
+     * @param target buffer de saída, deve ter ao menos 4 bytes para cada 3 bytes da source, arredondado para cima.
+     *
+     * @return quantidade de bytes escritos no target.
+     */
+    public static int asBase64(ByteBuffer source, ByteBuffer target){
+
+        int start = target.position();
+
+        while (source.remaining() >= 3){
+            int bits = (source.get() & 0xFF) << 16 | (source.get() & 0xFF) << 8 | (source.get() & 0xFF);
+            target.put(BASE64_ALPHABET[bits >>> 18]).put(BASE64_ALPHABET[bits >>> 12 & 63]).put(BASE64_ALPHABET[bits >>> 6 & 63]).put(BASE64_ALPHABET[bits & 63]);
+        }
+
+        int rest = source.remaining();
+
+        if(rest > 0){
+            int bits = (source.get() & 0xFF) << 16 | ((rest == 2) ? (source.get() & 0xFF) << 8 : 0);
+            target.put(BASE64_ALPHABET[bits >>> 18]).put(BASE64_ALPHABET[bits >>> 12 & 63]).put((rest == 2) ? BASE64_ALPHABET[bits >>> 6 & 63] : (byte) '=').put((byte) '=');
+        }
+
+        return target.position() - start;
+    }
+
+    /**
+     * Decodifica os dados restantes da source em Base64, escrevendo direto no target, sem alocações,
+     * aceitando os dados com ou sem o padding, como o {@link Base64#getDecoder()}.
+     *
+     * @param source dados a serem decodificados.
+     * @param target buffer de saída, deve ter ao menos 3 bytes para cada 4 bytes da source.
+     *
+     * @return quantidade de bytes escritos no target.
+     *
+     * @throws IllegalArgumentException caso os dados não estejam em Base64.
+     */
+    public static int fromBase64(ByteBuffer source, ByteBuffer target){
+
+        int start = target.position();
+        int bits = 0;
+        int count = 0;
+
+        while (source.hasRemaining()){
+
+            byte b = source.get();
+
+            if(b == '='){
+
+                while (source.hasRemaining()){
+                    if(source.get() != '=')
+                        throw new IllegalArgumentException("Input byte after padding");
+                }
+
+                if(count < 2)
+                    throw new IllegalArgumentException("Illegal base64 padding");
+
+                break;
+            }
+
+            int value = BASE64_VALUES[b & 0xFF];
+
+            if(value < 0)
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toHexString(b & 0xFF));
+
+            bits = bits << 6 | value;
+
+            if(++count == 4){
+                target.put((byte) (bits >> 16)).put((byte) (bits >> 8)).put((byte) bits);
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        if(count == 1)
+            throw new IllegalArgumentException("Last unit does not have enough valid bits");
+
+        if(count == 2)
+            target.put((byte) (bits >> 4));
+
+        if(count == 3)
+            target.put((byte) (bits >> 10)).put((byte) (bits >> 2));
+
+        return target.position() - start;
+    }
+
+    /**
+     * Guarda um {@link Cipher} junto com a chave e o modo com que foi inicializado, como o doFinal()
+     * devolve o cipher ao estado do último init(), ele só precisa ser reinicializado quando algum deles muda.
+     */
+    private static final class CachedCipher {
+
+        private final Cipher cipher;
+
+        private Key key;
+
+        private int mode;
+
+        CachedCipher(String transformation) {
+            try {
+                this.cipher = Cipher.getInstance(transformation);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Cipher init(int mode, Key key) throws GeneralSecurityException {
+
+            if(this.key != key || this.mode != mode){
+                this.key = null;
+                cipher.init(mode, key);
+                this.key = key;
+                this.mode = mode;
+            }
+
+            return cipher;
+        }
+
+        /**
+         * Força a reinicialização na próxima chamada, usado quando o doFinal() falha
+         * e o estado do cipher não é mais confiável.
+         */
+        void invalidate() {
+            this.key = null;
+        }
+
+    }
+
 }
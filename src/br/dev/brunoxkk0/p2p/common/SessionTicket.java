@@ -0,0 +1,75 @@
+package br.dev.brunoxkk0.p2p.common;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Ticket de sessão recebido do servidor ao final da troca de chaves, guardado pelo cliente para
+ * retomar a sessão em uma reconexão sem repetir as operações RSA.
+ * <p>
+ * O ticket é opaco para o cliente, apenas o servidor que o emitiu consegue lê-lo, o segredo é a chave
+ * AES da sessão em que o ticket foi recebido, e nunca é enviado pela rede.
+ */
+public class SessionTicket {
+
+    /**
+     * Ticket emitido pelo servidor, em Base64.
+     */
+    private final String ticket;
+
+    /**
+     * Segredo da sessão em que o ticket foi emitido.
+     */
+    private final SecretKey secret;
+
+    /**
+     * Momento, em {@link System#currentTimeMillis()}, em que o ticket deixa de ser aceito pelo servidor.
+     */
+    private final long expiresAt;
+
+    public SessionTicket(String ticket, SecretKey secret) {
+        this(ticket, secret, Long.MAX_VALUE);
+    }
+
+    public SessionTicket(String ticket, SecretKey secret, long expiresAt) {
+        this.ticket = ticket;
+        this.secret = secret;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Retorna o ticket emitido pelo servidor.
+     *
+     * @return ticket em Base64.
+     */
+    public String getTicket() {
+        return ticket;
+    }
+
+    /**
+     * Retorna o segredo da sessão em que o ticket foi emitido.
+     *
+     * @return chave AES da sessão.
+     */
+    public SecretKey getSecret() {
+        return secret;
+    }
+
+    /**
+     * Retorna o momento em que o ticket deixa de ser aceito pelo servidor.
+     *
+     * @return momento em {@link System#currentTimeMillis()}, ou {@link Long#MAX_VALUE} caso o servidor não tenha informado a validade.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Retorna se a validade do ticket já passou.
+     *
+     * @return true caso o ticket tenha expirado.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+}
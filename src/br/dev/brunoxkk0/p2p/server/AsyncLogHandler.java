@@ -0,0 +1,185 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * {@link Handler} que tira a formatação e a escrita dos registros de log das threads do servidor,
+ * os registros são colocados em uma fila limitada e uma thread própria os repassa em lotes aos
+ * handlers de destino, com um único flush por lote. Quem registra nunca espera pela saída, quando a fila
+ * está cheia o registro é descartado e contado, e a quantidade descartada é avisada no próximo lote.
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * Capacidade padrão da fila de registros.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Quantidade máxima de registros repassados entre dois flushes.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Fila dos registros aguardando para serem repassados.
+     */
+    private final BlockingQueue<LogRecord> queue;
+
+    /**
+     * Handlers que recebem os registros, como o {@link java.util.logging.ConsoleHandler} da configuração padrão.
+     */
+    private final Handler[] delegates;
+
+    /**
+     * Quantidade de registros descartados por falta de espaço na fila.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Thread que repassa os registros aos {@link #delegates}.
+     */
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /**
+     * Cria o handler e inicia a thread que repassa os registros.
+     *
+     * @param capacity capacidade da fila de registros.
+     * @param delegates handlers que recebem os registros.
+     */
+    public AsyncLogHandler(int capacity, Handler... delegates) {
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.delegates = delegates.clone();
+
+        this.writer = new Thread(this::drain, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Faz com que o logger informado passe a registrar através de um {@link AsyncLogHandler}, repassando
+     * aos handlers do logger raiz, em vez de usar os handlers do logger raiz diretamente.
+     * Não faz nada caso o logger já tenha um {@link AsyncLogHandler}.
+     *
+     * @param logger logger a ser alterado.
+     */
+    public static void install(Logger logger) {
+
+        synchronized (AsyncLogHandler.class){
+
+            for (Handler handler : logger.getHandlers()){
+                if(handler instanceof AsyncLogHandler)
+                    return;
+            }
+
+            logger.addHandler(new AsyncLogHandler(DEFAULT_CAPACITY, Logger.getLogger("").getHandlers()));
+            logger.setUseParentHandlers(false);
+        }
+    }
+
+    /**
+     * Quantidade de registros descartados por falta de espaço na fila.
+     *
+     * @return registros descartados.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Coloca o registro na fila, sem esperar pela saída. A classe de origem passa a ser o nome do logger,
+     * já que descobri-la pela pilha de chamadas custa mais que o próprio registro, e feito na thread
+     * de escrita apontaria para o lugar errado.
+     *
+     * @param record registro de log.
+     */
+    @Override
+    public void publish(LogRecord record) {
+
+        if(closed || !isLoggable(record))
+            return;
+
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+
+        if(!queue.offer(record))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * Loop da thread de escrita, repassa os registros em lotes até o handler ser fechado.
+     */
+    private void drain() {
+
+        List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+        long reported = 0;
+
+        while (!closed || !queue.isEmpty()){
+
+            try {
+                LogRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if(first == null)
+                    continue;
+
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+            }
+
+            long lost = dropped.get();
+
+            if(lost != reported){
+                LogRecord notice = new LogRecord(Level.WARNING, (lost - reported) + " log records dropped, logging queue full");
+                notice.setLoggerName(getClass().getSimpleName());
+                batch.add(notice);
+                reported = lost;
+            }
+
+            for (LogRecord record : batch){
+                for (Handler delegate : delegates){
+                    delegate.publish(record);
+                }
+            }
+
+            batch.clear();
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (Handler delegate : delegates){
+            delegate.flush();
+        }
+    }
+
+    /**
+     * Para de aceitar registros e espera a thread de escrita repassar os que estão na fila.
+     * Os handlers de destino não são fechados, pois normalmente pertencem ao logger raiz.
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Define os tipos de mensagem trocados entre os nós do cluster, ver {@link ClusterNode}.
+ */
+public enum ClusterMessageType {
+
+    HELLO           (1),
+    HEARTBEAT       (2),
+    MESSAGE         (3),
+    ANNOUNCEMENT    (4);
+
+    byte code;
+
+    ClusterMessageType(int code){
+        this.code = (byte) code;
+    }
+
+    /**
+     * Código do tipo, enviado no frame.
+     *
+     * @return código do tipo.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Busca o tipo pelo código recebido no frame.
+     *
+     * @param code código do tipo.
+     *
+     * @return tipo encontrado, ou null caso seja desconhecido.
+     */
+    public static ClusterMessageType fromCode(byte code) {
+
+        for (ClusterMessageType type : values()){
+            if(type.code == code)
+                return type;
+        }
+
+        return null;
+    }
+
+}
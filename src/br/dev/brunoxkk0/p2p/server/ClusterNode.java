@@ -0,0 +1,569 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Nó de um cluster de servidores, repassa as mensagens e avisos das salas deste servidor aos outros nós
+ * e entrega ao servidor as mensagens repassadas por eles, assim os usuários de uma sala veem as mesmas
+ * mensagens independente do nó em que estão conectados.
+ * <p>
+ * Cada nó escuta os outros nós em uma porta própria e abre uma conexão de saída para cada par configurado,
+ * por onde envia as suas mensagens, todos os nós devem conhecer todos os outros (malha completa). As mensagens
+ * recebidas de um par só são entregues às conexões locais e nunca repassadas novamente, o que evita laços.
+ * A lista de pares pode conter o próprio nó, que é ignorado, permitindo usar a mesma lista em todos os nós.
+ * <p>
+ * Cada par tem uma fila limitada, esvaziada por uma thread própria para que o disparo nunca espere a rede,
+ * as mensagens publicadas enquanto o par está desconectado, ou com a fila cheia, e as que ainda estão na fila
+ * quando a conexão cai são descartadas e contadas em {@link #getDroppedMessages()}. As conexões perdidas são refeitas a cada {@link #RECONNECT_DELAY_MILLIS}.
+ * <p>
+ * A ligação entre os nós não é criptografada nem autenticada, as mensagens trafegam em texto puro,
+ * a porta do cluster deve ficar restrita a uma rede privada.
+ * <p>
+ * Formato dos frames: tamanho (int) + tipo ({@link ClusterMessageType}) + campos, cada campo
+ * com o tamanho (int) seguido do texto em UTF-8.
+ */
+public class ClusterNode {
+
+    /**
+     * Versão do protocolo, enviada no {@link ClusterMessageType#HELLO}, nós de versões diferentes não se conectam.
+     */
+    public static final int PROTOCOL_VERSION = 1;
+
+    /**
+     * Quantidade padrão de mensagens aguardando envio por par.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    /**
+     * Intervalo entre as tentativas de conexão com um par.
+     */
+    public static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    /**
+     * Intervalo sem mensagens após o qual é enviado um {@link ClusterMessageType#HEARTBEAT}, assim uma
+     * conexão perdida é percebida mesmo sem tráfego.
+     */
+    public static final long HEARTBEAT_MILLIS = 1000;
+
+    /**
+     * Tamanho máximo de um frame recebido.
+     */
+    private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+    private final Logger logger = Logger.getLogger("Cluster");
+
+    /**
+     * Identificação deste nó, enviada aos pares.
+     */
+    private final String nodeId;
+
+    private final ServerSocket serverSocket;
+
+    private final OnClusterMessage onMessage;
+
+    private final List<Peer> peers = new ArrayList<>();
+
+    /**
+     * Conexões de entrada abertas pelos pares.
+     */
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Cria o nó, começa a escutar os pares na porta informada e a conectar nos pares configurados.
+     *
+     * @param nodeId identificação deste nó, usada nos logs dos pares.
+     * @param host endereço em que o nó escuta os pares.
+     * @param port porta do cluster, ou 0 para uma porta escolhida pelo sistema.
+     * @param peers endereços dos outros nós.
+     * @param onMessage função chamada com as mensagens recebidas dos pares.
+     * @param queueCapacity quantidade máxima de mensagens aguardando envio por par.
+     *
+     * @throws IOException caso ocorra algum erro ao dar bind na porta.
+     */
+    public ClusterNode(String nodeId, String host, int port, List<InetSocketAddress> peers, OnClusterMessage onMessage, int queueCapacity) throws IOException {
+
+        if(queueCapacity <= 0)
+            throw new IllegalArgumentException("Queue capacity must be positive");
+
+        this.nodeId = nodeId;
+        this.onMessage = onMessage;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(host), port), 50);
+
+        for (InetSocketAddress address : peers){
+            if(!isSelf(address))
+                this.peers.add(new Peer(address, queueCapacity));
+        }
+
+        daemon(this::acceptLoop, "cluster-accept").start();
+
+        for (Peer peer : this.peers){
+            daemon(peer, "cluster-peer-" + peer.address).start();
+        }
+
+        logger.info(() -> "Cluster node " + nodeId + " listening on " + getPort() + " with " + this.peers.size() + " peers");
+    }
+
+    /**
+     * Cria o nó com a capacidade de fila padrão, ver {@link #DEFAULT_QUEUE_CAPACITY}.
+     *
+     * @param nodeId identificação deste nó, usada nos logs dos pares.
+     * @param host endereço em que o nó escuta os pares.
+     * @param port porta do cluster, ou 0 para uma porta escolhida pelo sistema.
+     * @param peers endereços dos outros nós.
+     * @param onMessage função chamada com as mensagens recebidas dos pares.
+     *
+     * @throws IOException caso ocorra algum erro ao dar bind na porta.
+     */
+    public ClusterNode(String nodeId, String host, int port, List<InetSocketAddress> peers, OnClusterMessage onMessage) throws IOException {
+        this(nodeId, host, port, peers, onMessage, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Lê a lista de pares no formato host:porta,host:porta.
+     *
+     * @param peers lista de pares.
+     *
+     * @return endereços dos pares.
+     *
+     * @throws IllegalArgumentException caso algum endereço não tenha a porta.
+     */
+    public static List<InetSocketAddress> parsePeers(String peers) {
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+
+        for (String peer : peers.split(",")){
+
+            peer = peer.trim();
+
+            if(peer.isEmpty())
+                continue;
+
+            int separator = peer.lastIndexOf(':');
+
+            if(separator <= 0)
+                throw new IllegalArgumentException("Invalid cluster peer, expected host:port: " + peer);
+
+            addresses.add(new InetSocketAddress(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1))));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Repassa uma mensagem de uma sala a todos os pares conectados, o frame é codificado uma única vez.
+     *
+     * @param type tipo da mensagem, {@link ClusterMessageType#MESSAGE} ou {@link ClusterMessageType#ANNOUNCEMENT}.
+     * @param room nome da sala.
+     * @param user nome do remetente, ou null nos avisos.
+     * @param text texto da mensagem, ou o aviso completo.
+     */
+    public void publish(ClusterMessageType type, String room, String user, String text) {
+
+        if(peers.isEmpty() || closed)
+            return;
+
+        byte[] frame = encode(type, room, (user != null) ? user : "", text);
+
+        for (Peer peer : peers){
+            if(peer.connected && peer.queue.offer(frame)){
+                messagesOut.increment();
+            } else {
+                droppedMessages.increment();
+            }
+        }
+    }
+
+    /**
+     * Porta em que o nó escuta os pares.
+     *
+     * @return porta do cluster.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Identificação deste nó.
+     *
+     * @return identificação do nó.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Quantidade de pares configurados, sem contar este nó.
+     *
+     * @return pares configurados.
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    /**
+     * Pares configurados, sem contar este nó.
+     *
+     * @return endereços dos pares.
+     */
+    public List<InetSocketAddress> getPeers() {
+
+        List<InetSocketAddress> addresses = new ArrayList<>(peers.size());
+
+        for (Peer peer : peers){
+            addresses.add(peer.address);
+        }
+
+        return Collections.unmodifiableList(addresses);
+    }
+
+    /**
+     * Quantidade de pares com a conexão de saída aberta.
+     *
+     * @return pares conectados.
+     */
+    public int getConnectedPeers() {
+
+        int connected = 0;
+
+        for (Peer peer : peers){
+            if(peer.connected)
+                connected++;
+        }
+
+        return connected;
+    }
+
+    /**
+     * Quantidade de mensagens recebidas dos pares.
+     *
+     * @return mensagens recebidas.
+     */
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    /**
+     * Quantidade de mensagens colocadas nas filas dos pares, uma por par.
+     *
+     * @return mensagens enviadas.
+     */
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    /**
+     * Quantidade de mensagens descartadas por o par estar desconectado ou com a fila cheia, ou que estavam
+     * na fila quando a conexão caiu, uma por par.
+     *
+     * @return mensagens descartadas.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Para de escutar os pares e encerra todas as conexões com eles.
+     */
+    public void close() {
+
+        closed = true;
+
+        closeQuietly(serverSocket);
+
+        for (Peer peer : peers){
+            closeQuietly(peer.socket);
+        }
+
+        for (Socket socket : inbound){
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Aceita as conexões de entrada dos pares, cada uma lida por uma thread própria.
+     */
+    private void acceptLoop() {
+
+        while (!closed){
+            try {
+                Socket socket = serverSocket.accept();
+                inbound.add(socket);
+                daemon(() -> readLoop(socket), "cluster-link-" + socket.getRemoteSocketAddress()).start();
+            } catch (IOException e) {
+                if(!closed)
+                    logger.warning(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lê os frames de uma conexão de entrada, o primeiro deve ser o {@link ClusterMessageType#HELLO}
+     * com a mesma {@link #PROTOCOL_VERSION}, os seguintes são entregues ao {@link #onMessage}.
+     *
+     * @param socket conexão aberta por um par.
+     */
+    private void readLoop(Socket socket) {
+
+        String peer = String.valueOf(socket.getRemoteSocketAddress());
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+
+            socket.setSoTimeout((int) (HEARTBEAT_MILLIS * 3));
+
+            ByteBuffer hello = readFrame(in);
+
+            if(ClusterMessageType.fromCode(hello.get()) != ClusterMessageType.HELLO || hello.getInt() != PROTOCOL_VERSION)
+                throw new IOException("Unexpected handshake or protocol version");
+
+            peer = readString(hello);
+            String remote = peer;
+            logger.info(() -> "Cluster node " + remote + " connected");
+
+            while (!closed){
+
+                ByteBuffer frame = readFrame(in);
+                ClusterMessageType type = ClusterMessageType.fromCode(frame.get());
+
+                if(type != ClusterMessageType.MESSAGE && type != ClusterMessageType.ANNOUNCEMENT)
+                    continue;
+
+                String room = readString(frame);
+                String user = readString(frame);
+                String text = readString(frame);
+
+                messagesIn.increment();
+
+                try {
+                    onMessage.onMessage(type, room, user, text);
+                } catch (Exception e) {
+                    logger.warning(e.getMessage());
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            logger.warning("Cluster node " + peer + " timed out");
+        } catch (Exception e) {
+            if(!closed)
+                logger.info("Cluster node " + peer + " disconnected: " + e.getMessage());
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private ByteBuffer readFrame(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+
+        if(length <= 0 || length > MAX_FRAME_SIZE)
+            throw new IOException("Invalid cluster frame length: " + length);
+
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+
+        return ByteBuffer.wrap(frame);
+    }
+
+    private static String readString(ByteBuffer frame) throws IOException {
+
+        int length = frame.getInt();
+
+        if(length < 0 || length > frame.remaining())
+            throw new IOException("Invalid cluster frame field");
+
+        String value = new String(frame.array(), frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+
+        return value;
+    }
+
+    /**
+     * Codifica um frame, já com o tamanho na frente.
+     */
+    private static byte[] encode(ClusterMessageType type, String... fields) {
+
+        byte[][] encoded = new byte[fields.length][];
+        int length = 1;
+
+        for (int i = 0; i < fields.length; i++){
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += Integer.BYTES + encoded[i].length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length).put(type.getCode());
+
+        for (byte[] field : encoded){
+            frame.putInt(field.length).put(field);
+        }
+
+        return frame.array();
+    }
+
+    private byte[] hello() {
+
+        byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + Integer.BYTES + Integer.BYTES + id.length;
+
+        return ByteBuffer.allocate(Integer.BYTES + length)
+                .putInt(length).put(ClusterMessageType.HELLO.getCode())
+                .putInt(PROTOCOL_VERSION).putInt(id.length).put(id)
+                .array();
+    }
+
+    /**
+     * Retorna se o endereço é a porta deste nó no endereço em que o nó fez bind, ou em
+     * um dos endereços desta máquina caso o bind tenha sido feito em todas as interfaces.
+     */
+    private boolean isSelf(InetSocketAddress address) {
+
+        if(address.isUnresolved() || address.getPort() != getPort())
+            return false;
+
+        InetAddress inetAddress = address.getAddress();
+        InetAddress bound = serverSocket.getInetAddress();
+
+        if(!bound.isAnyLocalAddress())
+            return bound.equals(inetAddress);
+
+        try {
+            return inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress() || NetworkInterface.getByInetAddress(inetAddress) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+
+        if(closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Conexão de saída para um par, a thread conecta, envia o {@link ClusterMessageType#HELLO}
+     * e escreve as mensagens da fila, reconectando sempre que a conexão cair.
+     */
+    private class Peer implements Runnable {
+
+        private final InetSocketAddress address;
+
+        private final ArrayBlockingQueue<byte[]> queue;
+
+        private volatile Socket socket;
+
+        private volatile boolean connected;
+
+        private Peer(InetSocketAddress address, int queueCapacity) {
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+
+            byte[] heartbeat = encode(ClusterMessageType.HEARTBEAT);
+            boolean warned = false;
+
+            while (!closed){
+
+                try (Socket socket = new Socket()) {
+
+                    this.socket = socket;
+
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                    out.write(hello());
+                    out.flush();
+
+                    connected = true;
+                    warned = false;
+                    logger.info(() -> "Connected to cluster node " + address);
+
+                    while (!closed){
+
+                        byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+                        if(frame == null){
+                            out.write(heartbeat);
+                            out.flush();
+                            continue;
+                        }
+
+                        do {
+                            out.write(frame);
+                        } while ((frame = queue.poll()) != null);
+
+                        out.flush();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    if(!closed && (connected || !warned)){
+                        logger.warning("Cluster node " + address + " unreachable: " + e.getMessage());
+                        warned = true;
+                    }
+                } finally {
+                    connected = false;
+
+                    /* As mensagens que aguardavam o nó são descartadas, e contadas, até a próxima conexão.*/
+                    int discarded = 0;
+
+                    while (queue.poll() != null)
+                        discarded++;
+
+                    droppedMessages.add(discarded);
+                }
+
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -1,20 +1,71 @@
 package br.dev.brunoxkk0.p2p.server;
 
-import br.com.brunoxkk0.common.*;
 import br.dev.brunoxkk0.p2p.client.Client;
-import br.dev.brunoxkk0.common.*;
 import br.dev.brunoxkk0.p2p.common.*;
 
 import javax.crypto.SecretKey;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
 import java.security.PublicKey;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Connection extends Thread {
+public class Connection implements Runnable {
+
+    /**
+     * Tamanho máximo de uma linha recebida, conexões que ultrapassarem este tamanho são encerradas.
+     */
+    public static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    /**
+     * Marcador colocado na fila de saída para encerrar a tarefa de escrita.
+     */
+    private static final ByteBuffer CLOSE_MARKER = ByteBuffer.allocate(0);
+
+    /**
+     * Contador usado para gerar o id das conexões.
+     */
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    /**
+     * Quantidade máxima de buffers escritos em uma única chamada ao sistema.
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * Quantidade máxima de bytes reunidos para uma única escrita.
+     */
+    private static final int MAX_GATHER_BYTES = 64 * 1024;
+
+    /**
+     * Tamanho do nonce enviado pelo servidor na retomada de sessão, em bytes.
+     */
+    private static final int RESUME_NONCE_SIZE = 16;
+
+    /**
+     * Tamanho padrão dos buffers de leitura e de mensagens descriptografadas, os buffers crescem para receber
+     * frames e linhas maiores e voltam a este tamanho quando ficam vazios.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Identificador único da conexão no servidor.
+     */
+    private final long id = ID_COUNTER.incrementAndGet();
+
+    /**
+     * Canal da conexão.
+     */
+    private final SocketChannel channel;
 
     /**
      * Socket da conexão.
@@ -22,14 +73,128 @@ public class Connection extends Thread {
     private final Socket socket;
 
     /**
-     * Buffer de leitura do cliente para o servidor.
+     * Buffer direto usado na leitura dos dados do canal, o sistema escreve direto nele sem a cópia feita
+     * pelo JDK para os buffers em heap, os frames e linhas são processados diretamente neste buffer,
+     * e o que sobra de um frame ou linha incompleta permanece nele até a próxima leitura.
+     */
+    private final ByteBuffer directReadBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Buffer de leitura atual, o {@link #directReadBuffer} ou um buffer maior enquanto um frame ou linha
+     * maior que ele está sendo recebido.
+     */
+    private ByteBuffer readBuffer = directReadBuffer;
+
+    /**
+     * Tamanho que o {@link #readBuffer} precisa ter para receber o frame ou a linha incompleta, 0 caso o tamanho atual seja suficiente.
+     */
+    private int readRequired;
+
+    /**
+     * Quantidade de bytes da linha incompleta já procurados pelo terminador.
+     */
+    private int lineScanned;
+
+    /**
+     * Buffer reutilizado para as mensagens descriptografadas, usado somente pela thread de leitura.
+     */
+    private final ByteBuffer defaultPlainBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Buffer de mensagens descriptografadas atual, o {@link #defaultPlainBuffer} ou um maior para mensagens maiores que ele.
+     */
+    private ByteBuffer plainBuffer = defaultPlainBuffer;
+
+    /**
+     * Formato das mensagens, negociado durante a troca de chaves.
+     */
+    private volatile Framing framing = Framing.TEXT;
+
+    /**
+     * Fila limitada com os dados aguardando para serem escritos no canal, consumida pela tarefa de escrita
+     * da conexão ou pela thread do selector, desacoplando quem envia da velocidade do cliente.
+     */
+    private final BlockingQueue<ByteBuffer> outbound;
+
+    /**
+     * Política aplicada quando a {@link #outbound} está cheia.
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Buffers escritos de uma vez no canal, com uma única chamada ao sistema, no modo {@link ServerMode#SELECTOR}.
+     * Os buffers de {@link #gatherOffset} até {@link #gatherCount} ainda não foram escritos por completo,
+     * o array também é a trava que impede o {@link #close()} de devolver ao pool um buffer sendo escrito.
+     */
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private int gatherOffset;
+    private int gatherCount;
+
+    /**
+     * Controla se o interesse de escrita já foi registrado no selector, evitando acordar o selector
+     * a cada mensagem enfileirada enquanto a escrita anterior ainda não aconteceu.
+     */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    /**
+     * Tempo que a tarefa de escrita aguarda por mais mensagens antes de escrever, em nanossegundos.
+     */
+    private final long coalesceWindowNanos;
+
+    /**
+     * Quantidade de mensagens descartadas por falta de espaço na fila de saída.
      */
-    private final BufferedReader reader;
+    private final AtomicLong dropped = new AtomicLong();
 
     /**
-     * Buffer de escrita do servidor para o cliente.
+     * Métricas do servidor, atualizadas junto aos contadores da conexão.
      */
-    private final BufferedWriter writer;
+    private final ServerMetrics metrics;
+
+    /**
+     * Pool dos buffers enviados, todo buffer da {@link #outbound} vem deste pool e volta a ele após ser escrito.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Contadores da conexão, de mensagens recebidas e enfileiradas e de bytes lidos e escritos no canal.
+     */
+    private final AtomicLong messagesIn = new AtomicLong();
+    private final AtomicLong messagesOut = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * Momento, em {@link System#nanoTime()}, em que a última mensagem terminou de ser lida.
+     */
+    private long receivedAt;
+
+    /**
+     * Trava usada para alterar o interesse de escrita da {@link #key}.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Buffer da fila de saída cuja latência de entrega está sendo medida, no máximo um por vez em cada conexão,
+     * a latência é registrada quando ele termina de ser escrito no canal, ver {@link ServerMetrics#getDeliveryLatency()}.
+     */
+    private volatile ByteBuffer latencyProbe;
+
+    /**
+     * Momento, em {@link System#nanoTime()}, em que a mensagem do {@link #latencyProbe} foi recebida.
+     */
+    private long latencyProbeReceivedAt;
+
+    /**
+     * Trava usada para alterar o {@link #latencyProbe}.
+     */
+    private final Object latencyLock = new Object();
+
+    /**
+     * Controla se a conexão ja foi encerrada.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
 
     /**
      * Interface funcional com a função a ser executada ao realizar uma leitura.
@@ -46,45 +211,126 @@ public class Connection extends Thread {
      */
     private final OnQuit onQuit;
 
+    /**
+     * Chave de registro no {@link Selector}, nula quando a conexão é tratada por uma thread própria.
+     */
+    private SelectionKey key;
+
+    /**
+     * Estado atual da troca de chaves.
+     */
+    private KeyShareStatus keyShareStatus = KeyShareStatus.RECEIVE_CLIENT_RSA;
+
     /**
      * Nome do cliente.
      */
-    private String userName;
+    private volatile String userName;
 
     /**
-     * Chave AES do servidor.
+     * Chave AES do canal, gerada pelo servidor ou derivada da troca de chaves X25519.
      */
-    private final SecretKey AESKey;
+    private SecretKey AESKey;
 
     /**
      * Chave pública do cliente.
      */
     private PublicKey clientPublicKey;
 
+    /**
+     * Criptografia do canal, negociada durante a troca de chaves.
+     */
+    private ChannelCipher channelCipher;
+
+    /**
+     * Sala em que o cliente está.
+     */
+    private volatile Room room;
+
+    /**
+     * Trava que serializa a entrada e a saída das salas com o {@link OnQuit}, para que uma conexão
+     * encerrada durante a troca de sala não volte a ser adicionada à nova sala.
+     */
+    private final Object membershipLock = new Object();
+
+    /**
+     * Controla se o servidor permite que a conexão use a chave de grupo.
+     */
+    private final boolean groupKeyAllowed;
+
+    /**
+     * Emissor dos tickets de sessão, null caso a retomada de sessão esteja desabilitada.
+     */
+    private final SessionTickets sessionTickets;
+
+    /**
+     * Controla se a conexão negociou o uso da chave de grupo.
+     */
+    private volatile boolean groupMember;
+
+    /**
+     * Época da última chave de grupo enviada ao cliente, -1 caso nenhuma tenha sido enviada.
+     */
+    private volatile int groupEpoch = -1;
+
+    /**
+     * Trava que mantém a ordem entre criptografar e enfileirar as mensagens, necessária para
+     * que os contadores do {@link AesGcmChannelCipher} cheguem ao cliente em ordem.
+     */
+    private final Object sendLock = new Object();
+
+    /**
+     * Cliente "server-side" usado para lidar com a conexão do socket do lado do servidor,
+     * como implementado no {@link Client}, as mensagens são lidas e escritas diretamente no canal
+     * utilizando o charset {@link StandardCharsets#UTF_8}, a chave AES é estabelecida durante a troca de chaves.
+     *
+     * @param channel canal conectado.
+     * @param onRead interface funcional a ser chamada quando realizado uma leitura.
+     * @param onJoin interface funcional a ser chamado quando um cliente se conecta.
+     * @param onQuit interface funcional a ser chamada quando um cliente se desconecta.
+     *
+     * @throws Exception caso ocorra algum erro ao criar o objeto de conexão.
+     */
+    public Connection(SocketChannel channel, OnRead onRead, OnJoin onJoin, OnQuit onQuit) throws Exception {
+        this(channel, onRead, onJoin, onQuit, new ConnectionSettings());
+    }
+
     /**
      * Cliente "server-side" usado para lidar com a conexão do socket do lado do servidor,
-     * como implementado no {@link Client}, ao criar a conexão
-     * inicializa o {@link #reader} e {@link #writer} utilizando o
-     * charset {@link StandardCharsets#UTF_8}, também, gera a chave AES a ser usada.
+     * utilizando as configurações informadas.
      *
-     * @param socket socket conectado.
+     * @param channel canal conectado.
      * @param onRead interface funcional a ser chamada quando realizado uma leitura.
      * @param onJoin interface funcional a ser chamado quando um cliente se conecta.
      * @param onQuit interface funcional a ser chamada quando um cliente se desconecta.
+     * @param settings configurações da conexão.
      *
      * @throws Exception caso ocorra algum erro ao criar o objeto de conexão.
      */
-    public Connection(Socket socket, OnRead onRead, OnJoin onJoin, OnQuit onQuit) throws Exception {
+    public Connection(SocketChannel channel, OnRead onRead, OnJoin onJoin, OnQuit onQuit, ConnectionSettings settings) throws Exception {
 
-        this.socket = socket;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        this.channel = channel;
+        this.socket = channel.socket();
 
         this.onRead = onRead;
         this.onJoin = onJoin;
         this.onQuit = onQuit;
 
-        this.AESKey = SecurityUtils.genAESKey();
+        this.outbound = new ArrayBlockingQueue<>(settings.getOutboundCapacity());
+        this.overflowPolicy = settings.getOverflowPolicy();
+        this.groupKeyAllowed = settings.isGroupKeyEnabled();
+        this.sessionTickets = settings.getSessionTickets();
+        this.coalesceWindowNanos = TimeUnit.MICROSECONDS.toNanos(settings.getCoalesceWindowMicros());
+        this.metrics = settings.getMetrics();
+        this.bufferPool = settings.getBufferPool();
+    }
+
+    /**
+     * Retorna o identificador único da conexão.
+     *
+     * @return id da conexão
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -96,6 +342,80 @@ public class Connection extends Thread {
         return userName;
     }
 
+    /**
+     * Retorna o formato das mensagens negociado com o cliente.
+     *
+     * @return formato das mensagens.
+     */
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * Retorna a criptografia do canal negociada com o cliente.
+     *
+     * @return criptografia do canal, ou null antes do fim da troca de chaves.
+     */
+    public ChannelCipher getChannelCipher() {
+        return channelCipher;
+    }
+
+    /**
+     * Retorna se a conexão negociou o uso da chave de grupo.
+     *
+     * @return true caso a conexão aceite mensagens criptografadas com a chave de grupo.
+     */
+    public boolean isGroupMember() {
+        return groupMember;
+    }
+
+    /**
+     * Retorna se a última chave de grupo enviada ao cliente é a da época informada.
+     *
+     * @param epoch época da chave de grupo.
+     *
+     * @return true caso o cliente possa descriptografar mensagens da época informada.
+     */
+    public boolean hasGroupKey(int epoch) {
+        return groupMember && groupEpoch == epoch;
+    }
+
+    /**
+     * Retorna a sala em que o cliente está.
+     *
+     * @return sala do cliente, ou null antes de entrar em uma sala.
+     */
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Trava que deve ser mantida ao alterar a sala da conexão, ver {@link RoomManager#join(Connection, String)}.
+     *
+     * @return trava de entrada e saída das salas.
+     */
+    public Object getMembershipLock() {
+        return membershipLock;
+    }
+
+    /**
+     * Define a sala em que o cliente está, usado pelo {@link RoomManager}.
+     *
+     * @param room sala do cliente.
+     */
+    void setRoom(Room room) {
+        this.room = room;
+    }
+
+    /**
+     * Altera o nome do cliente, usado pelo servidor quando o nome informado ja está em uso.
+     *
+     * @param userName novo nome do cliente.
+     */
+    void setUserName(String userName) {
+        this.userName = userName;
+    }
+
     /**
      * Retorna o socket do cliente.
      *
@@ -106,71 +426,904 @@ public class Connection extends Thread {
     }
 
     /**
-     * Retorna o buffer de escrita do socket conectado.
+     * Retorna o canal do cliente.
+     *
+     * @return canal do cliente
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Quantidade de mensagens aguardando envio.
+     *
+     * @return tamanho da fila de saída.
+     */
+    public int getOutboundSize() {
+        return outbound.size();
+    }
+
+    /**
+     * Quantidade de mensagens descartadas pela política {@link OverflowPolicy#DROP_OLDEST}.
+     *
+     * @return mensagens descartadas.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Quantidade de mensagens recebidas do cliente.
+     *
+     * @return mensagens recebidas.
+     */
+    public long getMessagesIn() {
+        return messagesIn.get();
+    }
+
+    /**
+     * Quantidade de mensagens colocadas na fila de saída.
+     *
+     * @return mensagens enfileiradas.
+     */
+    public long getMessagesOut() {
+        return messagesOut.get();
+    }
+
+    /**
+     * Quantidade de bytes lidos do canal.
+     *
+     * @return bytes lidos.
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Quantidade de bytes escritos no canal.
+     *
+     * @return bytes escritos.
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Momento em que a mensagem sendo processada terminou de ser lida, válido somente na thread
+     * que chamou o {@link #onRead}.
+     *
+     * @return momento em {@link System#nanoTime()}.
+     */
+    long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * Registra a conexão no selector informado, a partir deste momento a leitura e escrita
+     * passam a ser feitas pela thread do selector através de {@link #onReadable()} e {@link #onWritable()}.
+     *
+     * @param selector selector do servidor.
      *
-     * @return buffer de escrita.
+     * @throws IOException caso ocorra algum erro ao registrar o canal.
      */
-    public BufferedWriter getWriter() {
-        return writer;
+    public void register(Selector selector) throws IOException {
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_READ, this);
     }
 
+    /**
+     * Loop de leitura usado nos modos {@link ServerMode#THREAD} e {@link ServerMode#VIRTUAL_THREAD},
+     * a thread que executa a conexão, seja ela de plataforma ou virtual, fica bloqueada no canal
+     * até que dados cheguem, sem consumir processamento enquanto a conexão está ociosa.
+     */
     @Override
     public void run() {
 
-        KeyShareStatus keyShareStatus = KeyShareStatus.RECEIVE_CLIENT_RSA;
+        try {
+            int read;
+
+            while (!closed.get() && (read = channel.read(readBuffer)) >= 0){
+                countRead(read);
+                processReadBuffer();
+            }
+        } catch (Exception ignored) {
+        }
 
-        while(isAlive() && getSocket().isConnected() && !getSocket().isClosed()){
+        close();
+    }
 
-            try {
+    /**
+     * Tarefa de escrita usada nos modos com thread por conexão, consome a fila de saída
+     * e escreve no canal, bloqueando enquanto não há mensagens.
+     * <p>
+     * As mensagens enfileiradas são reunidas e escritas de uma vez com uma única chamada ao sistema,
+     * aguardando por mais mensagens durante a janela definida em {@link ConnectionSettings#setCoalesceWindowMicros(long)}.
+     *
+     * @return tarefa de escrita da conexão.
+     */
+    public Runnable getWriterTask() {
+        return () -> {
 
-                if(keyShareStatus == KeyShareStatus.SEND_SERVER_AES){
+            ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
 
-                    byte[] encrypted = SecurityUtils.encrypt(clientPublicKey, AESKey.getEncoded());
+            try {
+                boolean closing = false;
 
-                    writer.write(SecurityUtils.asBase64ToString(encrypted) + "\r\n");
-                    writer.flush();
+                while (!closing && !closed.get()){
 
-                    keyShareStatus = KeyShareStatus.FINISH;
-                    continue;
-                }
+                    ByteBuffer buffer = outbound.take();
 
-                if(reader.ready()){
+                    if(buffer == CLOSE_MARKER)
+                        break;
 
-                    String message = reader.readLine();
+                    int count = 0;
+                    long bytes = buffer.remaining();
+                    long deadline = System.nanoTime() + coalesceWindowNanos;
 
-                    if(message != null){
+                    batch[count++] = buffer;
 
-                        if(keyShareStatus == KeyShareStatus.RECEIVE_CLIENT_RSA){
+                    while (count < MAX_GATHER && bytes < MAX_GATHER_BYTES){
 
-                            clientPublicKey = SecurityUtils.publicKeyFromString(SecurityUtils.fromBase64(message));
+                        buffer = outbound.poll();
 
-                            keyShareStatus = KeyShareStatus.SEND_SERVER_AES;
-                            continue;
+                        if(buffer == null && coalesceWindowNanos > 0){
+                            long wait = deadline - System.nanoTime();
+
+                            if(wait > 0)
+                                buffer = outbound.poll(wait, TimeUnit.NANOSECONDS);
                         }
 
-                        message = SecurityUtils.decryptAES(AESKey, message.getBytes(StandardCharsets.UTF_8));
+                        if(buffer == null)
+                            break;
 
-                        if(userName != null){
-                            onRead.onRead(this, message);
-                        } else {
-                            userName = message;
-                            onJoin.onJoin(this);
+                        if(buffer == CLOSE_MARKER){
+                            closing = true;
+                            break;
                         }
+
+                        batch[count++] = buffer;
+                        bytes += buffer.remaining();
                     }
 
+                    int offset = 0;
+
+                    while (offset < count){
+                        countWritten(channel.write(batch, offset, count - offset));
+
+                        while (offset < count && !batch[offset].hasRemaining()){
+                            written(batch[offset]);
+                            bufferPool.release(batch[offset]);
+                            batch[offset++] = null;
+                        }
+                    }
                 }
-            } catch (Exception e) {
-                onQuit.onQuit(this);
-                this.interrupt();
-                break;
+            } catch (Exception ignored) {
+            }
+
+            for (ByteBuffer pending : batch){
+                if(pending != null)
+                    bufferPool.release(pending);
             }
+
+            close();
+        };
+    }
+
+    /**
+     * Chamado pelo selector quando existem dados disponíveis no canal.
+     *
+     * @throws Exception caso ocorra algum erro ao ler ou processar os dados, ou o canal tenha sido fechado.
+     */
+    public void onReadable() throws Exception {
+
+        int read;
+
+        while ((read = channel.read(readBuffer)) > 0){
+            countRead(read);
+            processReadBuffer();
         }
 
-        onQuit.onQuit(this);
+        if(read < 0){
+            throw new IOException("End of stream");
+        }
+    }
+
+    /**
+     * Chamado pelo selector quando o canal está pronto para escrita, escreve os dados pendentes,
+     * reunindo as mensagens da fila em uma única chamada ao sistema, e remove o interesse de escrita
+     * quando não resta mais nada na fila.
+     *
+     * @throws IOException caso ocorra algum erro ao escrever no canal.
+     */
+    public void onWritable() throws IOException {
+
+        synchronized (gather){
+            while (true){
+
+                if(gatherOffset == gatherCount){
+
+                    gatherOffset = 0;
+                    gatherCount = 0;
+
+                    long bytes = 0;
+                    ByteBuffer buffer;
+
+                    while (gatherCount < MAX_GATHER && bytes < MAX_GATHER_BYTES && (buffer = outbound.poll()) != null){
+                        gather[gatherCount++] = buffer;
+                        bytes += buffer.remaining();
+                    }
+
+                    if(gatherCount == 0)
+                        break;
+                }
+
+                try {
+                    countWritten(channel.write(gather, gatherOffset, gatherCount - gatherOffset));
+                } catch (IOException e) {
+                    releaseGather();
+                    throw e;
+                }
+
+                while (gatherOffset < gatherCount && !gather[gatherOffset].hasRemaining()){
+                    written(gather[gatherOffset]);
+                    bufferPool.release(gather[gatherOffset]);
+                    gather[gatherOffset++] = null;
+                }
+
+                if(gatherOffset < gatherCount)
+                    return;
+            }
+        }
+
+        synchronized (writeLock){
+            writeScheduled.set(false);
+
+            if(!outbound.isEmpty()){
+                writeScheduled.set(true);
+            } else if(key.isValid()){
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Chamado quando o buffer termina de ser escrito no canal, registrando a latência de entrega caso
+     * ele seja o {@link #latencyProbe}.
+     *
+     * @param buffer buffer escrito.
+     */
+    private void written(ByteBuffer buffer) {
+
+        if(buffer != latencyProbe)
+            return;
+
+        long receivedAt;
+
+        synchronized (latencyLock){
+            if(buffer != latencyProbe)
+                return;
+
+            receivedAt = latencyProbeReceivedAt;
+            latencyProbe = null;
+        }
+
+        metrics.getDeliveryLatency().record(System.nanoTime() - receivedAt);
+    }
+
+    /**
+     * Marca o buffer como o {@link #latencyProbe} caso nenhum outro esteja sendo medido.
+     *
+     * @param buffer buffer que vai ser enfileirado.
+     * @param receivedAt momento em que a mensagem foi recebida, ou 0 para não medir.
+     */
+    private void probeLatency(ByteBuffer buffer, long receivedAt) {
+
+        if(receivedAt == 0 || latencyProbe != null)
+            return;
+
+        synchronized (latencyLock){
+            if(latencyProbe == null){
+                latencyProbeReceivedAt = receivedAt;
+                latencyProbe = buffer;
+            }
+        }
+    }
+
+    /**
+     * Deixa de medir o buffer, chamado quando ele sai da fila sem ser escrito, para que o buffer,
+     * ao ser reutilizado pelo pool, não seja confundido com o {@link #latencyProbe}.
+     *
+     * @param buffer buffer descartado.
+     */
+    private void forgetLatency(ByteBuffer buffer) {
+
+        if(buffer != latencyProbe)
+            return;
+
+        synchronized (latencyLock){
+            if(buffer == latencyProbe)
+                latencyProbe = null;
+        }
+    }
+
+    /**
+     * Conta os bytes lidos do canal.
+     *
+     * @param read quantidade de bytes lidos.
+     */
+    private void countRead(int read) {
+        bytesIn.addAndGet(read);
+        metrics.onBytesIn(read);
+    }
+
+    /**
+     * Conta os bytes escritos no canal.
+     *
+     * @param written quantidade de bytes escritos.
+     */
+    private void countWritten(long written) {
+        bytesOut.addAndGet(written);
+        metrics.onBytesOut(written);
+    }
+
+    /**
+     * Processa os dados lidos, separando-os em linhas ou frames binários conforme o {@link #framing} atual,
+     * mantendo no {@link #readBuffer} o frame ou a linha que ainda não chegou por completo.
+     *
+     * @throws Exception caso ocorra algum erro ao processar os dados.
+     */
+    private void processReadBuffer() throws Exception {
+
+        readBuffer.flip();
+
+        while (readBuffer.hasRemaining() && !closed.get()){
+
+            boolean complete = (framing == Framing.BINARY) ? readFrame() : readLine();
+
+            if(!complete)
+                break;
+        }
+
+        if(readRequired > readBuffer.capacity()){
+            ByteBuffer larger = ByteBuffer.allocate(readRequired);
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else if(!readBuffer.hasRemaining() && readBuffer != directReadBuffer){
+            readBuffer = directReadBuffer;
+            readBuffer.clear();
+        } else {
+            readBuffer.compact();
+        }
+
+        readRequired = 0;
+    }
+
+    /**
+     * Procura o fim da linha no {@link #readBuffer}, processando a linha diretamente no buffer quando encontrada,
+     * uma linha por vez para que o modo de leitura possa mudar ao fim da troca de chaves.
+     *
+     * @return true caso uma linha tenha sido processada, false caso a linha ainda não tenha chegado por completo.
+     *
+     * @throws Exception caso ocorra algum erro ao processar a linha, ou a linha ultrapasse o {@link #MAX_LINE_LENGTH}.
+     */
+    private boolean readLine() throws Exception {
+
+        int start = readBuffer.position();
+        int end = -1;
+
+        for (int i = start + lineScanned; i < readBuffer.limit(); i++){
+            if(readBuffer.get(i) == '\n'){
+                end = i;
+                break;
+            }
+        }
+
+        if(end < 0){
+
+            lineScanned = readBuffer.remaining();
+
+            if(lineScanned >= MAX_LINE_LENGTH)
+                throw new IOException("Line too long");
+
+            if(lineScanned == readBuffer.capacity())
+                readRequired = readBuffer.capacity() * 2;
+
+            return false;
+        }
+
+        lineScanned = 0;
+
+        int length = (end > start && readBuffer.get(end - 1) == '\r') ? end - 1 - start : end - start;
+        int limit = readBuffer.limit();
+
+        try {
+            readBuffer.limit(start + length);
+
+            if(keyShareStatus == KeyShareStatus.RECEIVE_CLIENT_RSA){
+                handleLine(StandardCharsets.UTF_8.decode(readBuffer).toString());
+            } else {
+                ByteBuffer payload = bufferPool.acquire(length / 4 * 3 + 3);
+
+                try {
+                    SecurityUtils.fromBase64(readBuffer, payload);
+                    payload.flip();
+                    handleFrame(FrameType.MESSAGE, payload);
+                } finally {
+                    bufferPool.release(payload);
+                }
+            }
+        } finally {
+            readBuffer.limit(limit).position(end + 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Lê o frame binário do início do {@link #readBuffer}, processando o conteúdo diretamente no buffer
+     * quando o frame estiver completo.
+     *
+     * @return true caso um frame tenha sido processado, false caso o frame ainda não tenha chegado por completo.
+     *
+     * @throws Exception caso ocorra algum erro ao processar o frame.
+     */
+    private boolean readFrame() throws Exception {
+
+        int start = readBuffer.position();
+
+        if(readBuffer.remaining() < Frames.HEADER_SIZE)
+            return false;
+
+        int length = readBuffer.getInt(start);
+        Frames.checkLength(length);
+
+        int end = start + Frames.HEADER_SIZE + length;
+
+        if(end > readBuffer.limit()){
+            readRequired = Frames.HEADER_SIZE + length;
+            return false;
+        }
+
+        FrameType type = FrameType.fromCode(readBuffer.get(start + Integer.BYTES));
+
+        if(type == null)
+            throw new IOException("Unknown frame type");
+
+        int limit = readBuffer.limit();
+
+        try {
+            readBuffer.position(start + Frames.HEADER_SIZE).limit(end);
+            handleFrame(type, readBuffer);
+        } finally {
+            readBuffer.limit(limit).position(end);
+        }
+
+        return true;
+    }
+
+    /**
+     * Processa a linha de abertura da troca de chaves, enviada pelo cliente no modo {@link Framing#TEXT}.
+     *
+     * @param line linha recebida.
+     *
+     * @throws Exception caso ocorra algum erro ao processar a linha.
+     */
+    private void handleLine(String line) throws Exception {
+
+        if(keyShareStatus == KeyShareStatus.RECEIVE_CLIENT_RSA){
+
+            HandshakeMessage hello = HandshakeMessage.parse(line);
+            HandshakeMessage reply;
+
+            SecretKey resumed = (sessionTickets != null && hello.getOption(HandshakeMessage.TICKET) != null && hello.getOption(HandshakeMessage.NONCE) != null)
+                    ? sessionTickets.redeem(hello.getOption(HandshakeMessage.TICKET))
+                    : null;
+
+            if(resumed != null){
+
+                byte[] serverNonce = SecurityUtils.randomBytes(RESUME_NONCE_SIZE);
+
+                AESKey = SecurityUtils.deriveAESKey(resumed, SecurityUtils.fromBase64(hello.getOption(HandshakeMessage.NONCE)), serverNonce);
+
+                reply = new HandshakeMessage(SecurityUtils.asBase64ToString(serverNonce));
+                reply.setOption(HandshakeMessage.RESUME, "1");
+            } else if(KeyExchange.fromOption(hello.getOption(HandshakeMessage.KEX)) == KeyExchange.X25519){
+
+                KeyPair serverKeyPair = KeyPairPool.x25519().take();
+                PublicKey clientKey = SecurityUtils.x25519PublicKeyFromBytes(SecurityUtils.fromBase64(hello.getPayload()));
+
+                AESKey = SecurityUtils.deriveAESKey(serverKeyPair.getPrivate(), clientKey);
+
+                reply = new HandshakeMessage(SecurityUtils.asBase64ToString(serverKeyPair.getPublic().getEncoded()));
+                reply.setOption(HandshakeMessage.KEX, KeyExchange.X25519.getOption());
+            } else {
+
+                clientPublicKey = SecurityUtils.publicKeyFromString(SecurityUtils.fromBase64(hello.getPayload()));
+                keyShareStatus = KeyShareStatus.SEND_SERVER_AES;
+
+                AESKey = SecurityUtils.genAESKey();
+
+                byte[] encrypted = SecurityUtils.encrypt(clientPublicKey, AESKey.getEncoded());
+                reply = new HandshakeMessage(SecurityUtils.asBase64ToString(encrypted));
+            }
+
+            Framing requested = Framing.fromOption(hello.getOption(HandshakeMessage.FRAME));
+
+            if(requested == Framing.BINARY && String.valueOf(Frames.VERSION).equals(hello.getOption(HandshakeMessage.FRAME_VERSION))){
+                reply.setOption(HandshakeMessage.FRAME, Framing.BINARY.getOption());
+                reply.setOption(HandshakeMessage.FRAME_VERSION, String.valueOf(Frames.VERSION));
+            }
+
+            CipherMode cipherMode = CipherMode.fromOption(hello.getOption(HandshakeMessage.CIPHER));
+
+            if(cipherMode != CipherMode.AES)
+                reply.setOption(HandshakeMessage.CIPHER, cipherMode.getOption());
+
+            channelCipher = cipherMode.create(AESKey, false);
+
+            if(groupKeyAllowed && reply.getOption(HandshakeMessage.FRAME) != null && hello.getOption(HandshakeMessage.GROUP) != null){
+                reply.setOption(HandshakeMessage.GROUP, "1");
+                groupMember = true;
+            }
+
+            /* Clientes antigos decodificam a resposta inteira como Base64, o ticket só vai para quem o anunciou.*/
+            if(sessionTickets != null && (hello.getOption(HandshakeMessage.RESUME) != null || hello.getOption(HandshakeMessage.TICKET) != null)){
+                reply.setOption(HandshakeMessage.TICKET, sessionTickets.issue(AESKey));
+                reply.setOption(HandshakeMessage.TICKET_LIFETIME, String.valueOf(sessionTickets.getLifetimeMillis()));
+            }
+
+            send(reply.toString());
+
+            framing = Framing.fromOption(reply.getOption(HandshakeMessage.FRAME));
+            keyShareStatus = KeyShareStatus.FINISH;
+            metrics.onHandshake(resumed != null);
+        }
+    }
+
+    /**
+     * Processa um frame recebido do cliente, descriptografando a mensagem no {@link #plainBuffer}
+     * e repassando para o {@link #onJoin} e {@link #onRead}.
+     *
+     * @param type tipo do frame.
+     * @param payload conteúdo criptografado do frame, consumido até o limite.
+     *
+     * @throws Exception caso ocorra algum erro ao processar o frame.
+     */
+    private void handleFrame(FrameType type, ByteBuffer payload) throws Exception {
+
+        if(type != FrameType.MESSAGE)
+            throw new IOException("Unexpected frame type: " + type);
+
+        receivedAt = System.nanoTime();
+
+        if(plainBuffer.capacity() < payload.remaining()){
+            plainBuffer = ByteBuffer.allocate(payload.remaining());
+        }
+
+        plainBuffer.clear();
+
+        int length = channelCipher.decrypt(payload, plainBuffer);
+        metrics.getDecryptTime().record(System.nanoTime() - receivedAt);
+
+        messagesIn.incrementAndGet();
+        metrics.onMessageIn();
+
+        String message = new String(plainBuffer.array(), 0, length, StandardCharsets.UTF_8);
+
+        plainBuffer = defaultPlainBuffer;
+
+        if(userName != null){
+            onRead.onRead(this, message);
+        } else {
+            userName = message;
+            onJoin.onJoin(this);
+        }
+    }
+
+    /**
+     * Criptografa a mensagem e envia ao cliente, no formato definido pelo {@link #framing} negociado.
+     *
+     * @param message mensagem a ser enviada.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou enfileirar a mensagem.
+     */
+    public void sendMessage(String message) throws Exception {
+        sendMessage(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Criptografa a mensagem já codificada em {@link StandardCharsets#UTF_8} e envia ao cliente, usado nos disparos
+     * para que a mensagem seja codificada uma única vez para todos os destinatários.
+     *
+     * @param plain mensagem codificada, não é alterada e pode ser compartilhada entre as conexões.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou enfileirar a mensagem.
+     */
+    public void sendMessage(byte[] plain) throws Exception {
+        sendMessage(plain, 0);
+    }
+
+    /**
+     * Criptografa a mensagem já codificada em {@link StandardCharsets#UTF_8} e envia ao cliente, como o
+     * {@link #sendMessage(byte[])}, medindo a latência de entrega a partir do momento informado.
+     *
+     * @param plain mensagem codificada, não é alterada e pode ser compartilhada entre as conexões.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou enfileirar a mensagem.
+     */
+    public void sendMessage(byte[] plain, long receivedAt) throws Exception {
+
+        synchronized (sendLock){
+
+            long start = System.nanoTime();
+            ByteBuffer buffer;
+
+            if(framing == Framing.BINARY){
+                buffer = Frames.encrypt(FrameType.MESSAGE, channelCipher, ByteBuffer.wrap(plain), bufferPool);
+            } else {
+                buffer = encryptLine(ByteBuffer.wrap(plain));
+            }
+
+            metrics.getEncryptTime().record(System.nanoTime() - start);
+            queue(buffer, receivedAt);
+        }
+    }
+
+    /**
+     * Criptografa os dados e os codifica em Base64 em um buffer do pool terminado por "\r\n",
+     * o formato das mensagens no modo {@link Framing#TEXT}, sem as Strings intermediárias.
+     *
+     * @param plain dados a serem criptografados.
+     *
+     * @return buffer do pool pronto para ser escrito.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar.
+     */
+    private ByteBuffer encryptLine(ByteBuffer plain) throws Exception {
+
+        ByteBuffer encrypted = bufferPool.acquire(channelCipher.getOutputSize(plain.remaining()));
+
+        try {
+            channelCipher.encrypt(plain, encrypted);
+            encrypted.flip();
+
+            ByteBuffer line = bufferPool.acquire(4 * ((encrypted.remaining() + 2) / 3) + 2);
+
+            SecurityUtils.asBase64(encrypted, line);
+            line.put((byte) '\r').put((byte) '\n');
+            line.flip();
+
+            return line;
+        } finally {
+            bufferPool.release(encrypted);
+        }
+    }
+
+    /**
+     * Envia a chave de grupo ao cliente, criptografada com a sua chave RSA pública, ou com a criptografia
+     * do canal para os clientes que usaram a troca de chaves {@link KeyExchange#X25519}, as mensagens
+     * enfileiradas após esta chamada já podem ser enviadas criptografadas com a nova chave.
+     *
+     * @param groupKey chave de grupo.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar ou enfileirar a chave.
+     */
+    public void sendGroupKey(GroupKey groupKey) throws Exception {
+        synchronized (sendLock){
+            byte[] wrapped = (clientPublicKey != null) ? groupKey.wrap(clientPublicKey) : groupKey.wrap(channelCipher);
+            send(Frames.encode(FrameType.GROUP_KEY, wrapped));
+            groupEpoch = groupKey.getEpoch();
+        }
+    }
+
+    /**
+     * Envia uma linha ao cliente, a linha é colocada na fila de saída e escrita pela tarefa de escrita
+     * da conexão, ou pela thread do selector no modo {@link ServerMode#SELECTOR}, sem que quem envia
+     * precise esperar pelo cliente.
+     *
+     * @param line linha a ser enviada, sem o terminador.
+     *
+     * @throws IOException caso a conexão esteja encerrada ou a fila esteja cheia na política {@link OverflowPolicy#DISCONNECT}.
+     */
+    public void send(String line) throws IOException {
+        send(ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Envia os dados ao cliente, da mesma forma que o {@link #send(String)}. Os dados são copiados para
+     * um buffer do pool, o buffer informado não é alterado e pode ser compartilhado entre as conexões,
+     * como os frames criptografados com a chave de grupo.
+     *
+     * @param buffer dados a serem enviados.
+     *
+     * @throws IOException caso a conexão esteja encerrada ou a fila esteja cheia na política {@link OverflowPolicy#DISCONNECT}.
+     */
+    public void send(ByteBuffer buffer) throws IOException {
+        send(buffer, 0);
+    }
+
+    /**
+     * Envia os dados ao cliente, como o {@link #send(ByteBuffer)}, medindo a latência de entrega a partir do momento informado.
+     *
+     * @param buffer dados a serem enviados.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir.
+     *
+     * @throws IOException caso a conexão esteja encerrada ou a fila esteja cheia na política {@link OverflowPolicy#DISCONNECT}.
+     */
+    public void send(ByteBuffer buffer, long receivedAt) throws IOException {
+
+        ByteBuffer copy = bufferPool.acquire(buffer.remaining());
+
+        if(buffer.hasArray()){
+            copy.put(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            copy.put(buffer.duplicate());
+        }
+
+        copy.flip();
+        queue(copy, receivedAt);
+    }
+
+    /**
+     * Coloca na fila de saída um buffer do {@link #bufferPool}, que passa a pertencer à conexão
+     * e volta ao pool após ser escrito, descartado ou quando a conexão for encerrada.
+     *
+     * @param buffer buffer do pool com os dados a serem enviados.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir a latência.
+     *
+     * @throws IOException caso a conexão esteja encerrada ou a fila esteja cheia na política {@link OverflowPolicy#DISCONNECT}.
+     */
+    private void queue(ByteBuffer buffer, long receivedAt) throws IOException {
+
+        if(closed.get()){
+            bufferPool.release(buffer);
+            throw new IOException("Connection closed");
+        }
+
+        /* Marcado antes de enfileirar, depois disso o buffer pode ser escrito e devolvido ao pool a qualquer momento.*/
+        probeLatency(buffer, receivedAt);
+
+        try {
+            enqueue(buffer);
+        } catch (IOException e) {
+            forgetLatency(buffer);
+            bufferPool.release(buffer);
+            throw e;
+        }
+
+        /* O close() pode ter esvaziado a fila entre a verificação acima e o enqueue.*/
+        if(closed.get()){
+            releaseOutbound();
+            throw new IOException("Connection closed");
+        }
+
+        messagesOut.incrementAndGet();
+        metrics.onMessageOut();
+
+        if(key == null || !writeScheduled.compareAndSet(false, true))
+            return;
+
+        synchronized (writeLock){
+            if(key.isValid()){
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        key.selector().wakeup();
+    }
+
+    /**
+     * Coloca o buffer na fila de saída, aplicando a {@link #overflowPolicy} caso ela esteja cheia.
+     *
+     * @param buffer dados a serem enviados.
+     *
+     * @throws IOException caso a mensagem não possa ser enfileirada.
+     */
+    private void enqueue(ByteBuffer buffer) throws IOException {
+
+        if(outbound.offer(buffer))
+            return;
+
+        if(overflowPolicy == OverflowPolicy.DROP_OLDEST){
+            while (!outbound.offer(buffer)){
+
+                ByteBuffer oldest = outbound.poll();
+
+                /* A conexão foi encerrada, o marcador volta para a fila para que a tarefa de escrita termine.*/
+                if(oldest == CLOSE_MARKER){
+                    outbound.offer(CLOSE_MARKER);
+                    throw new IOException("Connection closed");
+                }
+
+                if(oldest != null){
+                    forgetLatency(oldest);
+                    bufferPool.release(oldest);
+                    dropped.incrementAndGet();
+                    metrics.onDropped();
+                }
+            }
+            return;
+        }
+
+        if(overflowPolicy == OverflowPolicy.BLOCK && key == null){
+            try {
+                outbound.put(buffer);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for outbound queue", e);
+            }
+        }
+
+        throw new IOException("Outbound queue full, disconnecting slow consumer");
+    }
+
+    /**
+     * Encerra a conexão, fechando o canal e chamando o {@link #onQuit} uma única vez.
+     */
+    public void close() {
+
+        if(!closed.compareAndSet(false, true))
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+
+        releaseGather();
+        releaseOutbound();
+        outbound.offer(CLOSE_MARKER);
+
+        metrics.onDisconnect();
+        onQuit.onQuit(this);
+    }
+
+    /**
+     * Devolve ao pool os buffers do {@link #gather} que ainda não foram escritos por completo.
+     */
+    private void releaseGather() {
+        synchronized (gather){
+            while (gatherOffset < gatherCount){
+                bufferPool.release(gather[gatherOffset]);
+                gather[gatherOffset++] = null;
+            }
+        }
+    }
+
+    /**
+     * Devolve ao pool os buffers que estão na fila de saída, mantendo o {@link #CLOSE_MARKER}
+     * na fila para que a tarefa de escrita termine.
+     */
+    private void releaseOutbound() {
+
+        boolean marker = false;
+        ByteBuffer pending;
+
+        while ((pending = outbound.poll()) != null){
+            if(pending == CLOSE_MARKER){
+                marker = true;
+            } else {
+                bufferPool.release(pending);
+            }
+        }
+
+        if(marker)
+            outbound.offer(CLOSE_MARKER);
+    }
+
+    /**
+     * Retorna se a conexão ja foi encerrada.
+     *
+     * @return true caso a conexão esteja encerrada.
+     */
+    public boolean isClosed() {
+        return closed.get();
     }
 
     /**
-     * Criptografa a mensagem informada utilizando a chave AES, e codifica em Base64.
+     * Criptografa a mensagem informada utilizando a criptografia do canal, e codifica em Base64.
      *
      * @param message a ser criptografada
      *
@@ -179,7 +1332,7 @@ public class Connection extends Thread {
      * @throws Exception caso ocorra algum problema ao executar a função.
      */
     public String encrypt(String message) throws Exception {
-        return SecurityUtils.encryptAES(AESKey, message.getBytes(StandardCharsets.UTF_8));
+        return SecurityUtils.asBase64ToString(channelCipher.encrypt(message.getBytes(StandardCharsets.UTF_8)));
     }
 
 }
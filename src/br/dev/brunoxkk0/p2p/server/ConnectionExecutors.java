@@ -0,0 +1,86 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fábrica dos executores usados para rodar as conexões do servidor.
+ */
+public final class ConnectionExecutors {
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Cria um executor que roda cada conexão em uma nova thread de plataforma.
+     *
+     * @return executor de threads de plataforma.
+     */
+    public static ExecutorService platformThreads() {
+
+        AtomicInteger counter = new AtomicInteger();
+
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "Connection-" + counter.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        };
+
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * Cria um executor que roda cada conexão em uma nova thread virtual, a busca pelo método
+     * é feita via reflexão para que o código continue compilando e rodando em versões anteriores ao Java 21.
+     *
+     * @return executor de threads virtuais.
+     *
+     * @throws UnsupportedOperationException caso a JVM não suporte threads virtuais.
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21+", e);
+        }
+    }
+
+    /**
+     * Cria o pool usado para dividir a entrega das mensagens entre os núcleos, com uma thread por núcleo.
+     * O servidor usa um pool próprio em vez do {@link ForkJoinPool#commonPool()} porque, com o
+     * {@link OverflowPolicy#BLOCK}, um destinatário lento bloqueia a thread que entrega, o que pararia
+     * as threads compartilhadas com o restante da JVM.
+     *
+     * @return pool da entrega das mensagens.
+     */
+    public static ForkJoinPool fanOutPool() {
+
+        AtomicInteger counter = new AtomicInteger();
+
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("FanOut-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Retorna se a JVM atual suporta threads virtuais.
+     *
+     * @return true caso as threads virtuais estejam disponíveis.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+}
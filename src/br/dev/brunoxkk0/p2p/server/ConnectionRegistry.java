@@ -0,0 +1,122 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro das conexões do servidor, seguro para ser acessado por várias threads ao mesmo tempo.
+ * <p>
+ * As buscas por id e por nome de usuário são feitas em mapas concorrentes, em O(1), e a iteração
+ * usada nos disparos é feita sobre um array imutável, recriado somente quando uma conexão entra ou sai,
+ * assim os disparos não alocam nada e nunca observam o registro pela metade.
+ */
+public class ConnectionRegistry {
+
+    private static final Connection[] EMPTY = new Connection[0];
+
+    /**
+     * Conexões indexadas pelo id.
+     */
+    private final Map<Long, Connection> byId = new ConcurrentHashMap<>();
+
+    /**
+     * Conexões indexadas pelo nome do usuário, preenchido apenas após o cliente se apresentar.
+     */
+    private final Map<String, Connection> byName = new ConcurrentHashMap<>();
+
+    /**
+     * Cópia atual das conexões, usada nas iterações.
+     */
+    private volatile Connection[] snapshot = EMPTY;
+
+    /**
+     * Adiciona a conexão ao registro.
+     *
+     * @param connection conexão a ser adicionada.
+     */
+    public void add(Connection connection) {
+        synchronized (this){
+            if(byId.putIfAbsent(connection.getId(), connection) == null)
+                rebuild();
+        }
+    }
+
+    /**
+     * Remove a conexão do registro, inclusive do índice de nomes.
+     *
+     * @param connection conexão a ser removida.
+     *
+     * @return true caso a conexão estivesse registrada.
+     */
+    public boolean remove(Connection connection) {
+
+        if(connection.getUserName() != null)
+            byName.remove(connection.getUserName(), connection);
+
+        synchronized (this){
+            if(byId.remove(connection.getId(), connection)){
+                rebuild();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Indexa a conexão pelo seu nome de usuário, caso o nome ainda não esteja em uso.
+     *
+     * @param connection conexão ja apresentada.
+     *
+     * @return true caso o nome tenha sido associado a conexão, false caso outra conexão ja o utilize.
+     */
+    public boolean bindName(Connection connection) {
+        Connection current = byName.putIfAbsent(connection.getUserName(), connection);
+        return current == null || current == connection;
+    }
+
+    /**
+     * Busca uma conexão pelo id.
+     *
+     * @param id id da conexão.
+     *
+     * @return conexão encontrada ou null.
+     */
+    public Connection get(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Busca uma conexão pelo nome de usuário.
+     *
+     * @param userName nome do usuário.
+     *
+     * @return conexão encontrada ou null.
+     */
+    public Connection getByName(String userName) {
+        return byName.get(userName);
+    }
+
+    /**
+     * Retorna as conexões registradas no momento, o array retornado não deve ser modificado.
+     *
+     * @return cópia das conexões registradas.
+     */
+    public Connection[] snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Quantidade de conexões registradas.
+     *
+     * @return quantidade de conexões.
+     */
+    public int size() {
+        return snapshot.length;
+    }
+
+    private void rebuild() {
+        snapshot = byId.values().toArray(EMPTY);
+    }
+
+}
@@ -0,0 +1,196 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import br.dev.brunoxkk0.p2p.common.BufferPool;
+
+/**
+ * Configurações aplicadas às conexões criadas pelo servidor, alterações só afetam as próximas conexões.
+ */
+public class ConnectionSettings {
+
+    /**
+     * Capacidade padrão da fila de saída.
+     */
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 1024;
+
+    /**
+     * Capacidade da fila de saída de cada conexão.
+     */
+    private int outboundCapacity = DEFAULT_OUTBOUND_CAPACITY;
+
+    /**
+     * Política aplicada quando a fila de saída de uma conexão está cheia.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+
+    /**
+     * Controla se as conexões podem receber a chave de grupo da sala.
+     */
+    private boolean groupKeyEnabled;
+
+    /**
+     * Tempo que a tarefa de escrita aguarda por mais mensagens antes de escrever, em microssegundos.
+     */
+    private long coalesceWindowMicros;
+
+    /**
+     * Emissor dos tickets de sessão, null caso a retomada de sessão esteja desabilitada.
+     */
+    private SessionTickets sessionTickets;
+
+    /**
+     * Métricas atualizadas pelas conexões.
+     */
+    private ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * Pool dos buffers das mensagens enviadas.
+     */
+    private BufferPool bufferPool = BufferPool.heap();
+
+    /**
+     * Capacidade da fila de saída de cada conexão.
+     *
+     * @return quantidade máxima de mensagens aguardando envio por conexão.
+     */
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * Define a capacidade da fila de saída de cada conexão.
+     *
+     * @param outboundCapacity quantidade máxima de mensagens aguardando envio por conexão.
+     */
+    public void setOutboundCapacity(int outboundCapacity) {
+        if(outboundCapacity <= 0)
+            throw new IllegalArgumentException("Outbound capacity must be positive");
+
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    /**
+     * Política aplicada quando a fila de saída de uma conexão está cheia.
+     *
+     * @return política de estouro da fila.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Define a política aplicada quando a fila de saída de uma conexão está cheia.
+     *
+     * @param overflowPolicy política de estouro da fila.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Retorna se as conexões podem receber a chave de grupo da sala.
+     *
+     * @return true caso o modo de chave de grupo esteja habilitado.
+     */
+    public boolean isGroupKeyEnabled() {
+        return groupKeyEnabled;
+    }
+
+    /**
+     * Habilita o modo de chave de grupo, onde cada mensagem disparada é criptografada uma única vez
+     * com uma chave compartilhada pela sala, e os mesmos bytes são enviados a todos os clientes que a suportam.
+     *
+     * @param groupKeyEnabled true para habilitar o modo de chave de grupo.
+     */
+    public void setGroupKeyEnabled(boolean groupKeyEnabled) {
+        this.groupKeyEnabled = groupKeyEnabled;
+    }
+
+    /**
+     * Emissor dos tickets de sessão.
+     *
+     * @return emissor dos tickets, ou null caso a retomada de sessão esteja desabilitada.
+     */
+    public SessionTickets getSessionTickets() {
+        return sessionTickets;
+    }
+
+    /**
+     * Define o emissor dos tickets de sessão, as conexões emitem um ticket ao final da troca de chaves
+     * e aceitam os tickets apresentados pelos clientes que reconectam.
+     *
+     * @param sessionTickets emissor dos tickets, ou null para desabilitar a retomada de sessão.
+     */
+    public void setSessionTickets(SessionTickets sessionTickets) {
+        this.sessionTickets = sessionTickets;
+    }
+
+    /**
+     * Tempo que a tarefa de escrita aguarda por mais mensagens antes de escrever.
+     *
+     * @return janela em microssegundos.
+     */
+    public long getCoalesceWindowMicros() {
+        return coalesceWindowMicros;
+    }
+
+    /**
+     * Define o tempo que a tarefa de escrita dos modos com thread por conexão aguarda, após a primeira
+     * mensagem, por mais mensagens para escrevê-las juntas em uma única chamada ao sistema, trocando
+     * até esse tempo de latência por menos chamadas em rajadas. Com 0 as mensagens já enfileiradas
+     * continuam sendo escritas juntas, sem aguardar. No modo {@link ServerMode#SELECTOR} as mensagens
+     * enfileiradas em cada volta do selector já são escritas juntas, e a janela não é usada.
+     *
+     * @param coalesceWindowMicros janela em microssegundos.
+     */
+    public void setCoalesceWindowMicros(long coalesceWindowMicros) {
+        if(coalesceWindowMicros < 0)
+            throw new IllegalArgumentException("Coalesce window cannot be negative");
+
+        this.coalesceWindowMicros = coalesceWindowMicros;
+    }
+
+    /**
+     * Métricas atualizadas pelas conexões.
+     *
+     * @return métricas das conexões.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Define as métricas atualizadas pelas conexões, normalmente as do servidor que as criou.
+     *
+     * @param metrics métricas das conexões.
+     */
+    public void setMetrics(ServerMetrics metrics) {
+        if(metrics == null)
+            throw new IllegalArgumentException("Metrics cannot be null");
+
+        this.metrics = metrics;
+    }
+
+    /**
+     * Pool dos buffers das mensagens enviadas.
+     *
+     * @return pool de buffers.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Define o pool de onde as conexões pegam os buffers das mensagens enviadas, os buffers voltam ao pool
+     * após serem escritos no canal. O padrão é o {@link BufferPool#heap()}, o {@link BufferPool#direct()}
+     * evita a cópia feita pelo JDK ao escrever buffers do heap no canal, mas deixa a criptografia um pouco mais lenta.
+     *
+     * @param bufferPool pool de buffers.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if(bufferPool == null)
+            throw new IllegalArgumentException("Buffer pool cannot be null");
+
+        this.bufferPool = bufferPool;
+    }
+
+}
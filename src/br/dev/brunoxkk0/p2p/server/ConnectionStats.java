@@ -0,0 +1,119 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Fotografia dos contadores de uma conexão, exposta pelo {@link ServerMetricsMXBean}.
+ */
+public class ConnectionStats {
+
+    private final long id;
+    private final String userName;
+    private final String room;
+    private final long messagesIn;
+    private final long messagesOut;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final int outboundSize;
+    private final long dropped;
+
+    /**
+     * Lê os contadores atuais da conexão informada.
+     *
+     * @param connection conexão.
+     */
+    ConnectionStats(Connection connection) {
+
+        Room current = connection.getRoom();
+
+        this.id = connection.getId();
+        this.userName = connection.getUserName();
+        this.room = (current != null) ? current.getName() : null;
+        this.messagesIn = connection.getMessagesIn();
+        this.messagesOut = connection.getMessagesOut();
+        this.bytesIn = connection.getBytesIn();
+        this.bytesOut = connection.getBytesOut();
+        this.outboundSize = connection.getOutboundSize();
+        this.dropped = connection.getDropped();
+    }
+
+    /**
+     * Identificador da conexão.
+     *
+     * @return id da conexão.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Nome do cliente.
+     *
+     * @return nome do cliente, ou null antes de entrar no servidor.
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Sala em que o cliente está.
+     *
+     * @return nome da sala, ou null antes de entrar em uma sala.
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Mensagens recebidas do cliente.
+     *
+     * @return quantidade de mensagens.
+     */
+    public long getMessagesIn() {
+        return messagesIn;
+    }
+
+    /**
+     * Mensagens enfileiradas para o cliente.
+     *
+     * @return quantidade de mensagens.
+     */
+    public long getMessagesOut() {
+        return messagesOut;
+    }
+
+    /**
+     * Bytes lidos do canal.
+     *
+     * @return quantidade de bytes.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Bytes escritos no canal.
+     *
+     * @return quantidade de bytes.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Mensagens aguardando envio.
+     *
+     * @return tamanho da fila de saída.
+     */
+    public int getOutboundSize() {
+        return outboundSize;
+    }
+
+    /**
+     * Mensagens descartadas por falta de espaço na fila de saída.
+     *
+     * @return mensagens descartadas.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+}
@@ -0,0 +1,237 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parte do {@link SearchIndex} gravada no disco, um arquivo imutável mapeado em memória somente para leitura.
+ * <p>
+ * Formato: cabeçalho (mágico, versão, primeira sequência, quantidade de registros, quantidade de termos),
+ * posições (int por registro), momentos (long por registro), dicionário ordenado pelo termo, com uma entrada
+ * de tamanho fixo por termo (posição do termo, tamanho do termo, quantidade e posição das sequências),
+ * os termos em UTF-8 e, por fim, as sequências (long) de cada termo em ordem crescente.
+ */
+final class DiskIndexChunk implements IndexChunk {
+
+    /**
+     * Extensão dos arquivos do índice.
+     */
+    static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x50325049;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES + Integer.BYTES * 2;
+    private static final int ENTRY_SIZE = Integer.BYTES * 4;
+
+    /**
+     * Conteúdo do arquivo.
+     */
+    private final ByteBuffer buffer;
+
+    private final long firstSequence;
+    private final int size;
+    private final int termCount;
+
+    private final int positionsOffset;
+    private final int timestampsOffset;
+    private final int dictionaryOffset;
+
+    private DiskIndexChunk(ByteBuffer buffer) throws IOException {
+
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION)
+            throw new IOException("Invalid index chunk");
+
+        this.buffer = buffer;
+        this.firstSequence = buffer.getLong(Integer.BYTES * 2);
+        this.size = buffer.getInt(Integer.BYTES * 2 + Long.BYTES);
+        this.termCount = buffer.getInt(Integer.BYTES * 3 + Long.BYTES);
+
+        this.positionsOffset = HEADER_SIZE;
+        this.timestampsOffset = positionsOffset + size * Integer.BYTES;
+        this.dictionaryOffset = timestampsOffset + size * Long.BYTES;
+    }
+
+    /**
+     * Nome do arquivo do bloco que começa na sequência informada.
+     *
+     * @param firstSequence sequência do primeiro registro.
+     *
+     * @return nome do arquivo.
+     */
+    static String fileName(long firstSequence) {
+        return String.format("%020d%s", firstSequence, SUFFIX);
+    }
+
+    /**
+     * Abre um bloco gravado no disco.
+     *
+     * @param path caminho do arquivo.
+     *
+     * @return bloco aberto.
+     *
+     * @throws IOException caso ocorra algum erro ao ler o arquivo, ou o arquivo seja inválido.
+     */
+    static DiskIndexChunk open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            return new DiskIndexChunk(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Grava o bloco da memória no disco, o arquivo é escrito com outro nome e renomeado ao final,
+     * assim um arquivo do índice nunca fica incompleto.
+     *
+     * @param directory diretório do índice.
+     * @param chunk bloco a ser gravado, que não pode mais ser alterado.
+     *
+     * @return bloco gravado.
+     *
+     * @throws IOException caso ocorra algum erro ao gravar o arquivo.
+     */
+    static DiskIndexChunk write(Path directory, MemoryIndexChunk chunk) throws IOException {
+
+        Map<String, MemoryIndexChunk.LongArray> postings = chunk.getPostings();
+
+        List<String> terms = new ArrayList<>(postings.keySet());
+        terms.sort(null);
+
+        List<byte[]> encoded = new ArrayList<>(terms.size());
+        int termBytes = 0;
+        long postingCount = 0;
+
+        for (String term : terms){
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            termBytes += bytes.length;
+            postingCount += postings.get(term).size();
+        }
+
+        int size = chunk.size();
+        long total = HEADER_SIZE + (long) size * (Integer.BYTES + Long.BYTES) + (long) terms.size() * ENTRY_SIZE + termBytes + postingCount * Long.BYTES;
+
+        if(total > Integer.MAX_VALUE)
+            throw new IOException("Index chunk too large");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) total);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(chunk.getFirstSequence()).putInt(size).putInt(terms.size());
+
+        for (int i = 0; i < size; i++)
+            buffer.putInt(chunk.position(i));
+
+        for (int i = 0; i < size; i++)
+            buffer.putLong(chunk.timestamp(i));
+
+        int termOffset = buffer.position() + terms.size() * ENTRY_SIZE;
+        int postingsOffset = termOffset + termBytes;
+
+        for (int i = 0; i < terms.size(); i++){
+            int count = postings.get(terms.get(i)).size();
+
+            buffer.putInt(termOffset).putInt(encoded.get(i).length).putInt(count).putInt(postingsOffset);
+
+            termOffset += encoded.get(i).length;
+            postingsOffset += count * Long.BYTES;
+        }
+
+        for (byte[] bytes : encoded)
+            buffer.put(bytes);
+
+        for (String term : terms){
+            MemoryIndexChunk.LongArray list = postings.get(term);
+
+            for (int i = 0; i < list.size(); i++)
+                buffer.putLong(list.get(i));
+        }
+
+        buffer.flip();
+
+        Path target = directory.resolve(fileName(chunk.getFirstSequence()));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return open(target);
+    }
+
+    @Override
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Postings postings(String term) {
+
+        int low = 0;
+        int high = termCount - 1;
+
+        while (low <= high){
+
+            int middle = (low + high) >>> 1;
+            int entry = dictionaryOffset + middle * ENTRY_SIZE;
+
+            byte[] bytes = new byte[buffer.getInt(entry + Integer.BYTES)];
+            buffer.duplicate().position(buffer.getInt(entry)).get(bytes);
+
+            int compare = new String(bytes, StandardCharsets.UTF_8).compareTo(term);
+
+            if(compare < 0){
+                low = middle + 1;
+            } else if(compare > 0){
+                high = middle - 1;
+            } else {
+                int count = buffer.getInt(entry + Integer.BYTES * 2);
+                int offset = buffer.getInt(entry + Integer.BYTES * 3);
+
+                LongBuffer list = buffer.duplicate().position(offset).limit(offset + count * Long.BYTES).slice().asLongBuffer();
+
+                return new Postings() {
+                    @Override
+                    public int size() {
+                        return count;
+                    }
+
+                    @Override
+                    public long get(int index) {
+                        return list.get(index);
+                    }
+                };
+            }
+        }
+
+        return Postings.EMPTY;
+    }
+
+    @Override
+    public int position(int index) {
+        return buffer.getInt(positionsOffset + index * Integer.BYTES);
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return buffer.getLong(timestampsOffset + index * Long.BYTES);
+    }
+
+}
@@ -0,0 +1,46 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Divide a entrega de uma mensagem entre as threads de um {@link java.util.concurrent.ForkJoinPool},
+ * cada parte entrega a mensagem para um intervalo dos destinatários.
+ */
+class FanOutTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Quantidade de destinatários a partir da qual o intervalo deixa de ser dividido.
+     */
+    static final int CHUNK_SIZE = 64;
+
+    private final Connection[] recipients;
+    private final int from;
+    private final int to;
+    private final Consumer<Connection> delivery;
+
+    FanOutTask(Connection[] recipients, int from, int to, Consumer<Connection> delivery) {
+        this.recipients = recipients;
+        this.from = from;
+        this.to = to;
+        this.delivery = delivery;
+    }
+
+    @Override
+    protected void compute() {
+
+        if(to - from <= CHUNK_SIZE){
+            for (int i = from; i < to; i++){
+                delivery.accept(recipients[i]);
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+
+        invokeAll(new FanOutTask(recipients, from, middle, delivery), new FanOutTask(recipients, middle, to, delivery));
+    }
+
+}
@@ -0,0 +1,85 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Parte do {@link SearchIndex} que cobre um intervalo contínuo de sequências do {@link MessageLog},
+ * guardando a posição e o momento de cada registro do intervalo, e a lista de sequências de cada termo.
+ */
+interface IndexChunk {
+
+    /**
+     * Lista ordenada de sequências.
+     */
+    interface Postings {
+
+        Postings EMPTY = new Postings() {
+            @Override
+            public int size() {
+                return 0;
+            }
+
+            @Override
+            public long get(int index) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+        };
+
+        /**
+         * Quantidade de sequências.
+         *
+         * @return quantidade de sequências.
+         */
+        int size();
+
+        /**
+         * Sequência na posição informada.
+         *
+         * @param index posição na lista, em ordem crescente.
+         *
+         * @return sequência.
+         */
+        long get(int index);
+
+    }
+
+    /**
+     * Sequência do primeiro registro coberto.
+     *
+     * @return sequência do primeiro registro.
+     */
+    long getFirstSequence();
+
+    /**
+     * Quantidade de registros cobertos.
+     *
+     * @return quantidade de registros.
+     */
+    int size();
+
+    /**
+     * Sequências das mensagens que contém o termo.
+     *
+     * @param term termo, já normalizado e com o prefixo do campo.
+     *
+     * @return sequências em ordem crescente, ou {@link Postings#EMPTY}.
+     */
+    Postings postings(String term);
+
+    /**
+     * Posição no segmento do log do registro informado.
+     *
+     * @param index posição do registro no intervalo.
+     *
+     * @return posição em bytes.
+     */
+    int position(int index);
+
+    /**
+     * Momento do registro informado.
+     *
+     * @param index posição do registro no intervalo.
+     *
+     * @return milissegundos desde a época Unix.
+     */
+    long timestamp(int index);
+
+}
@@ -0,0 +1,160 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências no formato do HdrHistogram, seguro para ser usado por várias threads
+ * e sem alocações ao registrar um valor. Cada potência de 2 é dividida em {@link #SUB_BUCKETS} intervalos
+ * lineares, assim os percentis retornados, o limite superior do intervalo, têm erro relativo
+ * de no máximo 1/{@link #SUB_BUCKETS} em qualquer escala, de nanossegundos a minutos.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Quantidade de bits usados na divisão de cada potência de 2.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Quantidade de intervalos em cada potência de 2.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Quantidade total de intervalos, suficiente para qualquer valor positivo de um long.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra uma latência.
+     *
+     * @param nanos latência em nanossegundos.
+     */
+    public void record(long nanos) {
+
+        if(nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        total.add(nanos);
+
+        if(nanos > max.get())
+            max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Quantidade de latências registradas.
+     *
+     * @return quantidade de registros.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Soma de todas as latências registradas.
+     *
+     * @return soma em nanossegundos.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Maior latência registrada.
+     *
+     * @return latência máxima em nanossegundos.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Média das latências registradas.
+     *
+     * @return média em nanossegundos.
+     */
+    public double getMean() {
+        long c = count.sum();
+        return (c == 0) ? 0 : total.sum() / (double) c;
+    }
+
+    /**
+     * Retorna o percentil informado.
+     *
+     * @param percentile percentil entre 0 e 100.
+     *
+     * @return limite superior do intervalo que contém o percentil, em nanossegundos.
+     */
+    public long getPercentile(double percentile) {
+
+        long c = count.sum();
+
+        if(c == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(c * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++){
+            seen += buckets.get(i);
+
+            if(seen >= target)
+                return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Intervalo em que o valor é registrado, os valores menores que {@link #SUB_BUCKETS} têm um intervalo
+     * próprio, os demais são divididos pela posição do bit mais significativo e pelos bits seguintes.
+     *
+     * @param value valor positivo.
+     *
+     * @return índice do intervalo.
+     */
+    private static int indexOf(long value) {
+
+        if(value < SUB_BUCKETS)
+            return (int) value;
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Maior valor registrado no intervalo informado.
+     *
+     * @param index índice do intervalo.
+     *
+     * @return limite superior do intervalo.
+     */
+    private static long upperBound(int index) {
+
+        if(index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lower + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                getCount(), getMean() / 1000.0, getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, getMax() / 1000.0);
+    }
+
+}
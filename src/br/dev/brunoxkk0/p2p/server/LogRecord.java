@@ -0,0 +1,121 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Registro lido do {@link MessageLog}.
+ */
+public class LogRecord {
+
+    /**
+     * Número de sequência do registro, crescente e único no log.
+     */
+    private final long sequence;
+
+    /**
+     * Momento em que o registro foi gravado, em milissegundos desde a época Unix.
+     */
+    private final long timestamp;
+
+    /**
+     * Tipo do registro.
+     */
+    private final LogRecordType type;
+
+    /**
+     * Sala do registro, ou o destinatário nas mensagens {@link LogRecordType#PRIVATE}.
+     */
+    private final String room;
+
+    /**
+     * Nome do usuário que originou o registro.
+     */
+    private final String user;
+
+    /**
+     * Texto da mensagem, vazio nos registros de entrada e saída.
+     */
+    private final String text;
+
+    /**
+     * Posição do registro dentro do seu segmento, usada para lê-lo novamente com {@link MessageLog#readAt(long, int)}.
+     */
+    private final int position;
+
+    public LogRecord(long sequence, long timestamp, LogRecordType type, String room, String user, String text, int position) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.room = room;
+        this.user = user;
+        this.text = text;
+        this.position = position;
+    }
+
+    /**
+     * Retorna o número de sequência do registro.
+     *
+     * @return número de sequência.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Retorna o momento em que o registro foi gravado.
+     *
+     * @return milissegundos desde a época Unix.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Retorna o tipo do registro.
+     *
+     * @return tipo do registro.
+     */
+    public LogRecordType getType() {
+        return type;
+    }
+
+    /**
+     * Retorna a sala do registro, ou o destinatário nas mensagens {@link LogRecordType#PRIVATE}.
+     *
+     * @return nome da sala ou do destinatário.
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Retorna o nome do usuário que originou o registro.
+     *
+     * @return nome do usuário.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Retorna o texto da mensagem.
+     *
+     * @return texto da mensagem, vazio nos registros de entrada e saída.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Retorna a posição do registro dentro do seu segmento.
+     *
+     * @return posição em bytes.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + timestamp + " " + type + " " + room + " " + user + " " + text;
+    }
+
+}
@@ -0,0 +1,45 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Define os tipos de registro gravados no {@link MessageLog}.
+ */
+public enum LogRecordType {
+
+    MESSAGE     (1),
+    PRIVATE     (2),
+    JOIN        (3),
+    LEAVE       (4);
+
+    byte code;
+
+    LogRecordType(int code){
+        this.code = (byte) code;
+    }
+
+    /**
+     * Código do tipo, gravado no registro.
+     *
+     * @return código do tipo.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Busca o tipo pelo código gravado no registro.
+     *
+     * @param code código do tipo.
+     *
+     * @return tipo encontrado, ou null caso seja desconhecido.
+     */
+    public static LogRecordType fromCode(byte code) {
+
+        for (LogRecordType type : values()){
+            if(type.code == code)
+                return type;
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,359 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Segmento do {@link MessageLog}, um arquivo de tamanho fixo mapeado em memória onde os registros são
+ * escritos em sequência. O arquivo é criado com o tamanho total e o final dos registros é o primeiro
+ * cabeçalho zerado, ou inválido, assim um segmento interrompido no meio de uma escrita é lido até o
+ * último registro completo.
+ * <p>
+ * Formato de cada registro: tamanho (int) + CRC32 do conteúdo (int) + conteúdo, sendo o conteúdo:
+ * sequência (long) + momento (long) + tipo (byte) + sala, usuário e texto (int com o tamanho + UTF-8).
+ */
+final class LogSegment {
+
+    /**
+     * Extensão dos arquivos de segmento.
+     */
+    static final String SUFFIX = ".log";
+
+    /**
+     * Tamanho do cabeçalho de cada registro.
+     */
+    static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    /**
+     * Caminho do arquivo.
+     */
+    private final Path path;
+
+    /**
+     * Sequência do primeiro registro do segmento, usada no nome do arquivo.
+     */
+    private final long baseSequence;
+
+    private final FileChannel channel;
+
+    /**
+     * Arquivo mapeado, todas as escritas são feitas diretamente na memória.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Sequência do último registro escrito, ou {@link #baseSequence} - 1 caso esteja vazio.
+     */
+    private long lastSequence;
+
+    /**
+     * Momento do último registro escrito, ou 0 caso esteja vazio.
+     */
+    private long lastTimestamp;
+
+    private final CRC32 crc = new CRC32();
+
+    private LogSegment(Path path, long baseSequence, FileChannel channel, int size) throws IOException {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.lastSequence = baseSequence - 1;
+    }
+
+    /**
+     * Cria um novo segmento vazio.
+     *
+     * @param directory diretório do log.
+     * @param baseSequence sequência do primeiro registro do segmento.
+     * @param size tamanho do arquivo, em bytes.
+     *
+     * @return segmento criado.
+     *
+     * @throws IOException caso ocorra algum erro ao criar o arquivo.
+     */
+    static LogSegment create(Path directory, long baseSequence, int size) throws IOException {
+
+        Path path = directory.resolve(fileName(baseSequence));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        return new LogSegment(path, baseSequence, channel, size);
+    }
+
+    /**
+     * Abre um segmento existente para continuar escrevendo, posicionando no final do último registro válido.
+     *
+     * @param path caminho do arquivo.
+     *
+     * @return segmento aberto.
+     *
+     * @throws IOException caso ocorra algum erro ao abrir o arquivo.
+     */
+    static LogSegment open(Path path) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(path, baseSequenceOf(path), channel, (int) channel.size());
+
+        segment.buffer.position(scan(segment.buffer, Long.MIN_VALUE, record -> {
+            segment.lastSequence = record.getSequence();
+            segment.lastTimestamp = record.getTimestamp();
+        }));
+
+        return segment;
+    }
+
+    /**
+     * Nome do arquivo do segmento que começa na sequência informada.
+     *
+     * @param baseSequence sequência do primeiro registro.
+     *
+     * @return nome do arquivo.
+     */
+    static String fileName(long baseSequence) {
+        return String.format("%020d%s", baseSequence, SUFFIX);
+    }
+
+    /**
+     * Sequência do primeiro registro do segmento, lida do nome do arquivo.
+     *
+     * @param path caminho do arquivo.
+     *
+     * @return sequência do primeiro registro.
+     */
+    static long baseSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Tamanho ocupado pelo registro no segmento.
+     *
+     * @param room sala em UTF-8.
+     * @param user usuário em UTF-8.
+     * @param text texto em UTF-8.
+     *
+     * @return tamanho do registro com o cabeçalho.
+     */
+    static int recordSize(byte[] room, byte[] user, byte[] text) {
+        return HEADER_SIZE + Long.BYTES * 2 + 1 + Integer.BYTES * 3 + room.length + user.length + text.length;
+    }
+
+    /**
+     * Retorna o caminho do arquivo.
+     *
+     * @return caminho do arquivo.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Retorna a sequência do primeiro registro do segmento.
+     *
+     * @return sequência do primeiro registro.
+     */
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * Retorna a sequência do último registro escrito.
+     *
+     * @return sequência do último registro, ou {@link #getBaseSequence()} - 1 caso esteja vazio.
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Retorna o momento do último registro escrito.
+     *
+     * @return momento do último registro, ou 0 caso esteja vazio.
+     */
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Posição do final do último registro escrito.
+     *
+     * @return posição em bytes.
+     */
+    int getPosition() {
+        return buffer.position();
+    }
+
+    /**
+     * Retorna se o registro cabe no espaço restante do segmento.
+     *
+     * @param size tamanho do registro.
+     *
+     * @return true caso o registro caiba.
+     */
+    boolean fits(int size) {
+        return buffer.remaining() >= size;
+    }
+
+    /**
+     * Escreve o registro na memória mapeada, a gravação no disco é feita pelo {@link #force()}.
+     * Deve ser chamado somente pela thread que detém o lock do {@link MessageLog}.
+     *
+     * @param sequence sequência do registro.
+     * @param timestamp momento do registro.
+     * @param type tipo do registro.
+     * @param room sala em UTF-8.
+     * @param user usuário em UTF-8.
+     * @param text texto em UTF-8.
+     *
+     * @return posição do registro no segmento.
+     */
+    int append(long sequence, long timestamp, LogRecordType type, byte[] room, byte[] user, byte[] text) {
+
+        int start = buffer.position();
+        int bodyStart = start + HEADER_SIZE;
+
+        buffer.position(bodyStart);
+        buffer.putLong(sequence).putLong(timestamp).put(type.getCode());
+        buffer.putInt(room.length).put(room);
+        buffer.putInt(user.length).put(user);
+        buffer.putInt(text.length).put(text);
+
+        int end = buffer.position();
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyStart).limit(end);
+
+        crc.reset();
+        crc.update(body);
+
+        /* O tamanho é escrito por último, um registro só é considerado válido depois que está completo.*/
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        buffer.putInt(start, end - bodyStart);
+
+        lastSequence = sequence;
+        lastTimestamp = timestamp;
+        return start;
+    }
+
+    /**
+     * Grava no disco as alterações feitas na memória mapeada.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Cria uma visão somente leitura dos registros escritos até a posição informada.
+     *
+     * @param end final dos registros a serem lidos.
+     *
+     * @return visão dos registros.
+     */
+    ByteBuffer view(int end) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(0).limit(end);
+        return view;
+    }
+
+    /**
+     * Fecha o arquivo, a memória mapeada é liberada quando não houver mais referências ao segmento.
+     *
+     * @throws IOException caso ocorra algum erro ao fechar o arquivo.
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Lê os registros válidos a partir da posição atual do buffer.
+     *
+     * @param buffer registros do segmento.
+     * @param fromSequence menor sequência entregue ao consumidor.
+     * @param consumer consumidor dos registros.
+     *
+     * @return posição do final do último registro válido.
+     */
+    static int scan(ByteBuffer buffer, long fromSequence, Consumer<LogRecord> consumer) {
+
+        CRC32 crc = new CRC32();
+        int position = buffer.position();
+
+        while (buffer.limit() - position >= HEADER_SIZE){
+
+            int length = buffer.getInt(position);
+            int bodyStart = position + HEADER_SIZE;
+
+            if(length <= 0 || length > buffer.limit() - bodyStart)
+                break;
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(bodyStart).limit(bodyStart + length);
+
+            crc.reset();
+            crc.update(body.duplicate());
+
+            if((int) crc.getValue() != buffer.getInt(position + Integer.BYTES))
+                break;
+
+            long sequence = body.getLong();
+
+            if(sequence >= fromSequence)
+                consumer.accept(parse(sequence, body, position));
+
+            position = bodyStart + length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Lê o registro que está na posição informada.
+     *
+     * @param buffer registros do segmento.
+     * @param position posição do registro.
+     *
+     * @return registro lido, ou null caso não exista um registro válido na posição.
+     */
+    static LogRecord readAt(ByteBuffer buffer, int position) {
+
+        if(position < 0 || buffer.limit() - position < HEADER_SIZE)
+            return null;
+
+        int length = buffer.getInt(position);
+        int bodyStart = position + HEADER_SIZE;
+
+        if(length <= 0 || length > buffer.limit() - bodyStart)
+            return null;
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyStart).limit(bodyStart + length);
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+
+        if((int) crc.getValue() != buffer.getInt(position + Integer.BYTES))
+            return null;
+
+        return parse(body.getLong(), body, position);
+    }
+
+    private static LogRecord parse(long sequence, ByteBuffer body, int position) {
+        long timestamp = body.getLong();
+        LogRecordType type = LogRecordType.fromCode(body.get());
+        return new LogRecord(sequence, timestamp, type, readString(body), readString(body), readString(body), position);
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
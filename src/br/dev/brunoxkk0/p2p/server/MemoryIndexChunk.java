@@ -0,0 +1,126 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parte do {@link SearchIndex} que recebe os registros novos, mantida em memória até atingir o tamanho
+ * de um bloco e ser gravada no disco como um {@link DiskIndexChunk}. Depois de cheia não é mais alterada.
+ */
+final class MemoryIndexChunk implements IndexChunk {
+
+    /**
+     * Lista de longs que cresce conforme necessário.
+     */
+    static final class LongArray implements Postings {
+
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+
+            values[size++] = value;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long get(int index) {
+            return values[index];
+        }
+
+    }
+
+    /**
+     * Sequência do primeiro registro.
+     */
+    private final long firstSequence;
+
+    /**
+     * Posição de cada registro no seu segmento.
+     */
+    private int[] positions = new int[1024];
+
+    /**
+     * Momento de cada registro.
+     */
+    private long[] timestamps = new long[1024];
+
+    /**
+     * Quantidade de registros.
+     */
+    private int size;
+
+    /**
+     * Sequências de cada termo.
+     */
+    private final Map<String, LongArray> postings = new HashMap<>();
+
+    MemoryIndexChunk(long firstSequence) {
+        this.firstSequence = firstSequence;
+    }
+
+    /**
+     * Acrescenta o registro seguinte ao intervalo.
+     *
+     * @param record registro do log.
+     * @param terms termos do registro, já com o prefixo do campo.
+     */
+    void add(LogRecord record, Iterable<String> terms) {
+
+        if(size == positions.length){
+            positions = Arrays.copyOf(positions, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+
+        positions[size] = record.getPosition();
+        timestamps[size] = record.getTimestamp();
+        size++;
+
+        for (String term : terms){
+            postings.computeIfAbsent(term, key -> new LongArray()).add(record.getSequence());
+        }
+    }
+
+    /**
+     * Sequências de todos os termos, usado ao gravar o bloco no disco.
+     *
+     * @return sequências de cada termo.
+     */
+    Map<String, LongArray> getPostings() {
+        return postings;
+    }
+
+    @Override
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Postings postings(String term) {
+        LongArray list = postings.get(term);
+        return (list != null) ? list : Postings.EMPTY;
+    }
+
+    @Override
+    public int position(int index) {
+        return positions[index];
+    }
+
+    @Override
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+}
@@ -0,0 +1,434 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Log persistente das mensagens, somente de acréscimo, dividido em segmentos de tamanho fixo
+ * mapeados em memória ({@link LogSegment}).
+ * <p>
+ * Gravar um registro é apenas uma cópia para a memória mapeada, sem nenhuma chamada ao sistema, assim
+ * o disparo das mensagens não espera pelo disco. A gravação no disco é feita em grupo por uma thread
+ * que, a cada {@link #getCommitIntervalMillis()}, grava de uma vez todos os registros acumulados, um
+ * registro pode ser perdido em uma queda do sistema operacional somente dentro deste intervalo.
+ * <p>
+ * Os arquivos ficam no diretório informado, com o nome formado pela sequência do primeiro registro.
+ */
+public class MessageLog implements Closeable {
+
+    /**
+     * Tamanho padrão de cada segmento, pode ser alterado pela propriedade "p2p.log.segment".
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = Integer.getInteger("p2p.log.segment", 64 * 1024 * 1024);
+
+    /**
+     * Intervalo padrão entre as gravações no disco, pode ser alterado pela propriedade "p2p.log.commit".
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = Long.getLong("p2p.log.commit", 20);
+
+    private final Logger logger = Logger.getLogger("MessageLog");
+
+    /**
+     * Diretório dos segmentos.
+     */
+    private final Path directory;
+
+    /**
+     * Tamanho de cada novo segmento.
+     */
+    private final int segmentSize;
+
+    /**
+     * Intervalo entre as gravações no disco.
+     */
+    private final long commitIntervalMillis;
+
+    /**
+     * Arquivos de todos os segmentos, pela sequência do primeiro registro.
+     */
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+
+    /**
+     * Segmentos já fechados para escrita que ainda não foram gravados no disco.
+     */
+    private final List<LogSegment> unforced = new ArrayList<>();
+
+    /**
+     * Segmento em que os registros são escritos.
+     */
+    private LogSegment active;
+
+    /**
+     * Sequência do último registro escrito.
+     */
+    private long lastSequence;
+
+    /**
+     * Momento do último registro escrito, os momentos nunca diminuem para que acompanhem a ordem das sequências.
+     */
+    private long lastTimestamp;
+
+    /**
+     * Sequência do último registro gravado no disco.
+     */
+    private volatile long committedSequence;
+
+    /**
+     * Thread que grava os registros no disco.
+     */
+    private final Thread committer;
+
+    private volatile boolean closed;
+
+    /**
+     * Consumidor notificado de cada registro acrescentado, ver {@link #subscribe(long, Consumer)}.
+     */
+    private Consumer<LogRecord> listener;
+
+    /**
+     * Abre o log no diretório informado, utilizando {@link #DEFAULT_SEGMENT_SIZE} e {@link #DEFAULT_COMMIT_INTERVAL_MILLIS}.
+     *
+     * @param directory diretório dos segmentos, criado caso não exista.
+     *
+     * @throws IOException caso ocorra algum erro ao abrir os segmentos.
+     */
+    public MessageLog(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Abre o log no diretório informado, continuando a escrita após o último registro válido.
+     *
+     * @param directory diretório dos segmentos, criado caso não exista.
+     * @param segmentSize tamanho de cada segmento, em bytes.
+     * @param commitIntervalMillis intervalo entre as gravações no disco, em milissegundos.
+     *
+     * @throws IOException caso ocorra algum erro ao abrir os segmentos.
+     */
+    public MessageLog(Path directory, int segmentSize, long commitIntervalMillis) throws IOException {
+
+        if(segmentSize <= LogSegment.HEADER_SIZE)
+            throw new IllegalArgumentException("Segment size too small");
+
+        if(commitIntervalMillis <= 0)
+            throw new IllegalArgumentException("Commit interval must be positive");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitIntervalMillis = commitIntervalMillis;
+
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)){
+            files.filter(path -> path.getFileName().toString().endsWith(LogSegment.SUFFIX))
+                    .forEach(path -> segments.put(LogSegment.baseSequenceOf(path), path));
+        }
+
+        if(segments.isEmpty()){
+            active = LogSegment.create(directory, 1, segmentSize);
+            segments.put(active.getBaseSequence(), active.getPath());
+        } else {
+            active = LogSegment.open(segments.lastEntry().getValue());
+        }
+
+        lastSequence = active.getLastSequence();
+        lastTimestamp = active.getLastTimestamp();
+        committedSequence = lastSequence;
+
+        /* O segmento ativo acabou de ser criado, o último momento está no segmento anterior.*/
+        Map.Entry<Long, Path> previous = segments.lowerEntry(active.getBaseSequence());
+
+        if(lastSequence < active.getBaseSequence() && previous != null){
+            LogSegment segment = LogSegment.open(previous.getValue());
+            lastTimestamp = segment.getLastTimestamp();
+            segment.close();
+        }
+
+        committer = new Thread(this::commitLoop, "MessageLog-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Diretório dos segmentos.
+     *
+     * @return diretório dos segmentos.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Intervalo entre as gravações no disco.
+     *
+     * @return intervalo em milissegundos.
+     */
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    /**
+     * Sequência do último registro escrito.
+     *
+     * @return sequência do último registro, ou 0 caso o log esteja vazio.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Sequência do último registro gravado no disco.
+     *
+     * @return sequência do último registro gravado.
+     */
+    public long getCommittedSequence() {
+        return committedSequence;
+    }
+
+    /**
+     * Acrescenta um registro ao log, o registro é escrito na memória mapeada e gravado no disco
+     * pela próxima gravação em grupo.
+     *
+     * @param type tipo do registro.
+     * @param room sala, ou destinatário nas mensagens privadas.
+     * @param user usuário que originou o registro.
+     * @param text texto da mensagem, ou null.
+     *
+     * @return sequência do registro.
+     *
+     * @throws IOException caso o log esteja fechado ou ocorra algum erro ao criar um novo segmento.
+     */
+    public long append(LogRecordType type, String room, String user, String text) throws IOException {
+
+        byte[] roomBytes = bytes(room);
+        byte[] userBytes = bytes(user);
+        byte[] textBytes = bytes(text);
+
+        int size = LogSegment.recordSize(roomBytes, userBytes, textBytes);
+
+        synchronized (this){
+
+            if(closed)
+                throw new IOException("Message log is closed");
+
+            /* Lido dentro do lock e sem diminuir caso o relógio volte, a busca por período depende da ordem dos momentos.*/
+            long timestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+            lastTimestamp = timestamp;
+
+            if(!active.fits(size)){
+                unforced.add(active);
+                active = LogSegment.create(directory, lastSequence + 1, Math.max(segmentSize, size));
+                segments.put(active.getBaseSequence(), active.getPath());
+            }
+
+            int position = active.append(++lastSequence, timestamp, type, roomBytes, userBytes, textBytes);
+
+            if(listener != null)
+                listener.accept(new LogRecord(lastSequence, timestamp, type, room, user, (text != null) ? text : "", position));
+
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Lê em ordem os registros a partir da sequência informada, incluindo os que ainda não foram gravados no disco.
+     *
+     * @param fromSequence menor sequência a ser lida.
+     * @param consumer consumidor dos registros.
+     *
+     * @throws IOException caso ocorra algum erro ao ler os segmentos.
+     */
+    public void read(long fromSequence, Consumer<LogRecord> consumer) throws IOException {
+
+        List<Path> sealed = new ArrayList<>();
+        ByteBuffer current;
+
+        synchronized (this){
+
+            Long first = segments.floorKey(fromSequence);
+
+            for (Map.Entry<Long, Path> entry : segments.tailMap((first != null) ? first : Long.MIN_VALUE, true).entrySet()){
+                if(entry.getKey() != active.getBaseSequence())
+                    sealed.add(entry.getValue());
+            }
+
+            current = active.view(active.getPosition());
+        }
+
+        for (Path path : sealed){
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                LogSegment.scan(buffer, fromSequence, consumer);
+            }
+        }
+
+        LogSegment.scan(current, fromSequence, consumer);
+    }
+
+    /**
+     * Lê o registro com a sequência informada, na posição obtida em {@link LogRecord#getPosition()},
+     * sem percorrer o segmento.
+     *
+     * @param sequence sequência do registro.
+     * @param position posição do registro no segmento.
+     *
+     * @return registro lido, ou null caso não exista.
+     *
+     * @throws IOException caso ocorra algum erro ao ler o segmento.
+     */
+    public LogRecord readAt(long sequence, int position) throws IOException {
+
+        Path path;
+        ByteBuffer current = null;
+
+        synchronized (this){
+
+            Map.Entry<Long, Path> entry = segments.floorEntry(sequence);
+
+            if(entry == null || sequence > lastSequence)
+                return null;
+
+            path = entry.getValue();
+
+            if(entry.getKey() == active.getBaseSequence())
+                current = active.view(active.getPosition());
+        }
+
+        LogRecord record;
+
+        if(current != null){
+            record = LogSegment.readAt(current, position);
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+
+                ByteBuffer header = ByteBuffer.allocate(LogSegment.HEADER_SIZE);
+                channel.read(header, position);
+
+                int length = (header.position() == LogSegment.HEADER_SIZE) ? header.getInt(0) : 0;
+
+                if(length <= 0 || length > channel.size() - position - LogSegment.HEADER_SIZE)
+                    return null;
+
+                ByteBuffer buffer = ByteBuffer.allocate(LogSegment.HEADER_SIZE + length);
+                channel.read(buffer, position);
+                buffer.flip();
+
+                record = LogSegment.readAt(buffer, 0);
+
+                if(record != null)
+                    record = new LogRecord(record.getSequence(), record.getTimestamp(), record.getType(), record.getRoom(), record.getUser(), record.getText(), position);
+            }
+        }
+
+        return (record != null && record.getSequence() == sequence) ? record : null;
+    }
+
+    /**
+     * Entrega ao consumidor os registros a partir da sequência informada e, em seguida, cada registro
+     * acrescentado ao log, em ordem e sem intervalos. O consumidor é chamado segurando o lock do log,
+     * então deve ser rápido e não pode chamar o log. Somente um consumidor é mantido.
+     *
+     * @param fromSequence menor sequência entregue.
+     * @param consumer consumidor dos registros.
+     *
+     * @throws IOException caso ocorra algum erro ao ler os segmentos.
+     */
+    public synchronized void subscribe(long fromSequence, Consumer<LogRecord> consumer) throws IOException {
+
+        if(fromSequence <= lastSequence)
+            read(fromSequence, consumer);
+
+        this.listener = consumer;
+    }
+
+    /**
+     * Grava no disco todos os registros escritos até o momento, sem esperar pela próxima gravação em grupo.
+     *
+     * @throws IOException caso ocorra algum erro ao fechar os segmentos já gravados.
+     */
+    public void sync() throws IOException {
+
+        List<LogSegment> pending;
+        LogSegment current;
+        long sequence;
+
+        synchronized (this){
+            pending = new ArrayList<>(unforced);
+            unforced.clear();
+            current = active;
+            sequence = lastSequence;
+        }
+
+        if(sequence == committedSequence && pending.isEmpty())
+            return;
+
+        for (LogSegment segment : pending){
+            segment.force();
+            segment.close();
+        }
+
+        current.force();
+
+        committedSequence = sequence;
+    }
+
+    private void commitLoop() {
+
+        while (!closed){
+            try {
+                Thread.sleep(commitIntervalMillis);
+                sync();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logger.warning(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Grava os registros pendentes e fecha o log, os próximos {@link #append} falham.
+     *
+     * @throws IOException caso ocorra algum erro ao gravar ou fechar os segmentos.
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized (this){
+            if(closed)
+                return;
+
+            closed = true;
+        }
+
+        committer.interrupt();
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        sync();
+        active.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return (value != null) ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+}
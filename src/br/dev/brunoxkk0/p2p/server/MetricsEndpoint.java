@@ -0,0 +1,83 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Endpoint HTTP que expõe as {@link ServerMetrics} no formato texto do Prometheus em /metrics,
+ * escutando somente no endereço local, atendido por uma única thread própria para não competir
+ * com as threads das conexões.
+ */
+public class MetricsEndpoint {
+
+    /**
+     * Tipo de conteúdo do formato texto do Prometheus.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer httpServer;
+
+    private final ServerMetrics metrics;
+
+    /**
+     * Cria o endpoint e começa a atender em 127.0.0.1 na porta informada.
+     *
+     * @param metrics métricas expostas.
+     * @param port porta do endpoint, ou 0 para uma porta escolhida pelo sistema.
+     *
+     * @throws IOException caso ocorra algum erro ao dar bind na porta.
+     */
+    public MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+
+        this.metrics = metrics;
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        httpServer.createContext("/metrics", this::handle);
+        httpServer.start();
+    }
+
+    /**
+     * Porta em que o endpoint está escutando.
+     *
+     * @return porta do endpoint.
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Para de atender, encerrando a thread do endpoint.
+     */
+    public void close() {
+        httpServer.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+
+        try {
+
+            if(!"GET".equals(exchange.getRequestMethod())){
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
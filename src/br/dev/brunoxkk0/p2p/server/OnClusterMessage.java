@@ -0,0 +1,15 @@
+package br.dev.brunoxkk0.p2p.server;
+
+@FunctionalInterface
+public interface OnClusterMessage {
+
+    /**
+     * Função a ser executada quando um nó do cluster repassa uma mensagem de uma sala.
+     * @param type tipo da mensagem, {@link ClusterMessageType#MESSAGE} ou {@link ClusterMessageType#ANNOUNCEMENT}.
+     * @param room nome da sala.
+     * @param user nome do remetente, vazio nos avisos.
+     * @param text texto da mensagem, ou o aviso completo.
+     */
+    void onMessage(ClusterMessageType type, String room, String user, String text);
+
+}
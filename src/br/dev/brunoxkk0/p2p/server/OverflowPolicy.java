@@ -0,0 +1,26 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Define o que acontece quando a fila de saída de uma conexão está cheia.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Descarta a mensagem mais antiga da fila para dar lugar a nova.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Desconecta o cliente que não está consumindo as mensagens a tempo.
+     */
+    DISCONNECT,
+
+    /**
+     * Bloqueia quem está enviando até que haja espaço na fila, no modo {@link ServerMode#SELECTOR},
+     * onde quem envia é a mesma thread que escreve, se comporta como {@link #DISCONNECT}.
+     * Na entrega em paralelo quem fica bloqueada é a thread do pool da entrega, que por isso é
+     * própria do servidor, ver {@link ConnectionExecutors#fanOutPool()}.
+     */
+    BLOCK
+
+}
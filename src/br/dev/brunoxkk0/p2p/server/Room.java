@@ -0,0 +1,98 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import br.dev.brunoxkk0.p2p.common.GroupKey;
+
+/**
+ * Sala de conversação, as mensagens enviadas em uma sala são entregues somente aos seus membros.
+ */
+public class Room {
+
+    /**
+     * Nome da sala.
+     */
+    private final String name;
+
+    /**
+     * Membros da sala.
+     */
+    private final ConnectionRegistry members = new ConnectionRegistry();
+
+    /**
+     * Chave de grupo atual da sala, nula enquanto nenhum membro suportar o modo de chave de grupo.
+     */
+    private volatile GroupKey groupKey;
+
+    /**
+     * Últimas mensagens da sala.
+     */
+    private volatile RoomHistory history;
+
+    public Room(String name, RoomHistory history) {
+        this.name = name;
+        this.history = history;
+    }
+
+    /**
+     * Retorna o nome da sala.
+     *
+     * @return nome da sala.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retorna os membros da sala.
+     *
+     * @return registro com os membros da sala.
+     */
+    public ConnectionRegistry getMembers() {
+        return members;
+    }
+
+    /**
+     * Retorna a chave de grupo atual da sala.
+     *
+     * @return chave de grupo ou null.
+     */
+    public GroupKey getGroupKey() {
+        return groupKey;
+    }
+
+    /**
+     * Define a chave de grupo atual da sala.
+     *
+     * @param groupKey nova chave de grupo.
+     */
+    public void setGroupKey(GroupKey groupKey) {
+        this.groupKey = groupKey;
+    }
+
+    /**
+     * Retorna as últimas mensagens da sala.
+     *
+     * @return histórico da sala.
+     */
+    public RoomHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Substitui o histórico da sala, descartando as mensagens guardadas.
+     *
+     * @param history novo histórico.
+     */
+    public void setHistory(RoomHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Retorna se a sala não possui membros.
+     *
+     * @return true caso a sala esteja vazia.
+     */
+    public boolean isEmpty() {
+        return members.size() == 0;
+    }
+
+}
@@ -0,0 +1,170 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Últimas mensagens de uma sala, reenviadas a quem entra na sala.
+ * <p>
+ * As mensagens ficam em um buffer circular alocado junto com a sala, limitado pela quantidade de
+ * mensagens e pela memória estimada que ocupam, ao passar de qualquer um dos limites as mensagens
+ * mais antigas são descartadas.
+ */
+public class RoomHistory {
+
+    /**
+     * Memória estimada de cada mensagem além do texto, referência, cabeçalho do objeto e do array.
+     */
+    private static final int ENTRY_OVERHEAD = 48;
+
+    /**
+     * Mensagens, da mais antiga em {@link #head} até a mais nova.
+     */
+    private final String[] entries;
+
+    /**
+     * Memória máxima estimada das mensagens, em bytes.
+     */
+    private final int budget;
+
+    /**
+     * Posição da mensagem mais antiga.
+     */
+    private int head;
+
+    /**
+     * Quantidade de mensagens guardadas.
+     */
+    private int size;
+
+    /**
+     * Memória estimada das mensagens guardadas, em bytes.
+     */
+    private int bytes;
+
+    /**
+     * Sequência no {@link MessageLog} da última mensagem guardada, evita que uma mensagem lida do log
+     * seja guardada novamente.
+     */
+    private long lastSequence;
+
+    /**
+     * Controla se o histórico já foi preenchido a partir do {@link MessageLog}.
+     */
+    private boolean seeded;
+
+    /**
+     * Cria o histórico com os limites informados.
+     *
+     * @param depth quantidade máxima de mensagens, 0 desabilita o histórico.
+     * @param budget memória máxima estimada das mensagens, em bytes.
+     */
+    public RoomHistory(int depth, int budget) {
+
+        if(depth < 0 || budget < 0)
+            throw new IllegalArgumentException("History limits cannot be negative");
+
+        this.entries = new String[depth];
+        this.budget = budget;
+    }
+
+    /**
+     * Quantidade máxima de mensagens.
+     *
+     * @return quantidade máxima de mensagens, 0 caso o histórico esteja desabilitado.
+     */
+    public int getDepth() {
+        return entries.length;
+    }
+
+    /**
+     * Guarda a mensagem, descartando as mais antigas caso algum limite seja ultrapassado.
+     * Mensagens maiores que o limite de memória não são guardadas.
+     *
+     * @param sequence sequência da mensagem no {@link MessageLog}, ou 0 caso o log esteja desabilitado.
+     * @param message mensagem já formatada.
+     */
+    public synchronized void add(long sequence, String message) {
+
+        int cost = cost(message);
+
+        if(entries.length == 0 || cost > budget)
+            return;
+
+        if(sequence > 0){
+            if(sequence <= lastSequence)
+                return;
+
+            lastSequence = sequence;
+        }
+
+        while (size == entries.length || bytes + cost > budget){
+            removeOldest();
+        }
+
+        entries[(head + size) % entries.length] = message;
+        bytes += cost;
+        size++;
+    }
+
+    /**
+     * Copia as mensagens guardadas, da mais antiga para a mais nova.
+     *
+     * @return mensagens guardadas.
+     */
+    public synchronized List<String> snapshot() {
+
+        List<String> messages = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++){
+            messages.add(entries[(head + i) % entries.length]);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Marca o início do preenchimento a partir do {@link MessageLog}, que deve ser feito segurando
+     * o lock do histórico. O histórico só é preenchido uma vez, e somente se estiver vazio.
+     *
+     * @return true caso o histórico deva ser preenchido.
+     */
+    public synchronized boolean startSeed() {
+
+        if(seeded || size > 0 || entries.length == 0)
+            return false;
+
+        seeded = true;
+        return true;
+    }
+
+    /**
+     * Quantidade de mensagens guardadas.
+     *
+     * @return quantidade de mensagens.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Memória estimada das mensagens guardadas.
+     *
+     * @return memória estimada, em bytes.
+     */
+    public synchronized int getBytes() {
+        return bytes;
+    }
+
+    private void removeOldest() {
+        bytes -= cost(entries[head]);
+        entries[head] = null;
+        head = (head + 1) % entries.length;
+        size--;
+    }
+
+    private static int cost(String message) {
+        return ENTRY_OVERHEAD + message.length() * 2;
+    }
+
+}
@@ -0,0 +1,185 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Gerencia as salas do servidor, cada conexão participa de uma única sala por vez.
+ * <p>
+ * As salas são criadas quando o primeiro membro entra e removidas quando o último sai,
+ * exceto a {@link #DEFAULT_ROOM}, onde os clientes entram ao se conectar.
+ */
+public class RoomManager {
+
+    /**
+     * Sala onde os clientes entram ao se conectar.
+     */
+    public static final String DEFAULT_ROOM = "geral";
+
+    /**
+     * Formato aceito para o nome das salas.
+     */
+    private static final Pattern NAME_PATTERN = Pattern.compile("[\\p{L}\\p{N}_-]{1,32}");
+
+    /**
+     * Quantidade padrão de mensagens guardadas no histórico de cada sala.
+     */
+    public static final int DEFAULT_HISTORY_DEPTH = 50;
+
+    /**
+     * Memória padrão do histórico de cada sala, em bytes.
+     */
+    public static final int DEFAULT_HISTORY_BUDGET = 64 * 1024;
+
+    /**
+     * Salas existentes indexadas pelo nome.
+     */
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * Contador das épocas das chaves de grupo, compartilhado entre as salas para que um cliente
+     * que troca de sala nunca receba duas chaves com a mesma época.
+     */
+    private final AtomicInteger epochs = new AtomicInteger();
+
+    /**
+     * Quantidade de mensagens guardadas no histórico de cada sala.
+     */
+    private volatile int historyDepth = DEFAULT_HISTORY_DEPTH;
+
+    /**
+     * Memória do histórico de cada sala, em bytes.
+     */
+    private volatile int historyBudget = DEFAULT_HISTORY_BUDGET;
+
+    public RoomManager() {
+        rooms.put(DEFAULT_ROOM, createRoom(DEFAULT_ROOM));
+    }
+
+    /**
+     * Define os limites do histórico das salas, aplicado às salas existentes, que perdem as mensagens
+     * guardadas, e às próximas salas criadas.
+     *
+     * @param depth quantidade máxima de mensagens por sala, 0 desabilita o histórico.
+     * @param budget memória máxima estimada do histórico de cada sala, em bytes.
+     */
+    public void setHistoryLimits(int depth, int budget) {
+
+        if(depth < 0 || budget < 0)
+            throw new IllegalArgumentException("History limits cannot be negative");
+
+        this.historyDepth = depth;
+        this.historyBudget = budget;
+
+        for (Room room : rooms.values()){
+            room.setHistory(new RoomHistory(depth, budget));
+        }
+    }
+
+    /**
+     * Verifica se o nome informado pode ser usado como nome de sala.
+     *
+     * @param name nome da sala.
+     *
+     * @return true caso o nome seja válido.
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+
+    /**
+     * Busca uma sala pelo nome.
+     *
+     * @param name nome da sala.
+     *
+     * @return sala encontrada ou null.
+     */
+    public Room get(String name) {
+        return rooms.get(name);
+    }
+
+    /**
+     * Retorna as salas existentes.
+     *
+     * @return salas existentes.
+     */
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+
+    /**
+     * Retorna as salas existentes ordenadas pelo nome.
+     *
+     * @return salas existentes.
+     */
+    public List<Room> getSortedRooms() {
+        List<Room> sorted = new ArrayList<>(rooms.values());
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return sorted;
+    }
+
+    /**
+     * Adiciona a conexão à sala informada, criando-a caso não exista.
+     * A conexão deve ter saído da sala anterior através do {@link #leave(Connection)}, ambos chamados
+     * mantendo a trava {@link Connection#getMembershipLock()}.
+     *
+     * @param connection conexão que está entrando.
+     * @param name nome da sala.
+     *
+     * @return sala em que a conexão entrou.
+     */
+    public Room join(Connection connection, String name) {
+
+        Room room = rooms.compute(name, (key, current) -> {
+            Room target = (current != null) ? current : createRoom(key);
+            target.getMembers().add(connection);
+            return target;
+        });
+
+        connection.setRoom(room);
+        return room;
+    }
+
+    /**
+     * Remove a conexão da sala em que ela está, removendo a sala caso fique vazia.
+     *
+     * @param connection conexão que está saindo.
+     *
+     * @return sala de onde a conexão saiu, ou null caso ela não estivesse em uma sala.
+     */
+    public Room leave(Connection connection) {
+
+        Room room = connection.getRoom();
+
+        if(room == null)
+            return null;
+
+        connection.setRoom(null);
+
+        rooms.computeIfPresent(room.getName(), (key, current) -> {
+            current.getMembers().remove(connection);
+            return (current.isEmpty() && !DEFAULT_ROOM.equals(key)) ? null : current;
+        });
+
+        return room;
+    }
+
+    private Room createRoom(String name) {
+        return new Room(name, new RoomHistory(historyDepth, historyBudget));
+    }
+
+    /**
+     * Gera a época da próxima chave de grupo.
+     *
+     * @return nova época.
+     */
+    public int nextEpoch() {
+        return epochs.getAndIncrement();
+    }
+
+}
@@ -0,0 +1,544 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Índice invertido das mensagens do {@link MessageLog}, para cada termo guarda as sequências das mensagens
+ * que o contém, e para cada registro a sua posição no log, assim uma busca lê somente as mensagens encontradas.
+ * <p>
+ * Os termos são as palavras normalizadas (sem acentos e em minúsculas), o autor e a sala de cada mensagem.
+ * Cada registro acrescentado ao log é somente enfileirado, dentro do lock do log, e indexado logo em seguida pela
+ * thread de escrita do índice, assim as buscas podem demorar alguns instantes para encontrar as mensagens mais novas.
+ * Caso a fila esteja cheia, os registros descartados são lidos novamente do log antes do próximo registro indexado.
+ * Os registros novos ficam em memória e, a cada {@link #getChunkSize()} registros, o bloco é gravado no disco
+ * em segundo plano como um arquivo imutável ({@link DiskIndexChunk}). Ao abrir, os registros do log que ainda
+ * não estão nos arquivos são indexados novamente.
+ */
+public class SearchIndex implements Closeable {
+
+    /**
+     * Quantidade padrão de registros de cada bloco do índice.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Quantidade máxima de registros aguardando a indexação.
+     */
+    public static final int QUEUE_CAPACITY = 16 * 1024;
+
+    static final String WORD_FIELD = "w:";
+    static final String USER_FIELD = "u:";
+    static final String ROOM_FIELD = "r:";
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int MAX_WORD_LENGTH = 32;
+
+    /**
+     * Quantidade máxima de palavras indexadas por mensagem.
+     */
+    private static final int MAX_WORDS = 256;
+
+    private final Logger logger = Logger.getLogger("SearchIndex");
+
+    /**
+     * Log indexado.
+     */
+    private final MessageLog log;
+
+    /**
+     * Diretório dos arquivos do índice.
+     */
+    private final Path directory;
+
+    /**
+     * Quantidade de registros de cada bloco.
+     */
+    private final int chunkSize;
+
+    /**
+     * Blocos completos, do mais antigo para o mais novo, gravados no disco ou aguardando a gravação.
+     */
+    private final List<IndexChunk> chunks = new ArrayList<>();
+
+    /**
+     * Bloco que recebe os registros novos.
+     */
+    private MemoryIndexChunk active;
+
+    /**
+     * Controla se o índice foi fechado, os registros acrescentados depois disso não são indexados.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Thread que grava os blocos completos no disco.
+     */
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SearchIndex-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Registros acrescentados ao log aguardando a indexação pela {@link #writer}.
+     */
+    private final BlockingQueue<LogRecord> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Controla se já existe uma tarefa de indexação agendada na {@link #writer}.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Controla se algum registro foi descartado com a fila cheia desde a última leitura do log.
+     */
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+
+    /**
+     * Abre o índice utilizando {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param log log indexado.
+     * @param directory diretório dos arquivos do índice, criado caso não exista.
+     *
+     * @throws IOException caso ocorra algum erro ao abrir o índice ou ler o log.
+     */
+    public SearchIndex(MessageLog log, Path directory) throws IOException {
+        this(log, directory, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Abre o índice, indexando os registros do log que ainda não estão nos arquivos, e passa a indexar
+     * cada registro acrescentado ao log.
+     *
+     * @param log log indexado.
+     * @param directory diretório dos arquivos do índice, criado caso não exista.
+     * @param chunkSize quantidade de registros de cada bloco.
+     *
+     * @throws IOException caso ocorra algum erro ao abrir o índice ou ler o log.
+     */
+    public SearchIndex(MessageLog log, Path directory, int chunkSize) throws IOException {
+
+        if(chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+
+        this.log = log;
+        this.directory = directory;
+        this.chunkSize = chunkSize;
+
+        Files.createDirectories(directory);
+
+        List<Path> files;
+
+        try (Stream<Path> list = Files.list(directory)){
+            files = list.sorted().collect(Collectors.toList());
+        }
+
+        long next = 1;
+
+        for (Path file : files){
+
+            String name = file.getFileName().toString();
+
+            if(name.endsWith(".tmp")){
+                Files.delete(file);
+                continue;
+            }
+
+            if(!name.endsWith(DiskIndexChunk.SUFFIX))
+                continue;
+
+            DiskIndexChunk chunk = DiskIndexChunk.open(file);
+
+            if(chunk.getFirstSequence() != next || chunk.getFirstSequence() + chunk.size() > log.getLastSequence() + 1){
+                logger.warning("Discarding index file out of sync with the log: " + name);
+                Files.delete(file);
+                continue;
+            }
+
+            chunks.add(chunk);
+            next = chunk.getFirstSequence() + chunk.size();
+        }
+
+        active = new MemoryIndexChunk(next);
+
+        if(next <= log.getLastSequence())
+            log.read(next, this::add);
+
+        log.subscribe(nextSequence(), this::enqueue);
+    }
+
+    /**
+     * Separa o texto nas palavras indexadas, sem acentos, em minúsculas e sem repetições.
+     *
+     * @param text texto da mensagem.
+     *
+     * @return palavras do texto.
+     */
+    public static Set<String> tokenize(String text) {
+
+        Set<String> words = new LinkedHashSet<>();
+
+        if(text == null || text.isEmpty())
+            return words;
+
+        String normalized = text;
+
+        for (int i = 0; i < text.length(); i++){
+            if(text.charAt(i) > 0x7F){
+                normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+
+        normalized = normalized.toLowerCase(Locale.ROOT);
+
+        int start = -1;
+
+        for (int i = 0; i <= normalized.length() && words.size() < MAX_WORDS; i++){
+
+            if(i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i))){
+                if(start < 0)
+                    start = i;
+
+                continue;
+            }
+
+            if(start >= 0 && i - start >= MIN_WORD_LENGTH && i - start <= MAX_WORD_LENGTH)
+                words.add(normalized.substring(start, i));
+
+            start = -1;
+        }
+
+        return words;
+    }
+
+    /**
+     * Quantidade de registros de cada bloco.
+     *
+     * @return quantidade de registros.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Enfileira o registro acrescentado ao log, chamado pelo log em ordem de sequência e dentro do seu lock.
+     *
+     * @param record registro acrescentado.
+     */
+    private void enqueue(LogRecord record) {
+
+        if(closed)
+            return;
+
+        /* Com a fila cheia o registro é descartado e lido novamente do log pelo drain().*/
+        if(!pending.offer(record))
+            overflowed.set(true);
+
+        if(scheduled.compareAndSet(false, true)){
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException ignored) {
+                /* O índice foi fechado.*/
+            }
+        }
+    }
+
+    /**
+     * Indexa os registros enfileirados, executado na {@link #writer}.
+     */
+    private void drain() {
+
+        scheduled.set(false);
+
+        LogRecord record;
+
+        try {
+            while ((record = pending.poll()) != null){
+                index(record);
+            }
+
+            /* Os últimos registros descartados não deixam intervalo na fila, são lidos do log aqui.*/
+            if(overflowed.getAndSet(false))
+                log.read(nextSequence(), this::add);
+        } catch (Exception e) {
+            logger.warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Indexa o registro retirado da fila. Caso registros anteriores tenham sido descartados com a fila cheia,
+     * o log é lido a partir do primeiro deles até o final, e os registros da fila já lidos são ignorados.
+     *
+     * @param record registro retirado da fila.
+     *
+     * @throws IOException caso ocorra algum erro ao ler os registros descartados.
+     */
+    private void index(LogRecord record) throws IOException {
+
+        long next = nextSequence();
+
+        if(record.getSequence() < next)
+            return;
+
+        if(record.getSequence() > next){
+            log.read(next, this::add);
+            return;
+        }
+
+        add(record);
+    }
+
+    /**
+     * Sequência do próximo registro a ser indexado.
+     *
+     * @return sequência do próximo registro.
+     */
+    private synchronized long nextSequence() {
+        return active.getFirstSequence() + active.size();
+    }
+
+    /**
+     * Indexa o registro, chamado em ordem de sequência.
+     *
+     * @param record registro acrescentado.
+     */
+    private synchronized void add(LogRecord record) {
+
+        if(closed)
+            return;
+
+        if(record.getSequence() != active.getFirstSequence() + active.size()){
+            if(active.size() > 0)
+                seal();
+
+            active = new MemoryIndexChunk(record.getSequence());
+        }
+
+        List<String> terms = new ArrayList<>();
+
+        if(record.getType() == LogRecordType.MESSAGE){
+            terms.add(ROOM_FIELD + record.getRoom().toLowerCase(Locale.ROOT));
+            terms.add(USER_FIELD + record.getUser().toLowerCase(Locale.ROOT));
+
+            for (String word : tokenize(record.getText()))
+                terms.add(WORD_FIELD + word);
+        }
+
+        active.add(record, terms);
+
+        if(active.size() >= chunkSize){
+            seal();
+            active = new MemoryIndexChunk(record.getSequence() + 1);
+        }
+    }
+
+    /**
+     * Move o bloco ativo para os blocos completos e agenda a sua gravação no disco.
+     */
+    private void seal() {
+
+        MemoryIndexChunk chunk = active;
+        chunks.add(chunk);
+
+        writer.execute(() -> {
+            try {
+                DiskIndexChunk written = DiskIndexChunk.write(directory, chunk);
+
+                synchronized (this){
+                    chunks.set(chunks.indexOf(chunk), written);
+                }
+            } catch (Exception e) {
+                logger.warning(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Busca as mensagens mais recentes que atendem a consulta, lendo do log somente as mensagens encontradas.
+     *
+     * @param query consulta.
+     *
+     * @return mensagens encontradas, da mais recente para a mais antiga.
+     *
+     * @throws IOException caso ocorra algum erro ao ler as mensagens do log.
+     */
+    public List<LogRecord> search(SearchQuery query) throws IOException {
+
+        List<String> terms = query.terms();
+        List<long[]> hits = new ArrayList<>();
+        List<IndexChunk> completed;
+
+        synchronized (this){
+            collect(active, terms, query, hits);
+            completed = new ArrayList<>(chunks);
+        }
+
+        for (int i = completed.size() - 1; i >= 0 && hits.size() < query.getLimit(); i--){
+            collect(completed.get(i), terms, query, hits);
+        }
+
+        List<LogRecord> records = new ArrayList<>(hits.size());
+
+        for (long[] hit : hits){
+            LogRecord record = log.readAt(hit[0], (int) hit[1]);
+
+            if(record != null)
+                records.add(record);
+        }
+
+        return records;
+    }
+
+    /**
+     * Procura no bloco as mensagens que contém todos os termos, da mais recente para a mais antiga,
+     * percorrendo a menor lista de sequências e procurando as demais por busca binária.
+     *
+     * @param chunk bloco do índice.
+     * @param terms termos da consulta.
+     * @param query consulta, usada para o intervalo de tempo e o limite.
+     * @param hits sequências e posições encontradas.
+     */
+    private static void collect(IndexChunk chunk, List<String> terms, SearchQuery query, List<long[]> hits) {
+
+        if(chunk.size() == 0 || hits.size() >= query.getLimit())
+            return;
+
+        long first = chunk.getFirstSequence();
+        long low = first + lowerBound(chunk, query.getSince());
+        long high = first + lowerBound(chunk, query.getUntil());
+
+        if(low >= high)
+            return;
+
+        List<IndexChunk.Postings> lists = new ArrayList<>(terms.size());
+
+        for (String term : terms){
+            IndexChunk.Postings postings = chunk.postings(term);
+
+            if(postings.size() == 0)
+                return;
+
+            lists.add(postings);
+        }
+
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        IndexChunk.Postings smallest = lists.get(0);
+
+        for (int i = search(smallest, high) - 1; i >= 0 && hits.size() < query.getLimit(); i--){
+
+            long sequence = smallest.get(i);
+
+            if(sequence < low)
+                break;
+
+            boolean matches = true;
+
+            for (int j = 1; j < lists.size() && matches; j++){
+                IndexChunk.Postings other = lists.get(j);
+                int index = search(other, sequence);
+                matches = index < other.size() && other.get(index) == sequence;
+            }
+
+            if(matches)
+                hits.add(new long[]{sequence, chunk.position((int) (sequence - first))});
+        }
+    }
+
+    /**
+     * Primeira posição da lista com sequência maior ou igual à informada.
+     *
+     * @param postings lista de sequências.
+     * @param sequence sequência procurada.
+     *
+     * @return posição na lista.
+     */
+    private static int search(IndexChunk.Postings postings, long sequence) {
+
+        int low = 0;
+        int high = postings.size();
+
+        while (low < high){
+            int middle = (low + high) >>> 1;
+
+            if(postings.get(middle) < sequence){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Primeiro registro do bloco com momento maior ou igual ao informado, os registros são gravados
+     * em ordem de momento.
+     *
+     * @param chunk bloco do índice.
+     * @param timestamp momento procurado.
+     *
+     * @return posição do registro no bloco.
+     */
+    private static int lowerBound(IndexChunk chunk, long timestamp) {
+
+        int low = 0;
+        int high = chunk.size();
+
+        while (low < high){
+            int middle = (low + high) >>> 1;
+
+            if(chunk.timestamp(middle) < timestamp){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Aguarda a gravação dos blocos completos, o bloco em memória não é gravado, seus registros
+     * são indexados novamente a partir do log ao abrir o índice.
+     */
+    @Override
+    public void close() {
+
+        synchronized (this){
+            closed = true;
+        }
+
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
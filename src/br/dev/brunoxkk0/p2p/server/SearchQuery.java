@@ -0,0 +1,236 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Consulta ao {@link SearchIndex}, restrita a uma sala, combinando palavras, o autor e um intervalo de tempo.
+ * Todas as condições informadas precisam ser atendidas.
+ */
+public class SearchQuery {
+
+    /**
+     * Quantidade padrão de resultados.
+     */
+    public static final int DEFAULT_LIMIT = 20;
+
+    /**
+     * Sala onde a busca é feita.
+     */
+    private final String room;
+
+    /**
+     * Palavras que a mensagem precisa conter, já normalizadas.
+     */
+    private final Set<String> words = new LinkedHashSet<>();
+
+    /**
+     * Autor da mensagem, ou null para qualquer autor.
+     */
+    private String user;
+
+    /**
+     * Momento inicial, inclusivo, em milissegundos desde a época Unix.
+     */
+    private long since = Long.MIN_VALUE;
+
+    /**
+     * Momento final, exclusivo, em milissegundos desde a época Unix.
+     */
+    private long until = Long.MAX_VALUE;
+
+    /**
+     * Quantidade máxima de resultados.
+     */
+    private int limit = DEFAULT_LIMIT;
+
+    public SearchQuery(String room) {
+        this.room = room;
+    }
+
+    /**
+     * Lê a consulta digitada no /search, no formato "palavras... from:usuario since:data until:data",
+     * as datas no formato AAAA-MM-DD ou AAAA-MM-DDTHH:MM, no fuso horário do servidor, sendo o until
+     * de uma data sem horário inclusivo.
+     *
+     * @param room sala onde a busca é feita.
+     * @param text texto da consulta.
+     *
+     * @return consulta lida.
+     *
+     * @throws IllegalArgumentException caso alguma data seja inválida.
+     */
+    public static SearchQuery parse(String room, String text) {
+
+        SearchQuery query = new SearchQuery(room);
+
+        for (String token : text.trim().split("\\s+")){
+
+            String lower = token.toLowerCase(Locale.ROOT);
+
+            if(lower.startsWith("from:") && token.length() > 5){
+                query.setUser(token.substring(5));
+            } else if(lower.startsWith("since:")){
+                query.setSince(parseTime(token.substring(6), false));
+            } else if(lower.startsWith("until:")){
+                query.setUntil(parseTime(token.substring(6), true));
+            } else {
+                query.words.addAll(SearchIndex.tokenize(token));
+            }
+        }
+
+        return query;
+    }
+
+    private static long parseTime(String value, boolean endOfDay) {
+
+        ZoneId zone = ZoneId.systemDefault();
+
+        try {
+            return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+        }
+
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return (endOfDay ? date.plusDays(1) : date).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + value);
+        }
+    }
+
+    /**
+     * Termos que a mensagem precisa conter, com o prefixo de cada campo.
+     *
+     * @return termos da consulta.
+     */
+    List<String> terms() {
+
+        List<String> terms = new ArrayList<>();
+        terms.add(SearchIndex.ROOM_FIELD + room.toLowerCase(Locale.ROOT));
+
+        if(user != null)
+            terms.add(SearchIndex.USER_FIELD + user.toLowerCase(Locale.ROOT));
+
+        for (String word : words)
+            terms.add(SearchIndex.WORD_FIELD + word);
+
+        return terms;
+    }
+
+    /**
+     * Retorna a sala onde a busca é feita.
+     *
+     * @return nome da sala.
+     */
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * Acrescenta as palavras do texto informado à consulta.
+     *
+     * @param text palavras que a mensagem precisa conter.
+     *
+     * @return a própria consulta.
+     */
+    public SearchQuery addWords(String text) {
+        words.addAll(SearchIndex.tokenize(text));
+        return this;
+    }
+
+    /**
+     * Retorna o autor das mensagens.
+     *
+     * @return nome do autor, ou null.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Define o autor das mensagens.
+     *
+     * @param user nome do autor, ou null para qualquer autor.
+     *
+     * @return a própria consulta.
+     */
+    public SearchQuery setUser(String user) {
+        this.user = user;
+        return this;
+    }
+
+    /**
+     * Retorna o momento inicial, inclusivo.
+     *
+     * @return milissegundos desde a época Unix.
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Define o momento inicial, inclusivo.
+     *
+     * @param since milissegundos desde a época Unix.
+     *
+     * @return a própria consulta.
+     */
+    public SearchQuery setSince(long since) {
+        this.since = since;
+        return this;
+    }
+
+    /**
+     * Retorna o momento final, exclusivo.
+     *
+     * @return milissegundos desde a época Unix.
+     */
+    public long getUntil() {
+        return until;
+    }
+
+    /**
+     * Define o momento final, exclusivo.
+     *
+     * @param until milissegundos desde a época Unix.
+     *
+     * @return a própria consulta.
+     */
+    public SearchQuery setUntil(long until) {
+        this.until = until;
+        return this;
+    }
+
+    /**
+     * Retorna a quantidade máxima de resultados.
+     *
+     * @return quantidade máxima de resultados.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Define a quantidade máxima de resultados.
+     *
+     * @param limit quantidade máxima de resultados.
+     *
+     * @return a própria consulta.
+     */
+    public SearchQuery setLimit(int limit) {
+        if(limit <= 0)
+            throw new IllegalArgumentException("Limit must be positive");
+
+        this.limit = limit;
+        return this;
+    }
+
+}
@@ -1,14 +1,50 @@
 package br.dev.brunoxkk0.p2p.server;
 
-import java.io.BufferedWriter;
+import br.dev.brunoxkk0.p2p.common.BufferPool;
+import br.dev.brunoxkk0.p2p.common.FrameType;
+import br.dev.brunoxkk0.p2p.common.Frames;
+import br.dev.brunoxkk0.p2p.common.GroupKey;
+
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Server extends Thread {
 
+    /**
+     * Quantidade padrão de destinatários a partir da qual a entrega é feita em paralelo.
+     */
+    public static final int DEFAULT_PARALLEL_FAN_OUT_THRESHOLD = 512;
+
+    /**
+     * Quantidade de registros do {@link MessageLog} lidos ao preencher o histórico de uma sala recém criada.
+     */
+    private static final int HISTORY_SEED_WINDOW = 10_000;
+
+    /**
+     * Formato do momento das mensagens encontradas pelo /search.
+     */
+    private static final DateTimeFormatter SEARCH_TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm").withZone(ZoneId.systemDefault());
+
     /**
      * Logger default do servidor.
      */
@@ -24,15 +60,120 @@ public class Server extends Thread {
      */
     private final String host;
 
+    /**
+     * Canal do servidor.
+     */
+    private final ServerSocketChannel serverChannel;
+
     /**
      * Socket do servidor.
      */
     private final ServerSocket serverSocket;
 
     /**
-     * Lista para manter as conexões recebidas do servidor.
+     * Modo como as conexões são tratadas.
+     */
+    private final ServerMode mode;
+
+    /**
+     * Executor responsável por rodar o loop de leitura de cada conexão, não utilizado no modo {@link ServerMode#SELECTOR}.
+     */
+    private final Executor executor;
+
+    /**
+     * Log persistente das mensagens, nulo caso o histórico esteja desabilitado.
+     */
+    private volatile MessageLog messageLog;
+
+    /**
+     * Índice usado pelo /search, nulo caso a busca esteja desabilitada.
+     */
+    private volatile SearchIndex searchIndex;
+
+    /**
+     * Configurações aplicadas às novas conexões.
+     */
+    private final ConnectionSettings settings = new ConnectionSettings();
+
+    /**
+     * Pool usado para dividir a entrega das mensagens entre vários núcleos, nulo para entregar sempre na thread de origem,
+     * próprio do servidor por padrão, ver {@link ConnectionExecutors#fanOutPool()}.
+     */
+    private ForkJoinPool fanOutPool = ConnectionExecutors.fanOutPool();
+
+    /**
+     * Quantidade mínima de destinatários para que a entrega seja feita em paralelo.
+     */
+    private int parallelFanOutThreshold = DEFAULT_PARALLEL_FAN_OUT_THRESHOLD;
+
+    /**
+     * Latência de cada disparo, do início da entrega até a mensagem estar na fila de todos os destinatários.
+     */
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+
+    /**
+     * Quantidade máxima de membros de uma sala para que as entradas e saídas sejam avisadas a todos os membros.
+     */
+    private volatile int announcementLimit = Integer.MAX_VALUE;
+
+    /**
+     * Uma a cada quantas entregas é registrada em {@link Level#FINE}, 0 para não registrar as entregas.
+     */
+    private volatile int deliveryTraceRate;
+
+    /**
+     * Métricas do servidor e das conexões.
+     */
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * Endpoint que expõe as métricas no formato do Prometheus, nulo caso esteja desabilitado.
+     */
+    private MetricsEndpoint metricsEndpoint;
+
+    /**
+     * Nó do cluster, null enquanto o servidor não faz parte de um cluster.
+     */
+    private volatile ClusterNode cluster;
+
+    /**
+     * Coloca o servidor em um cluster, escutando os outros nós na porta informada e repassando a eles as mensagens
+     * e avisos das salas, assim os usuários de uma sala veem as mesmas mensagens em qualquer nó, ver {@link ClusterNode}.
+     * Nomes de usuário, mensagens privadas e o /rooms continuam locais a cada nó.
+     *
+     * @param port porta do cluster, ou 0 para uma porta escolhida pelo sistema.
+     * @param peers endereços dos outros nós, pode conter o próprio nó.
+     *
+     * @return nó do cluster.
+     *
+     * @throws IOException caso ocorra algum erro ao dar bind na porta.
+     */
+    public synchronized ClusterNode startCluster(int port, List<InetSocketAddress> peers) throws IOException {
+
+        if(cluster == null)
+            cluster = new ClusterNode(getHost() + ":" + getPort(), host, port, peers, this::onClusterMessage);
+
+        return cluster;
+    }
+
+    /**
+     * Nó do cluster.
+     *
+     * @return nó do cluster, ou null caso o servidor não faça parte de um cluster.
      */
-    private final ArrayList<Connection> connections = new ArrayList<>();
+    public ClusterNode getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Salas do servidor.
+     */
+    private final RoomManager rooms = new RoomManager();
+
+    /**
+     * Registro das conexões recebidas pelo servidor.
+     */
+    private final ConnectionRegistry connections = new ConnectionRegistry();
 
 
     /**
@@ -54,12 +195,230 @@ public class Server extends Thread {
     }
 
     /**
-     * Porta do servidor.
+     * Modo como as conexões são tratadas pelo servidor.
+     *
+     * @return modo do servidor.
+     */
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Executor que roda as conexões do servidor.
+     *
+     * @return executor das conexões, ou null no modo {@link ServerMode#SELECTOR}.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Configurações aplicadas às novas conexões, como a fila de saída e a chave de grupo.
+     *
+     * @return configurações das conexões.
+     */
+    public ConnectionSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Define a capacidade da fila de saída das próximas conexões.
+     *
+     * @param outboundCapacity quantidade máxima de mensagens aguardando envio por conexão.
+     */
+    public void setOutboundCapacity(int outboundCapacity) {
+        settings.setOutboundCapacity(outboundCapacity);
+    }
+
+    /**
+     * Define a política aplicada quando a fila de saída das próximas conexões estiver cheia.
+     *
+     * @param overflowPolicy política de estouro da fila.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        settings.setOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * Define a janela de agrupamento das escritas das próximas conexões, ver {@link ConnectionSettings#setCoalesceWindowMicros(long)}.
+     *
+     * @param coalesceWindowMicros janela em microssegundos.
+     */
+    public void setCoalesceWindowMicros(long coalesceWindowMicros) {
+        settings.setCoalesceWindowMicros(coalesceWindowMicros);
+    }
+
+    /**
+     * Habilita o modo de chave de grupo para as próximas conexões, ver {@link ConnectionSettings#setGroupKeyEnabled(boolean)}.
+     *
+     * @param groupKeyEnabled true para habilitar o modo de chave de grupo.
+     */
+    public void setGroupKeyEnabled(boolean groupKeyEnabled) {
+        settings.setGroupKeyEnabled(groupKeyEnabled);
+    }
+
+    /**
+     * Define o pool de onde saem os buffers das mensagens enviadas, ver {@link ConnectionSettings#setBufferPool(BufferPool)}.
+     *
+     * @param bufferPool pool de buffers.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        settings.setBufferPool(bufferPool);
+    }
+
+    /**
+     * Retorna o log persistente das mensagens.
+     *
+     * @return log das mensagens, ou null caso esteja desabilitado.
+     */
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    /**
+     * Define o log persistente onde as mensagens, entradas e saídas das salas são registradas,
+     * o registro não espera pelo disco, ver {@link MessageLog}.
+     *
+     * @param messageLog log das mensagens, ou null para desabilitar.
+     */
+    public void setMessageLog(MessageLog messageLog) {
+        this.messageLog = messageLog;
+    }
+
+    /**
+     * Retorna o índice usado pelo /search.
+     *
+     * @return índice das mensagens, ou null caso a busca esteja desabilitada.
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Define o índice usado pelo /search, que deve indexar o {@link #getMessageLog()} do servidor.
+     *
+     * @param searchIndex índice das mensagens, ou null para desabilitar a busca.
+     */
+    public void setSearchIndex(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Define os limites do histórico reenviado a quem entra em uma sala, ver {@link RoomManager#setHistoryLimits(int, int)}.
+     *
+     * @param depth quantidade máxima de mensagens por sala, 0 desabilita o histórico.
+     * @param budget memória máxima estimada do histórico de cada sala, em bytes.
+     */
+    public void setHistoryLimits(int depth, int budget) {
+        rooms.setHistoryLimits(depth, budget);
+    }
+
+    /**
+     * Define a validade dos tickets de sessão emitidos às próximas conexões, ver {@link SessionTickets}.
+     * Cada chamada gera uma nova chave de tickets, invalidando os tickets já emitidos.
+     *
+     * @param lifetimeMillis validade dos tickets em milissegundos, ou 0 para desabilitar a retomada de sessão.
+     *
+     * @throws Exception caso ocorra algum erro ao gerar a chave dos tickets.
+     */
+    public void setSessionTicketLifetime(long lifetimeMillis) throws Exception {
+        settings.setSessionTickets((lifetimeMillis > 0) ? new SessionTickets(lifetimeMillis) : null);
+    }
+
+    /**
+     * Define como a entrega das mensagens é dividida entre os núcleos, quando uma mensagem possui
+     * ao menos a quantidade informada de destinatários, a criptografia e o enfileiramento de cada
+     * destinatário são feitos em paralelo no pool informado. Com o {@link OverflowPolicy#BLOCK} as threads do pool
+     * ficam bloqueadas pelos destinatários lentos, por isso o {@link ForkJoinPool#commonPool()} não deve ser usado.
+     *
+     * @param pool pool usado na entrega, ou null para entregar sempre na thread de origem.
+     * @param threshold quantidade mínima de destinatários para entregar em paralelo.
+     */
+    public void setParallelFanOut(ForkJoinPool pool, int threshold) {
+        this.fanOutPool = pool;
+        this.parallelFanOutThreshold = threshold;
+    }
+
+    /**
+     * Latência dos disparos de mensagens, do início da entrega até a mensagem estar na fila de todos os destinatários.
+     *
+     * @return histograma das latências.
+     */
+    public LatencyHistogram getFanOutLatency() {
+        return fanOutLatency;
+    }
+
+    /**
+     * Define até quantos membros uma sala tem as entradas e saídas avisadas a todos os membros, nas salas
+     * maiores somente quem entrou recebe o aviso. Cada aviso é entregue a toda a sala, assim encher uma sala
+     * de N membros custa N²/2 entregas só com os avisos, o limite mantém esse custo linear nas salas grandes.
+     *
+     * @param members quantidade máxima de membros para avisar as entradas e saídas.
+     */
+    public void setAnnouncementLimit(int members) {
+        if(members < 0)
+            throw new IllegalArgumentException("Announcement limit cannot be negative");
+
+        this.announcementLimit = members;
+    }
+
+    /**
+     * Habilita o registro das entregas de mensagens em {@link Level#FINE}, por amostragem, para que
+     * o custo do log não cresça com a quantidade de destinatários. Só tem efeito com o nível do
+     * {@link #getLogger()} em FINE ou abaixo.
+     *
+     * @param rate registra em média uma a cada rate entregas, 1 registra todas, 0 desabilita.
+     */
+    public void setDeliveryTraceRate(int rate) {
+        if(rate < 0)
+            throw new IllegalArgumentException("Trace rate cannot be negative");
+
+        this.deliveryTraceRate = rate;
+    }
+
+    /**
+     * Métricas do servidor, também expostas via JMX e pelo {@link #startMetricsEndpoint(int)}.
+     *
+     * @return métricas do servidor.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Começa a expor as métricas no formato texto do Prometheus em http://127.0.0.1:porta/metrics.
+     *
+     * @param port porta do endpoint, ou 0 para uma porta escolhida pelo sistema.
+     *
+     * @return endpoint das métricas.
+     *
+     * @throws IOException caso ocorra algum erro ao dar bind na porta.
+     */
+    public synchronized MetricsEndpoint startMetricsEndpoint(int port) throws IOException {
+
+        if(metricsEndpoint == null)
+            metricsEndpoint = new MetricsEndpoint(metrics, port);
+
+        return metricsEndpoint;
+    }
+
+    /**
+     * Salas do servidor.
+     *
+     * @return gerenciador de salas.
+     */
+    public RoomManager getRooms() {
+        return rooms;
+    }
+
+    /**
+     * Porta do servidor, caso tenha sido informada a porta 0, retorna a porta escolhida pelo sistema
+     * assim que o servidor estiver escutando.
      *
      * @return porta do servidor.
      */
     public int getPort() {
-        return port;
+        return (port == 0 && serverSocket != null) ? serverSocket.getLocalPort() : port;
     }
 
     /**
@@ -72,11 +431,11 @@ public class Server extends Thread {
     }
 
     /**
-     * Lista com as conexões recebidas pelo servidor.
+     * Registro com as conexões recebidas pelo servidor.
      *
-     * @return lista com todas as conexões.
+     * @return registro com todas as conexões.
      */
-    public ArrayList<Connection> getConnections() {
+    public ConnectionRegistry getConnections() {
         return connections;
     }
 
@@ -90,28 +449,99 @@ public class Server extends Thread {
      * @throws Exception caso ocorra algum erro ao dar bind no servidor.
      */
     public Server(int port, String host) throws Exception {
+        this(port, host, ServerMode.SELECTOR);
+    }
+
+    /**
+     * Servidor que vai ser usado para realizar a comunicação entre os clientes,
+     * ao ser criado realiza o bind() e fica disponível para receber conexões.
+     *
+     * @param port porta do servidor.
+     * @param host host do servidor.
+     * @param mode modo como as conexões serão tratadas.
+     *
+     * @throws Exception caso ocorra algum erro ao dar bind no servidor.
+     */
+    public Server(int port, String host, ServerMode mode) throws Exception {
+        this(port, host, mode, defaultExecutor(mode), false);
+    }
+
+    /**
+     * Servidor que vai ser usado para realizar a comunicação entre os clientes, rodando cada conexão
+     * no executor informado, permitindo usar threads de plataforma, virtuais ou um pool próprio,
+     * o modo reportado é {@link ServerMode#THREAD}.
+     *
+     * @param port porta do servidor.
+     * @param host host do servidor.
+     * @param executor executor que roda o loop de leitura de cada conexão.
+     *
+     * @throws Exception caso ocorra algum erro ao dar bind no servidor.
+     */
+    public Server(int port, String host, Executor executor) throws Exception {
+        this(port, host, ServerMode.THREAD, executor);
+    }
+
+    /**
+     * Servidor que vai ser usado para realizar a comunicação entre os clientes, rodando cada conexão
+     * no executor informado e reportando o modo indicado, ex: {@link ServerMode#VIRTUAL_THREAD} ao
+     * receber um executor de threads virtuais.
+     *
+     * @param port porta do servidor.
+     * @param host host do servidor.
+     * @param mode modo reportado pelo servidor, {@link ServerMode#THREAD} ou {@link ServerMode#VIRTUAL_THREAD}.
+     * @param executor executor que roda o loop de leitura de cada conexão.
+     *
+     * @throws Exception caso ocorra algum erro ao dar bind no servidor.
+     */
+    public Server(int port, String host, ServerMode mode, Executor executor) throws Exception {
+        this(port, host, mode, executor, true);
+    }
+
+    private Server(int port, String host, ServerMode mode, Executor executor, boolean checked) throws Exception {
+
+        if(checked && (mode == ServerMode.SELECTOR || executor == null))
+            throw new IllegalArgumentException("An executor requires THREAD or VIRTUAL_THREAD mode");
 
         this.port = port;
         this.host = (host != null) ? host : "127.0.0.1";
-        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+        this.mode = mode;
+        this.executor = executor;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverSocket = serverChannel.socket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName(this.host), port), 50);
+
+        this.settings.setSessionTickets(new SessionTickets(SessionTickets.DEFAULT_LIFETIME_MILLIS));
+        this.settings.setMetrics(metrics);
+        this.metrics.bind(connections, rooms, settings);
+
+        AsyncLogHandler.install(logger);
 
     }
 
     @Override
     public void run() {
 
-        logger.info("Server running on: " + getHost() + ":" + getPort());
+        logger.info(() -> "Server running on: " + getHost() + ":" + getPort() + " (" + mode + ")");
+
+        try {
+            metrics.register(getHost() + ":" + getPort());
+        } catch (Exception e) {
+            logger.warning("Could not register metrics MBean: " + e.getMessage());
+        }
+
+        if(mode == ServerMode.SELECTOR){
+            runSelector();
+            return;
+        }
 
         while (serverSocket.isBound() && !isInterrupted()){
 
             try {
 
-                Connection connection = new Connection(serverSocket.accept(), this::onRead, this::onJoin, this::onQuit);
-                connections.add(connection);
-                logger.info(connection.getSocket().getInetAddress() + " connected... (now we have " + connections.size() + " connections)");
+                Connection connection = accept(serverChannel.accept());
 
-                connection.setDaemon(false);
-                connection.start();
+                executor.execute(connection);
+                executor.execute(connection.getWriterTask());
             } catch (Exception e) {
                 logger.warning(e.getMessage());
             }
@@ -119,82 +549,696 @@ public class Server extends Thread {
     }
 
     /**
-     * Quando um novo cliente se conecta, esta função e chamada, e dispara para todos os outros clientes
-     * inclusive para ele mesmo que um novo cliente se conectou.
+     * Retorna o executor padrão para o modo informado.
+     *
+     * @param mode modo do servidor.
+     *
+     * @return executor das conexões, ou null no modo {@link ServerMode#SELECTOR}.
+     */
+    private static Executor defaultExecutor(ServerMode mode) {
+        switch (mode){
+            case THREAD:
+                return ConnectionExecutors.platformThreads();
+            case VIRTUAL_THREAD:
+                return ConnectionExecutors.virtualThreads();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Loop do modo {@link ServerMode#SELECTOR}, uma única thread aceita as conexões e
+     * realiza a leitura e escrita de todas elas, sendo acordada apenas quando há eventos.
+     */
+    private void runSelector() {
+
+        try (Selector selector = Selector.open()) {
+
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (serverChannel.isOpen() && !isInterrupted()){
+
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if(!key.isValid())
+                        continue;
+
+                    if(key.isAcceptable()){
+                        SocketChannel channel = serverChannel.accept();
+
+                        if(channel == null)
+                            continue;
+
+                        try {
+                            accept(channel).register(selector);
+                        } catch (Exception e) {
+                            logger.warning(e.getMessage());
+                        }
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+
+                    try {
+                        if(key.isReadable())
+                            connection.onReadable();
+
+                        if(key.isValid() && key.isWritable())
+                            connection.onWritable();
+                    } catch (Exception e) {
+                        connection.close();
+                    }
+                }
+            }
+
+        } catch (Exception e) {
+            logger.warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Cria a conexão para o canal aceito e adiciona na lista de conexões.
+     *
+     * @param channel canal aceito.
+     *
+     * @return conexão criada.
+     *
+     * @throws Exception caso ocorra algum erro ao criar a conexão.
+     */
+    private Connection accept(SocketChannel channel) throws Exception {
+
+        Connection connection = new Connection(channel, this::onRead, this::onJoin, this::onQuit, settings);
+        connections.add(connection);
+        logger.info(() -> connection.getSocket().getInetAddress() + " connected... (now we have " + connections.size() + " connections)");
+
+        return connection;
+    }
+
+    /**
+     * Quando um novo cliente se conecta, esta função e chamada, colocando o cliente na sala padrão
+     * e disparando para todos os outros clientes da sala, inclusive para ele mesmo, que um novo cliente se conectou.
      *
      * @param connection conexão do novo cliente.
      */
     private void onJoin(Connection connection){
-        sendToAll(connection, String.format("(%s entrou...)", connection.getUserName()), true);
+        String requested = connection.getUserName();
+
+        registerName(connection);
+
+        if(!connection.getUserName().equals(requested))
+            sendTo(connection, String.format("(o nome %s não pode ser usado, você será chamado de %s)", requested, connection.getUserName()));
+
+        Room room;
+
+        synchronized (connection.getMembershipLock()){
+
+            /* A conexão pode ter sido encerrada por outra thread, o onQuit já rodou e não a removeria da sala.*/
+            if(connection.isClosed())
+                return;
+
+            room = rooms.join(connection, RoomManager.DEFAULT_ROOM);
+        }
+
+        rotateGroupKey(room, connection);
+        replayHistory(room, connection);
+
+        record(LogRecordType.JOIN, room.getName(), connection, null);
+        announce(room, connection, String.format("(%s entrou...)", connection.getUserName()), true);
     }
 
     /**
      * Quando um novo cliente se desconecta, esta função e chamada, e dispara para todos os outros clientes
-     * que o cliente se desconectou.
+     * da sala que o cliente se desconectou.
      *
      * @param connection conexão do novo cliente.
      */
     private void onQuit(Connection connection){
-        sendToAll(connection, String.format("(%s saiu...)", connection.getUserName()));
+        if(!connections.remove(connection) || connection.getUserName() == null)
+            return;
+
+        Room room;
+
+        synchronized (connection.getMembershipLock()){
+            room = rooms.leave(connection);
+        }
+
+        if(room == null)
+            return;
+
+        rotateGroupKey(room, connection);
+
+        record(LogRecordType.LEAVE, room.getName(), connection, null);
+        announce(room, connection, String.format("(%s saiu...)", connection.getUserName()), false);
     }
 
     /**
-     * Quando um cliente manda uma mensagem, esta função é chama, pegando a mensagem e disparando para todos os clientes.
+     * Quando um cliente manda uma mensagem, esta função é chama, executando o comando caso a mensagem
+     * comece com "/", ou disparando a mensagem para todos os clientes da sala do cliente.
      *
      * @param connection conexão do novo cliente.
      * @param message mensagem a ser disparada a todos os clientes.
      */
     private void onRead(Connection connection, String message){
-        logger.info(connection.getUserName() + " send a Message...");
-        sendToAll(connection, String.format("[%s] -> %s", connection.getUserName(), message));
+
+        if(message.startsWith("/")){
+            onCommand(connection, message);
+            return;
+        }
+
+        Room room = connection.getRoom();
+
+        if(room == null)
+            return;
+
+        logger.fine(() -> connection.getUserName() + " send a Message...");
+        String line = "[" + connection.getUserName() + "] -> " + message;
+
+        room.getHistory().add(record(LogRecordType.MESSAGE, room.getName(), connection, message), line);
+        sendToRoom(room, connection, line, false, connection.getReceivedAt());
+
+        ClusterNode node = cluster;
+
+        if(node != null)
+            node.publish(ClusterMessageType.MESSAGE, room.getName(), connection.getUserName(), message);
+    }
+
+    /**
+     * Quando um nó do cluster repassa uma mensagem ou aviso de uma sala, esta função é chamada, entregando
+     * aos membros locais da sala, as mensagens também entram no histórico e no log deste nó.
+     *
+     * @param type tipo da mensagem.
+     * @param name nome da sala.
+     * @param user nome do remetente, vazio nos avisos.
+     * @param text texto da mensagem, ou o aviso completo.
+     */
+    private void onClusterMessage(ClusterMessageType type, String name, String user, String text){
+
+        if(type == ClusterMessageType.MESSAGE){
+
+            String line = "[" + user + "] -> " + text;
+            long sequence = record(LogRecordType.MESSAGE, name, user, text);
+            Room room = rooms.get(name);
+
+            if(room == null)
+                return;
+
+            room.getHistory().add(sequence, line);
+            sendToRoom(room, null, line, false);
+            return;
+        }
+
+        Room room = rooms.get(name);
+
+        if(room != null && room.getMembers().size() <= announcementLimit)
+            sendToRoom(room, null, text, false);
+    }
+
+    /**
+     * Executa um comando enviado pelo cliente.
+     * <ul>
+     *     <li>/join sala - sai da sala atual e entra na sala informada, criando-a caso não exista.</li>
+     *     <li>/leave - sai da sala atual e volta para a sala padrão.</li>
+     *     <li>/rooms - lista as salas existentes e a quantidade de membros.</li>
+     *     <li>/msg usuario texto - envia uma mensagem privada ao usuário informado, em qualquer sala.</li>
+     *     <li>/search palavras from:usuario since:data until:data - busca as mensagens da sala atual.</li>
+     * </ul>
+     *
+     * @param connection conexão que enviou o comando.
+     * @param message comando completo.
+     */
+    private void onCommand(Connection connection, String message){
+
+        String[] args = message.trim().split("\\s+", 2);
+
+        switch (args[0].toLowerCase()){
+            case "/join":
+                if(args.length < 2 || !RoomManager.isValidName(args[1])){
+                    sendTo(connection, "(uso: /join <sala>, apenas letras, números, _ e -, até 32 caracteres)");
+                    return;
+                }
+
+                changeRoom(connection, args[1]);
+                return;
+            case "/leave":
+                changeRoom(connection, RoomManager.DEFAULT_ROOM);
+                return;
+            case "/rooms":
+                StringBuilder builder = new StringBuilder("(salas:");
+
+                for (Room room : rooms.getSortedRooms()){
+                    builder.append(' ').append(room.getName()).append(" [").append(room.getMembers().size()).append(']');
+                }
+
+                sendTo(connection, builder.append(')').toString());
+                return;
+            case "/msg":
+                String[] parts = (args.length > 1) ? args[1].split("\\s+", 2) : new String[0];
+
+                if(parts.length < 2){
+                    sendTo(connection, "(uso: /msg <usuario> <mensagem>)");
+                    return;
+                }
+
+                sendPrivate(connection, parts[0], parts[1]);
+                return;
+            case "/search":
+                search(connection, (args.length > 1) ? args[1] : "");
+                return;
+            default:
+                sendTo(connection, "(comando desconhecido: " + args[0] + ")");
+        }
+    }
+
+    /**
+     * Move o cliente para a sala informada, avisando os membros da sala antiga e da nova.
+     *
+     * @param connection conexão do cliente.
+     * @param name nome da nova sala.
+     */
+    private void changeRoom(Connection connection, String name){
+
+        Room current = connection.getRoom();
+
+        if(current != null && current.getName().equals(name)){
+            sendTo(connection, String.format("(você já está na sala %s)", name));
+            return;
+        }
+
+        Room old;
+        Room room;
+
+        synchronized (connection.getMembershipLock()){
+
+            /* Encerrada entre a leitura do comando e a troca, ver onJoin.*/
+            if(connection.isClosed())
+                return;
+
+            old = rooms.leave(connection);
+            room = rooms.join(connection, name);
+        }
+
+        if(old != null){
+            rotateGroupKey(old, connection);
+            record(LogRecordType.LEAVE, old.getName(), connection, null);
+            announce(old, connection, String.format("(%s saiu da sala...)", connection.getUserName()), false);
+        }
+
+        rotateGroupKey(room, connection);
+        replayHistory(room, connection);
+
+        record(LogRecordType.JOIN, room.getName(), connection, null);
+        announce(room, connection, String.format("(%s entrou na sala %s...)", connection.getUserName(), room.getName()), true);
+    }
+
+    /**
+     * Associa o nome do cliente à conexão no registro, o nome tem os espaços substituídos por "_",
+     * para que possa ser usado no /msg, e caso ja esteja em uso recebe um sufixo numérico.
+     *
+     * @param connection conexão do cliente.
+     */
+    private void registerName(Connection connection){
+
+        String base = connection.getUserName().trim().replaceAll("\\s+", "_");
+
+        if(base.isEmpty())
+            base = "anon";
+
+        connection.setUserName(base);
+
+        for (int i = 2; !connections.bindName(connection); i++){
+            connection.setUserName(base + "-" + i);
+        }
+    }
+
+    /**
+     * Busca as mensagens da sala atual do cliente no {@link #searchIndex} e envia os resultados,
+     * da mais antiga para a mais recente.
+     *
+     * @param connection conexão que fez a busca.
+     * @param text consulta, ver {@link SearchQuery#parse(String, String)}.
+     */
+    private void search(Connection connection, String text){
+
+        SearchIndex index = searchIndex;
+        Room room = connection.getRoom();
+
+        if(index == null || room == null){
+            sendTo(connection, "(a busca não está habilitada neste servidor)");
+            return;
+        }
+
+        List<LogRecord> results;
+
+        try {
+            results = index.search(SearchQuery.parse(room.getName(), text));
+        } catch (IllegalArgumentException e) {
+            sendTo(connection, "(uso: /search <palavras> from:<usuario> since:<AAAA-MM-DD> until:<AAAA-MM-DD>)");
+            return;
+        } catch (IOException e) {
+            logger.warning(e.getMessage());
+            sendTo(connection, "(não foi possível concluir a busca)");
+            return;
+        }
+
+        sendTo(connection, String.format("(busca: %d mensagens encontradas em %s)", results.size(), room.getName()));
+
+        for (int i = results.size() - 1; i >= 0; i--){
+            LogRecord record = results.get(i);
+            sendTo(connection, String.format("[%s] [%s] -> %s", SEARCH_TIME_FORMAT.format(Instant.ofEpochMilli(record.getTimestamp())), record.getUser(), record.getText()));
+        }
     }
 
     /**
-     * Dispara a mensagem para todos os clientes conectados, ignorando o cliente de origem.
+     * Envia uma mensagem privada, o destinatário é encontrado pelo índice de nomes do registro,
+     * em tempo constante independente da quantidade de clientes conectados.
      *
      * @param connection conexão de origem.
+     * @param userName nome do destinatário.
      * @param message mensagem.
      */
-    private void sendToAll(Connection connection, String message){
-        sendToAll(connection, message, false);
+    private void sendPrivate(Connection connection, String userName, String message){
+
+        Connection target = connections.getByName(userName);
+
+        if(target == null || target.isClosed()){
+            sendTo(connection, String.format("(usuário %s não encontrado)", userName));
+            return;
+        }
+
+        record(LogRecordType.PRIVATE, target.getUserName(), connection, message);
+        sendTo(target, String.format("[%s] (privado) -> %s", connection.getUserName(), message));
+
+        if(target != connection)
+            sendTo(connection, String.format("[para %s] (privado) -> %s", target.getUserName(), message));
+    }
+
+    /**
+     * Registra o evento no {@link #messageLog}, caso esteja habilitado, uma falha no log não impede a entrega da mensagem.
+     *
+     * @param type tipo do registro.
+     * @param room sala, ou destinatário nas mensagens privadas.
+     * @param connection conexão que originou o evento.
+     * @param message texto da mensagem, ou null.
+     *
+     * @return sequência do registro, ou 0 caso o log esteja desabilitado ou ocorra algum erro.
+     */
+    private long record(LogRecordType type, String room, Connection connection, String message){
+        return record(type, room, connection.getUserName(), message);
+    }
+
+    /**
+     * Registra o evento no {@link #messageLog}, ver {@link #record(LogRecordType, String, Connection, String)}.
+     *
+     * @param type tipo do registro.
+     * @param room sala, ou destinatário nas mensagens privadas.
+     * @param user nome do usuário que originou o evento.
+     * @param message texto da mensagem, ou null.
+     *
+     * @return sequência do registro, ou 0 caso o log esteja desabilitado ou ocorra algum erro.
+     */
+    private long record(LogRecordType type, String room, String user, String message){
+
+        MessageLog log = messageLog;
+
+        if(log == null)
+            return 0;
+
+        try {
+            return log.append(type, room, user, message);
+        } catch (IOException e) {
+            logger.warning(e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Reenvia as últimas mensagens da sala ao cliente que acabou de entrar, criptografadas com a chave do cliente.
+     * As mensagens vêm do {@link RoomHistory} em memória, o {@link #messageLog} só é lido quando a sala
+     * acabou de ser criada, como depois de reiniciar o servidor ou quando uma sala vazia é recriada.
+     *
+     * @param room sala em que o cliente entrou.
+     * @param connection conexão do cliente.
+     */
+    private void replayHistory(Room room, Connection connection){
+
+        RoomHistory history = room.getHistory();
+        MessageLog log = messageLog;
+
+        if(log != null){
+            synchronized (history){
+                if(history.startSeed()){
+                    try {
+                        log.read(Math.max(1, log.getLastSequence() - HISTORY_SEED_WINDOW), record -> {
+                            if(record.getType() == LogRecordType.MESSAGE && room.getName().equals(record.getRoom()))
+                                history.add(record.getSequence(), String.format("[%s] -> %s", record.getUser(), record.getText()));
+                        });
+                    } catch (IOException e) {
+                        logger.warning(e.getMessage());
+                    }
+                }
+            }
+        }
+
+        for (String message : history.snapshot()){
+            sendTo(connection, message);
+        }
     }
 
     /**
-     * Dispara a mensagem recebida para todos os clientes conectados, como cada conexão tem sua chave AES
-     * a função chama a função de encrypt e criptógrafa a mensagem para cada cliente de maneira única.
+     * Envia uma mensagem somente para o cliente informado.
      *
+     * @param connection conexão do cliente.
+     * @param message mensagem.
+     */
+    private void sendTo(Connection connection, String message){
+        try {
+            connection.sendMessage(message);
+        } catch (Exception e) {
+            connection.close();
+            logger.warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Avisa a entrada ou saída de um cliente aos membros da sala, ou somente ao próprio cliente
+     * quando a sala tem mais membros que o {@link #announcementLimit}, e repassa o aviso aos nós do cluster.
+     *
+     * @param room sala de destino.
+     * @param connection conexão que entrou ou saiu.
+     * @param message aviso.
+     * @param self quando marcado com true, envia o aviso também para a conexão que entrou ou saiu.
+     */
+    private void announce(Room room, Connection connection, String message, boolean self){
+
+        if(room.getMembers().size() <= announcementLimit){
+            sendToRoom(room, connection, message, self);
+        } else if(self){
+            sendTo(connection, message);
+        }
+
+        ClusterNode node = cluster;
+
+        if(node != null)
+            node.publish(ClusterMessageType.ANNOUNCEMENT, room.getName(), null, message);
+    }
+
+    /**
+     * Dispara a mensagem para os membros da sala informada, percorrendo somente os membros da sala,
+     * assim o custo do disparo é proporcional ao tamanho da sala e não a quantidade de conexões do servidor.
+     *
+     * @param room sala de destino.
+     * @param connection conexão de origem.
+     * @param message mensagem a ser disparada.
+     * @param self quando marcado com true, envia a mensagem para a conexão de origem junto aos outros clientes.
+     */
+    private void sendToRoom(Room room, Connection connection, String message, boolean self){
+        sendToRoom(room, connection, message, self, 0);
+    }
+
+    /**
+     * Dispara a mensagem para os membros da sala informada, como o {@link #sendToRoom(Room, Connection, String, boolean)},
+     * medindo a latência de entrega a partir do momento em que a mensagem foi recebida.
+     *
+     * @param room sala de destino.
+     * @param connection conexão de origem.
+     * @param message mensagem a ser disparada.
+     * @param self quando marcado com true, envia a mensagem para a conexão de origem junto aos outros clientes.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir.
+     */
+    private void sendToRoom(Room room, Connection connection, String message, boolean self, long receivedAt){
+        broadcast(room.getMembers().snapshot(), room.getGroupKey(), connection, message, self, receivedAt);
+    }
+
+    /**
+     * Dispara a mensagem recebida para os destinatários informados, como cada conexão tem sua chave AES
+     * a função chama a função de encrypt e criptógrafa a mensagem para cada cliente de maneira única,
+     * exceto para os clientes que possuem a chave de grupo atual, para estes a mensagem é criptografada
+     * uma única vez e o mesmo frame é enviado a todos. A mensagem é codificada uma única vez para todos os destinatários.
+     *
+     * @param recipients destinatários.
+     * @param groupKey chave de grupo dos destinatários, ou null.
      * @param connection conexão de origem.
      * @param message mensagem a ser dispara a todos.
      * @param self quando marcado com true, envia a mensagem para a conexão de origem junto aos outros clientes.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir a latência.
      */
-    private void sendToAll(Connection connection, String message, boolean self){
-        Iterator<Connection> connectionIterator = connections.iterator();
+    private void broadcast(Connection[] recipients, GroupKey groupKey, Connection connection, String message, boolean self, long receivedAt){
+
+        long start = System.nanoTime();
 
-        while (connectionIterator.hasNext()){
-            Connection con = connectionIterator.next();
+        byte[] plain = message.getBytes(StandardCharsets.UTF_8);
+        BufferPool bufferPool = settings.getBufferPool();
 
-            if(con.equals(connection) && !self)
-                continue;
+        GroupKey currentKey = groupKey;
+        ByteBuffer groupFrame = null;
 
-            BufferedWriter bufferedWriter = con.getWriter();
+        if(currentKey != null){
+            try {
+                groupFrame = Frames.encrypt(FrameType.GROUP_MESSAGE, currentKey, ByteBuffer.wrap(plain), bufferPool);
+                metrics.getEncryptTime().record(System.nanoTime() - start);
+            } catch (Exception e) {
+                logger.warning(e.getMessage());
+                currentKey = null;
+            }
+        }
+
+        GroupKey key = currentKey;
+        ByteBuffer frame = groupFrame;
+
+        if(fanOutPool != null && recipients.length >= parallelFanOutThreshold){
+            fanOutPool.invoke(new FanOutTask(recipients, 0, recipients.length, con -> deliver(connection, con, plain, self, key, frame, receivedAt)));
+        } else {
+            for (Connection con : recipients){
+                deliver(connection, con, plain, self, key, frame, receivedAt);
+            }
+        }
+
+        if(frame != null)
+            bufferPool.release(frame);
+
+        fanOutLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Entrega a mensagem para um dos destinatários de um disparo, utilizando o frame criptografado
+     * com a chave de grupo caso o destinatário a possua, ou criptografando com a chave da conexão.
+     *
+     * @param connection conexão de origem, ou null para as mensagens repassadas pelo cluster.
+     * @param con destinatário.
+     * @param plain mensagem a ser entregue, codificada em {@link StandardCharsets#UTF_8}.
+     * @param self quando marcado com true, entrega a mensagem também para a conexão de origem.
+     * @param groupKey chave de grupo usada no frame, ou null.
+     * @param groupFrame frame criptografado com a chave de grupo, ou null.
+     * @param receivedAt momento, em {@link System#nanoTime()}, em que a mensagem foi recebida, ou 0 para não medir a latência.
+     */
+    private void deliver(Connection connection, Connection con, byte[] plain, boolean self, GroupKey groupKey, ByteBuffer groupFrame, long receivedAt){
+
+        if((con.equals(connection) && !self) || con.getUserName() == null)
+            return;
+
+        try {
+            if(groupKey != null && con.hasGroupKey(groupKey.getEpoch())){
+                con.send(groupFrame, receivedAt);
+            } else {
+                con.sendMessage(plain, receivedAt);
+            }
+
+            int rate = deliveryTraceRate;
+
+            if(rate > 0 && logger.isLoggable(Level.FINE) && (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0))
+                logger.fine("message from " + ((connection != null) ? connection.getUserName() : "cluster") + " send to " + con.getUserName());
+        } catch (Exception e) {
+            con.close();
+            logger.warning(e.getMessage());
+        }
+    }
 
-            if(bufferedWriter != null){
-                try {
-                    bufferedWriter.write(con.encrypt(message) + "\r\n");
-                    bufferedWriter.flush();
-                    logger.info("message from " + connection.getUserName() + " send to " + con.getUserName());
-                } catch (Exception e) {
-                    connectionIterator.remove();
-                    onQuit(con);
-                    logger.warning(e.getMessage());
+    /**
+     * Gera uma nova chave de grupo para a sala e envia aos membros que a suportam, chamada quando
+     * um cliente que suporta a chave de grupo entra ou sai da sala, assim quem saiu não consegue ler
+     * as próximas mensagens e quem entrou não consegue ler as anteriores.
+     *
+     * @param room sala que teve os membros alterados.
+     * @param changed conexão que entrou ou saiu da sala.
+     */
+    private void rotateGroupKey(Room room, Connection changed) {
+
+        if(!changed.isGroupMember())
+            return;
+
+        synchronized (room){
+            try {
+                GroupKey newKey = GroupKey.generate(rooms.nextEpoch());
+
+                for (Connection con : room.getMembers().snapshot()){
+                    if(con.isGroupMember() && con.getUserName() != null && !con.isClosed()){
+                        try {
+                            con.sendGroupKey(newKey);
+                        } catch (Exception e) {
+                            logger.warning(e.getMessage());
+                        }
+                    }
                 }
+
+                room.setGroupKey(newKey);
+            } catch (Exception e) {
+                logger.warning(e.getMessage());
             }
         }
     }
 
     public static void main(String[] args) throws Exception {
 
-        Server server = new Server(1234, "127.0.0.1");
+        ServerMode mode = (args.length > 0) ? ServerMode.valueOf(args[0].toUpperCase()) : ServerMode.SELECTOR;
+
+        if(mode == ServerMode.VIRTUAL_THREAD && !ConnectionExecutors.isVirtualThreadSupported()){
+            Logger.getLogger("Server").warning("Virtual threads require Java 21+, falling back to " + ServerMode.THREAD);
+            mode = ServerMode.THREAD;
+        }
+
+        Server server = new Server(Integer.getInteger("p2p.port", 1234), "127.0.0.1", mode);
+
+        String logDirectory = System.getProperty("p2p.log.dir");
+
+        if(logDirectory != null){
+            MessageLog log = new MessageLog(Paths.get(logDirectory));
+            server.setMessageLog(log);
+            server.setSearchIndex(new SearchIndex(log, Paths.get(logDirectory, "index")));
+        }
+
+        String traceRate = System.getProperty("p2p.trace.rate");
+
+        if(traceRate != null){
+            server.setDeliveryTraceRate(Integer.parseInt(traceRate));
+            server.getLogger().setLevel(Level.FINE);
+
+            for (Handler handler : Logger.getLogger("").getHandlers()){
+                handler.setLevel(Level.FINE);
+            }
+        }
+
+        String announcementLimit = System.getProperty("p2p.announce.limit");
+
+        if(announcementLimit != null)
+            server.setAnnouncementLimit(Integer.parseInt(announcementLimit));
+
+        String metricsPort = System.getProperty("p2p.metrics.port");
+
+        if(metricsPort != null)
+            server.startMetricsEndpoint(Integer.parseInt(metricsPort));
+
+        String clusterPort = System.getProperty("p2p.cluster.port");
+
+        if(clusterPort != null)
+            server.startCluster(Integer.parseInt(clusterPort), ClusterNode.parsePeers(System.getProperty("p2p.cluster.peers", "")));
+
         server.setDaemon(false);
         server.start();
 
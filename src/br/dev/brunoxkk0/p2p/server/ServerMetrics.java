@@ -0,0 +1,547 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import br.dev.brunoxkk0.p2p.common.BufferPool;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas do servidor, contadores e histogramas atualizados pelas conexões sem travas, e medidas
+ * calculadas a partir das conexões e salas no momento da leitura. Expostas via JMX, ver {@link #register(String)},
+ * e no formato texto do Prometheus, ver {@link #toPrometheus()} e {@link MetricsEndpoint}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    /**
+     * Domínio dos MBeans registrados pelo servidor.
+     */
+    public static final String JMX_DOMAIN = "br.dev.brunoxkk0.p2p";
+
+    /**
+     * Método getTotalThreadAllocatedBytes, disponível a partir do Java 14, buscado via reflexão
+     * para que o código continue compilando e rodando nas versões anteriores.
+     */
+    private static final Method TOTAL_ALLOCATED_BYTES = totalAllocatedBytes();
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+
+    /**
+     * Latência de entrega das mensagens, do fim da leitura do frame até a mensagem terminar de ser escrita no canal
+     * de um destinatário, medida em uma mensagem por vez de cada destinatário.
+     */
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    /**
+     * Tempo para criptografar uma mensagem, com a chave do canal ou com a chave de grupo.
+     */
+    private final LatencyHistogram encryptTime = new LatencyHistogram();
+
+    /**
+     * Tempo para descriptografar uma mensagem recebida.
+     */
+    private final LatencyHistogram decryptTime = new LatencyHistogram();
+
+    /**
+     * Conexões do servidor, nulo enquanto as métricas não estão associadas a um servidor.
+     */
+    private volatile ConnectionRegistry connections;
+
+    /**
+     * Salas do servidor, nulo enquanto as métricas não estão associadas a um servidor.
+     */
+    private volatile RoomManager rooms;
+
+    /**
+     * Configurações das conexões do servidor, de onde vem o pool de buffers em uso.
+     */
+    private volatile ConnectionSettings settings;
+
+    /**
+     * Nome com que as métricas foram registradas no JMX, nulo caso não estejam registradas.
+     */
+    private ObjectName objectName;
+
+    /**
+     * Associa as métricas às conexões e salas do servidor, usadas no cálculo das medidas instantâneas.
+     *
+     * @param connections conexões do servidor.
+     * @param rooms salas do servidor.
+     * @param settings configurações das conexões do servidor.
+     */
+    void bind(ConnectionRegistry connections, RoomManager rooms, ConnectionSettings settings) {
+        this.connections = connections;
+        this.rooms = rooms;
+        this.settings = settings;
+    }
+
+    /**
+     * Conta uma mensagem recebida de um cliente.
+     */
+    void onMessageIn() {
+        messagesIn.increment();
+    }
+
+    /**
+     * Conta uma mensagem colocada na fila de saída de um cliente.
+     */
+    void onMessageOut() {
+        messagesOut.increment();
+    }
+
+    /**
+     * Conta os bytes lidos do canal de um cliente.
+     *
+     * @param bytes quantidade de bytes.
+     */
+    void onBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Conta os bytes escritos no canal de um cliente.
+     *
+     * @param bytes quantidade de bytes.
+     */
+    void onBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Conta uma troca de chaves concluída.
+     *
+     * @param resumed true caso a sessão tenha sido retomada com um ticket.
+     */
+    void onHandshake(boolean resumed) {
+        handshakes.increment();
+
+        if(resumed)
+            resumedHandshakes.increment();
+    }
+
+    /**
+     * Conta uma conexão encerrada.
+     */
+    void onDisconnect() {
+        disconnects.increment();
+    }
+
+    /**
+     * Conta uma mensagem descartada por falta de espaço na fila de saída.
+     */
+    void onDropped() {
+        droppedMessages.increment();
+    }
+
+    /**
+     * Latência de entrega das mensagens, do fim da leitura do frame até a mensagem terminar de ser escrita no canal
+     * de um destinatário, medida em uma mensagem por vez de cada destinatário.
+     *
+     * @return histograma das latências.
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * Tempo para criptografar uma mensagem.
+     *
+     * @return histograma dos tempos.
+     */
+    public LatencyHistogram getEncryptTime() {
+        return encryptTime;
+    }
+
+    /**
+     * Tempo para descriptografar uma mensagem recebida.
+     *
+     * @return histograma dos tempos.
+     */
+    public LatencyHistogram getDecryptTime() {
+        return decryptTime;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getHandshakes() {
+        return handshakes.sum();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    @Override
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public int getConnections() {
+        ConnectionRegistry registry = connections;
+        return (registry != null) ? registry.size() : 0;
+    }
+
+    @Override
+    public int getConnectedUsers() {
+
+        int users = 0;
+
+        for (Connection connection : snapshot()){
+            if(connection.getUserName() != null && !connection.isClosed())
+                users++;
+        }
+
+        return users;
+    }
+
+    @Override
+    public int getRooms() {
+        RoomManager manager = rooms;
+        return (manager != null) ? manager.getRooms().size() : 0;
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+
+        long depth = 0;
+
+        for (Connection connection : snapshot()){
+            depth += connection.getOutboundSize();
+        }
+
+        return depth;
+    }
+
+    @Override
+    public int getMaxOutboundQueueDepth() {
+
+        int depth = 0;
+
+        for (Connection connection : snapshot()){
+            depth = Math.max(depth, connection.getOutboundSize());
+        }
+
+        return depth;
+    }
+
+    @Override
+    public double getDeliveryLatencyP50Micros() {
+        return deliveryLatency.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getDeliveryLatencyP99Micros() {
+        return deliveryLatency.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getDeliveryLatencyP999Micros() {
+        return deliveryLatency.getPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getDeliveryLatencyMaxMicros() {
+        return deliveryLatency.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getEncryptP50Micros() {
+        return encryptTime.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getEncryptP99Micros() {
+        return encryptTime.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getDecryptP50Micros() {
+        return decryptTime.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getDecryptP99Micros() {
+        return decryptTime.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public long getBufferPoolAcquired() {
+        BufferPool pool = bufferPool();
+        return (pool != null) ? pool.getAcquired() : 0;
+    }
+
+    @Override
+    public long getBufferPoolAllocated() {
+        BufferPool pool = bufferPool();
+        return (pool != null) ? pool.getAllocated() : 0;
+    }
+
+    @Override
+    public long getBufferPoolAllocatedBytes() {
+        BufferPool pool = bufferPool();
+        return (pool != null) ? pool.getAllocatedBytes() : 0;
+    }
+
+    @Override
+    public int getBufferPoolAvailable() {
+        BufferPool pool = bufferPool();
+        return (pool != null) ? pool.getAvailable() : 0;
+    }
+
+    /**
+     * Bytes alocados no heap por todas as threads da JVM desde o início, não só pelo servidor. A partir do Java 14
+     * inclui as threads já encerradas, nas versões anteriores soma apenas as threads vivas, o que faz o valor
+     * cair quando uma conexão do modo THREAD termina.
+     *
+     * @return bytes alocados, ou -1 caso a JVM não suporte a medição.
+     */
+    @Override
+    public long getHeapAllocatedBytes() {
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if(!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+
+        if(!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled())
+            return -1;
+
+        if(TOTAL_ALLOCATED_BYTES != null){
+            try {
+                return (long) TOTAL_ALLOCATED_BYTES.invoke(allocation);
+            } catch (ReflectiveOperationException ignored) {
+            }
+        }
+
+        long total = 0;
+
+        for (long bytes : allocation.getThreadAllocatedBytes(allocation.getAllThreadIds())){
+            if(bytes > 0)
+                total += bytes;
+        }
+
+        return total;
+    }
+
+    @Override
+    public long getGcCount() {
+
+        long count = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            count += Math.max(0, collector.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+
+        long time = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            time += Math.max(0, collector.getCollectionTime());
+        }
+
+        return time;
+    }
+
+    @Override
+    public List<ConnectionStats> getConnectionStats() {
+
+        Connection[] snapshot = snapshot();
+        List<ConnectionStats> stats = new ArrayList<>(snapshot.length);
+
+        for (Connection connection : snapshot){
+            stats.add(new ConnectionStats(connection));
+        }
+
+        return stats;
+    }
+
+    /**
+     * Registra as métricas no MBeanServer da plataforma.
+     *
+     * @param name nome que identifica o servidor, como host:porta.
+     *
+     * @throws Exception caso ocorra algum erro ao registrar o MBean.
+     */
+    public synchronized void register(String name) throws Exception {
+
+        if(objectName != null)
+            return;
+
+        ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Server,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+        this.objectName = objectName;
+    }
+
+    /**
+     * Remove as métricas do MBeanServer da plataforma, caso estejam registradas.
+     *
+     * @throws Exception caso ocorra algum erro ao remover o MBean.
+     */
+    public synchronized void unregister() throws Exception {
+
+        if(objectName == null)
+            return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        if(server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+
+        objectName = null;
+    }
+
+    /**
+     * Escreve as métricas no formato texto do Prometheus, as latências como resumos em segundos.
+     *
+     * @return métricas no formato de exposição do Prometheus.
+     */
+    public String toPrometheus() {
+
+        StringBuilder builder = new StringBuilder(4096);
+
+        counter(builder, "p2p_messages_in_total", "Messages received from clients.", getMessagesIn());
+        counter(builder, "p2p_messages_out_total", "Messages queued to clients.", getMessagesOut());
+        counter(builder, "p2p_bytes_in_total", "Bytes read from client sockets.", getBytesIn());
+        counter(builder, "p2p_bytes_out_total", "Bytes written to client sockets.", getBytesOut());
+        counter(builder, "p2p_handshakes_total", "Completed handshakes.", getHandshakes());
+        counter(builder, "p2p_resumed_handshakes_total", "Handshakes resumed with a session ticket.", getResumedHandshakes());
+        counter(builder, "p2p_disconnects_total", "Closed connections.", getDisconnects());
+        counter(builder, "p2p_dropped_messages_total", "Messages dropped because an outbound queue was full.", getDroppedMessages());
+
+        gauge(builder, "p2p_connections", "Open connections.", getConnections());
+        gauge(builder, "p2p_connected_users", "Connections that finished joining.", getConnectedUsers());
+        gauge(builder, "p2p_rooms", "Existing rooms.", getRooms());
+        gauge(builder, "p2p_outbound_queue_depth", "Messages waiting in all outbound queues.", getOutboundQueueDepth());
+        gauge(builder, "p2p_outbound_queue_depth_max", "Longest outbound queue.", getMaxOutboundQueueDepth());
+
+        counter(builder, "p2p_buffer_pool_acquired_total", "Buffers taken from the buffer pool.", getBufferPoolAcquired());
+        counter(builder, "p2p_buffer_pool_allocated_total", "Buffers the pool had to allocate.", getBufferPoolAllocated());
+        counter(builder, "p2p_buffer_pool_allocated_bytes_total", "Bytes the pool had to allocate.", getBufferPoolAllocatedBytes());
+        gauge(builder, "p2p_buffer_pool_available", "Free buffers in the buffer pool.", getBufferPoolAvailable());
+
+        long heapAllocated = getHeapAllocatedBytes();
+
+        if(heapAllocated >= 0)
+            counter(builder, "p2p_jvm_allocated_bytes_total", "Heap bytes allocated by every thread of the JVM.", heapAllocated);
+
+        counter(builder, "p2p_jvm_gc_collections_total", "Garbage collections.", getGcCount());
+
+        header(builder, "p2p_jvm_gc_time_seconds_total", "Time spent in garbage collections.", "counter");
+        builder.append("p2p_jvm_gc_time_seconds_total ").append(seconds(getGcTimeMillis() * 1_000_000)).append('\n');
+
+        summary(builder, "p2p_delivery_latency_seconds", "Time from receiving a message until it is written to a recipient's socket.", deliveryLatency);
+        summary(builder, "p2p_encrypt_seconds", "Time to encrypt an outgoing message.", encryptTime);
+        summary(builder, "p2p_decrypt_seconds", "Time to decrypt an incoming message.", decryptTime);
+
+        return builder.toString();
+    }
+
+    /**
+     * Conexões atuais do servidor.
+     *
+     * @return conexões, ou um array vazio enquanto as métricas não estão associadas a um servidor.
+     */
+    private Connection[] snapshot() {
+        ConnectionRegistry registry = connections;
+        return (registry != null) ? registry.snapshot() : new Connection[0];
+    }
+
+    /**
+     * Pool de buffers em uso pelo servidor.
+     *
+     * @return pool de buffers, ou null enquanto as métricas não estão associadas a um servidor.
+     */
+    private BufferPool bufferPool() {
+        ConnectionSettings settings = this.settings;
+        return (settings != null) ? settings.getBufferPool() : null;
+    }
+
+    private static Method totalAllocatedBytes() {
+        try {
+            return com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void counter(StringBuilder builder, String name, String help, long value) {
+        header(builder, name, help, "counter");
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder builder, String name, String help, long value) {
+        header(builder, name, help, "gauge");
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder builder, String name, String help, LatencyHistogram histogram) {
+
+        header(builder, name, help, "summary");
+
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}){
+            builder.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getPercentile(quantile * 100))).append('\n');
+        }
+
+        builder.append(name).append("_sum ").append(seconds(histogram.getTotal())).append('\n');
+        builder.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1_000_000_000.0);
+    }
+
+}
@@ -0,0 +1,79 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import java.util.List;
+
+/**
+ * Métricas do servidor expostas via JMX, visíveis no JConsole ou VisualVM em
+ * {@code br.dev.brunoxkk0.p2p:type=Server}. As latências são retornadas em microssegundos.
+ */
+public interface ServerMetricsMXBean {
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getHandshakes();
+
+    long getResumedHandshakes();
+
+    long getDisconnects();
+
+    long getDroppedMessages();
+
+    int getConnections();
+
+    int getConnectedUsers();
+
+    int getRooms();
+
+    long getOutboundQueueDepth();
+
+    int getMaxOutboundQueueDepth();
+
+    double getDeliveryLatencyP50Micros();
+
+    double getDeliveryLatencyP99Micros();
+
+    double getDeliveryLatencyP999Micros();
+
+    double getDeliveryLatencyMaxMicros();
+
+    double getEncryptP50Micros();
+
+    double getEncryptP99Micros();
+
+    double getDecryptP50Micros();
+
+    double getDecryptP99Micros();
+
+    long getBufferPoolAcquired();
+
+    long getBufferPoolAllocated();
+
+    long getBufferPoolAllocatedBytes();
+
+    int getBufferPoolAvailable();
+
+    /**
+     * Bytes alocados no heap por todas as threads da JVM, a taxa de alocação é a variação entre duas leituras.
+     *
+     * @return bytes alocados, ou -1 caso a JVM não suporte a medição.
+     */
+    long getHeapAllocatedBytes();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    /**
+     * Contadores de cada conexão aberta.
+     *
+     * @return fotografia dos contadores das conexões.
+     */
+    List<ConnectionStats> getConnectionStats();
+
+}
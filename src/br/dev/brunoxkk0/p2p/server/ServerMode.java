@@ -0,0 +1,25 @@
+package br.dev.brunoxkk0.p2p.server;
+
+/**
+ * Define a forma como o servidor lida com as conexões recebidas.
+ */
+public enum ServerMode {
+
+    /**
+     * Cada conexão é executada em uma thread de plataforma, que fica bloqueada aguardando dados do socket.
+     */
+    THREAD,
+
+    /**
+     * Cada conexão é executada em uma thread virtual (Java 21+), que fica bloqueada aguardando dados do socket,
+     * permitindo manter um grande número de conexões ociosas com pouco consumo de memória.
+     */
+    VIRTUAL_THREAD,
+
+    /**
+     * Todas as conexões são tratadas por uma única thread utilizando um {@link java.nio.channels.Selector},
+     * conexões ociosas não consomem processamento.
+     */
+    SELECTOR
+
+}
@@ -0,0 +1,138 @@
+package br.dev.brunoxkk0.p2p.server;
+
+import br.dev.brunoxkk0.p2p.common.AesGcmChannelCipher;
+import br.dev.brunoxkk0.p2p.common.SecurityUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emite e valida os tickets de sessão, permitindo que um cliente que reconecta retome a sessão em uma
+ * única ida e volta, sem as operações RSA da troca de chaves completa.
+ * <p>
+ * O ticket carrega a chave AES da sessão e a sua validade, criptografados com AES-GCM utilizando uma
+ * chave que só o servidor conhece, assim o servidor não precisa guardar nenhum estado por sessão.
+ * A chave é gerada junto com o servidor, tickets emitidos antes de um reinício são recusados e o
+ * cliente faz a troca de chaves completa.
+ * <p>
+ * Formato: nonce (12 bytes) + criptografado(validade (long) + chave AES) + tag de autenticação.
+ */
+public class SessionTickets {
+
+    /**
+     * Validade padrão dos tickets.
+     */
+    public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Chave usada para criptografar os tickets.
+     */
+    private final SecretKey ticketKey;
+
+    /**
+     * Validade dos tickets emitidos, em milissegundos.
+     */
+    private final long lifetimeMillis;
+
+    /**
+     * Cipher de cada thread, os tickets são emitidos pelas threads das conexões.
+     */
+    private final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AesGcmChannelCipher.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * Cria o emissor de tickets com uma nova chave.
+     *
+     * @param lifetimeMillis validade dos tickets emitidos, em milissegundos.
+     *
+     * @throws Exception caso ocorra algum erro ao gerar a chave dos tickets.
+     */
+    public SessionTickets(long lifetimeMillis) throws Exception {
+
+        if(lifetimeMillis <= 0)
+            throw new IllegalArgumentException("Ticket lifetime must be positive");
+
+        this.ticketKey = SecurityUtils.genAESKey();
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    /**
+     * Validade dos tickets emitidos.
+     *
+     * @return validade em milissegundos.
+     */
+    public long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    /**
+     * Emite um ticket para a sessão que usa a chave informada.
+     *
+     * @param secret chave AES da sessão.
+     *
+     * @return ticket em Base64.
+     *
+     * @throws Exception caso ocorra algum erro ao criptografar o ticket.
+     */
+    public String issue(SecretKey secret) throws Exception {
+
+        byte[] key = secret.getEncoded();
+        byte[] nonce = SecurityUtils.randomBytes(AesGcmChannelCipher.NONCE_SIZE);
+
+        Cipher encryptCipher = cipher.get();
+        encryptCipher.init(Cipher.ENCRYPT_MODE, ticketKey, new GCMParameterSpec(AesGcmChannelCipher.TAG_LENGTH, nonce));
+
+        ByteBuffer plain = ByteBuffer.allocate(Long.BYTES + key.length);
+        plain.putLong(System.currentTimeMillis() + lifetimeMillis).put(key).flip();
+
+        ByteBuffer ticket = ByteBuffer.allocate(nonce.length + encryptCipher.getOutputSize(plain.remaining()));
+        ticket.put(nonce);
+        encryptCipher.doFinal(plain, ticket);
+
+        return SecurityUtils.asBase64ToString(ticket.array());
+    }
+
+    /**
+     * Valida o ticket apresentado pelo cliente.
+     *
+     * @param ticket ticket em Base64.
+     *
+     * @return chave AES da sessão em que o ticket foi emitido, ou null caso o ticket seja inválido ou esteja expirado.
+     */
+    public SecretKey redeem(String ticket) {
+
+        try {
+
+            byte[] data = SecurityUtils.fromBase64(ticket);
+
+            if(data.length <= AesGcmChannelCipher.NONCE_SIZE)
+                return null;
+
+            Cipher decryptCipher = cipher.get();
+            decryptCipher.init(Cipher.DECRYPT_MODE, ticketKey, new GCMParameterSpec(AesGcmChannelCipher.TAG_LENGTH, data, 0, AesGcmChannelCipher.NONCE_SIZE));
+
+            ByteBuffer plain = ByteBuffer.wrap(decryptCipher.doFinal(data, AesGcmChannelCipher.NONCE_SIZE, data.length - AesGcmChannelCipher.NONCE_SIZE));
+
+            if(plain.getLong() < System.currentTimeMillis())
+                return null;
+
+            byte[] key = new byte[plain.remaining()];
+            plain.get(key);
+
+            return new SecretKeySpec(key, "AES");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}